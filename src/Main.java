@@ -1,20 +1,33 @@
 import static org.lwjgl.glfw.GLFW.glfwPollEvents;
 import static org.lwjgl.glfw.GLFW.glfwTerminate;
 
-import java.util.ArrayList;
+import java.nio.file.Paths;
 
-import org.lwjgl.glfw.GLFW;
-
-import engine.components.ComponentMapper;
+import engine.GameLoop;
+import engine.components.Archetype;
+import engine.components.Component;
+import engine.components.ComponentType;
 import engine.components.Entity;
 import engine.components.GraphicsComponent;
+import engine.components.Prefab;
+import engine.components.Query;
 import engine.components.TransformComponent;
+import engine.components.World;
+import engine.graphics.AtlasPacker;
 import engine.graphics.Font;
 import engine.graphics.Renderer;
-import engine.graphics.Texture;
+import engine.graphics.TextureLoader;
+import engine.graphics.TextureStreamer;
 import engine.graphics.Window;
 import engine.graphics.graphicsUtil.Color;
 import engine.graphics.graphicsUtil.Framebuffer;
+import engine.spatial.SpatialHash;
+import engine.systems.AnimationSystem;
+import engine.systems.AnimatorSystem;
+import engine.systems.InterpolationSystem;
+import engine.systems.SpatialIndexSystem;
+import engine.systems.SystemScheduler;
+import engine.util.ResourceManager;
  
 public class Main 
 {
@@ -29,57 +42,58 @@ public class Main
     private final int HEIGHT = 600;
     
     private Window window;
-    private Texture narryTex;
-    private Texture birboiTex;
     private Framebuffer fbo;
+    
+    // Simulation time in seconds, advanced by fixed ticks
+    private float time = 0.0f;
      
     public Main() 
     {
+        // Load from the baked assets if there are any (see AssetBaker)
+        ResourceManager.openPack(Paths.get("resources.pack"));
+        
         // Initialize OpenGL and GLFW
     	window = new Window();
         window.init(WIDTH, HEIGHT, "Lanorian Roguelite");
         
-        narryTex = new Texture("resources/images/narry");
-        birboiTex = new Texture("resources/images/birboi");
-        
         fbo = new Framebuffer(window.getWidth(), window.getHeight());
         window.setFramebuffer(fbo);
         
         Renderer renderer = new Renderer();
         renderer.setFramebuffer(fbo);
-
-        // FIXME: add everything below to a Scene class of sorts
-        Entity narry = new Entity();
-        Entity birboi = new Entity();
         
-        ArrayList<Entity> entities = new ArrayList<Entity>();
-        entities.add(narry);
-        entities.add(birboi);
-        
-        GraphicsComponent narryG = new GraphicsComponent(narryTex, "default");
-        GraphicsComponent birbG = new GraphicsComponent(birboiTex, "fly");
+        // Keep texture memory low enough for integrated graphics
+        TextureStreamer streamer = new TextureStreamer(ResourceManager.getTextureLoader());
+
+        // Pack the sheets into shared pages before the prefabs load them
+        AtlasPacker packer = new AtlasPacker();
+        packer.add("resources/images/narry");
+        packer.add("resources/images/birboi");
+        packer.add("resources/images/tilemap");
+        packer.pack();
         
-        TransformComponent narryTrans = new TransformComponent();
-        narryTrans.setPosition(300, 300);
-        narryTrans.setScale(4.0f, 4.0f);
-        narryTrans.setAsParent();
+        // FIXME: add everything below to a Scene class of sorts
+        World world = new World();
+        Prefab narryPrefab = new Prefab("resources/prefabs/narry");
+        Prefab birboiPrefab = new Prefab("resources/prefabs/birboi");
+        Entity narry = world.spawn(narryPrefab);
+        Entity birboi = world.spawn(birboiPrefab);
         
-        TransformComponent birbTrans = new TransformComponent();
-        birbTrans.setPosition(10, 10);
+        TransformComponent narryTrans = world.get(narry, TransformComponent.class);
+        TransformComponent birbTrans = world.get(birboi, TransformComponent.class);
         narryTrans.addChild(birbTrans);
         
-        narryG.setTransformComponent(narryTrans);
-        birbG.setTransformComponent(birbTrans);
-             
-        ComponentMapper<GraphicsComponent> graphMap = new ComponentMapper<>();
-        ComponentMapper<TransformComponent> transMap = new ComponentMapper<>();
+        final InterpolationSystem interpolation = new InterpolationSystem();
+        final SystemScheduler systems = new SystemScheduler();
+        systems.add(interpolation);
+        systems.add(new AnimationSystem());
+        systems.add(new AnimatorSystem());
+        systems.add(new SpatialIndexSystem(new SpatialHash(64)));
         
-        graphMap.add(narry, narryG);
-        graphMap.add(birboi, birbG);
-        transMap.add(narry, narryTrans);
-        transMap.add(birboi, birbTrans);
+        final Query drawable = world.query(GraphicsComponent.class, TransformComponent.class);
+        final int graphicsType = ComponentType.of(GraphicsComponent.class);
         
-        Font font = new Font(Font.ALEGREYA_SANS);
+        Font font = ResourceManager.loadFont(Font.ALEGREYA_SANS);
         font.setTextColor(Color.BLUE);
         TransformComponent tt = new TransformComponent();
         tt.setScale(2.0f);
@@ -88,36 +102,76 @@ public class Main
         font.setTransformComponent(tt);
         
         // Game loop
-        while (!window.closing()) 
+        GameLoop loop = new GameLoop();
+        loop.run(new GameLoop.Game()
         {
-        	// Get input
-            glfwPollEvents();
-            
-            // render the parent 
-            // TODO: basic world transform + camera
-            narryTrans.setRotation((float) Math.cos(GLFW.glfwGetTime()));
-            narryTrans.setScale(4*(float)Math.cos(GLFW.glfwGetTime()), 4*(float)Math.cos(GLFW.glfwGetTime()));
-            narryTrans.render(new TransformComponent(), true);
-            
-            tt.setScale(1.0f, 4*Math.abs((float)Math.cos(GLFW.glfwGetTime())));
-            tt.render(new TransformComponent(), true);
-            //font.drawText(renderer, "Phantom cheese doodles");
-            
-            for(Entity e : entities)
-            	graphMap.getFrom(e).render(renderer);
-            
-            renderer.render();
-            
-            window.display();
-            if(PRINT_FPS)
-            	window.printFPS();
-        }
+        	@Override
+        	public boolean isRunning()
+        	{
+        		return !window.closing();
+        	}
+        	
+        	@Override
+        	public void input()
+        	{
+        		glfwPollEvents();
+        	}
+        	
+        	@Override
+        	public void update(float dt)
+        	{
+        		systems.update(world, dt);
+        		tt.savePrevious();
+        		
+        		time += dt;
+        		narryTrans.setRotation((float) Math.cos(time));
+        		narryTrans.setScale(4*(float)Math.cos(time), 4*(float)Math.cos(time));
+        		tt.setScale(1.0f, 4*Math.abs((float)Math.cos(time)));
+        	}
+        	
+        	@Override
+        	public void render(float alpha)
+        	{
+        		// Finish textures that are loading in the background
+        		ResourceManager.getTextureLoader().upload(TextureLoader.DEFAULT_BUDGET);
+        		
+        		// render the parent 
+        		// TODO: basic world transform + camera
+        		interpolation.interpolate(world, alpha);
+        		narryTrans.render(new TransformComponent(), true);
+        		
+        		tt.interpolate(alpha);
+        		tt.render(new TransformComponent(), true);
+        		//font.drawText(renderer, "Phantom cheese doodles");
+        		
+        		for(int q = 0; q < drawable.getArchetypeCount(); q++)
+        		{
+        			Archetype a = drawable.getArchetype(q);
+        			Component[] graphics = a.getColumn(graphicsType);
+        			
+        			for(int i = 0; i < a.size(); i++)
+        				((GraphicsComponent) graphics[i]).render(renderer);
+        		}
+        		
+        		renderer.render();
+        		streamer.update();
+        		
+        		window.display();
+        		if(PRINT_FPS)
+        			window.printFPS();
+        	}
+        });
+        
+        world.clear();
+        narryPrefab.release();
+        birboiPrefab.release();
+        ResourceManager.release(font);
+        
         this.destroyOpenGL();
     }
      
     private void destroyOpenGL()
     {  
-        narryTex.delete();
         fbo.delete();
         glfwTerminate();
     }
@@ -0,0 +1,152 @@
+package engine;
+
+/*
+ * Runs the simulation at a fixed tick rate and renders as fast as
+ * the window allows. Frame time is added to an accumulator and the
+ * simulation steps in fixed increments until it catches up. Rendering
+ * then gets the fraction of a tick left over so it can interpolate
+ * between the previous and current simulation states.
+ */
+public class GameLoop
+{
+	public static final int DEFAULT_TICK_RATE = 60;
+
+	// Most ticks simulated in one frame before the loop gives up catching up
+	public static final int DEFAULT_MAX_STEPS = 5;
+
+	/*
+	 * Everything the loop drives
+	 */
+	public interface Game
+	{
+		/**
+		 * @return false once the loop should stop (e.g. the window is closing)
+		 */
+		public boolean isRunning();
+
+		/*
+		 * Called once per frame before simulating (e.g. poll events)
+		 */
+		public void input();
+
+		/**
+		 * Advance the simulation by one fixed tick
+		 * @param dt the length of a tick in seconds
+		 */
+		public void update(float dt);
+
+		/**
+		 * Draw one frame
+		 * @param alpha how far (0.0f--1.0f) the frame is between
+		 * the previous and the current tick
+		 */
+		public void render(float alpha);
+	}
+
+	private final double tickTime;
+	private final int maxSteps;
+
+	private double accumulator = 0.0;
+	private long tick = 0;
+	private float alpha = 0.0f;
+	private long droppedTicks = 0;
+
+	public GameLoop()
+	{
+		this(DEFAULT_TICK_RATE, DEFAULT_MAX_STEPS);
+	}
+
+	/**
+	 * @param tickRate the number of simulation ticks per second
+	 * @param maxSteps the most ticks simulated in a single frame
+	 */
+	public GameLoop(int tickRate, int maxSteps)
+	{
+		if(tickRate <= 0 || maxSteps <= 0)
+			throw new IllegalArgumentException("Tick rate and max steps must be positive!");
+
+		this.tickTime = 1.0 / tickRate;
+		this.maxSteps = maxSteps;
+	}
+
+	/**
+	 * Run the loop until the game stops running
+	 */
+	public void run(Game game)
+	{
+		long lastTime = System.nanoTime();
+
+		while(game.isRunning())
+		{
+			long now = System.nanoTime();
+			double frameTime = (now - lastTime) * 1e-9;
+			lastTime = now;
+
+			game.input();
+			frame(game, frameTime);
+		}
+	}
+
+	/**
+	 * Simulate as many ticks as the frame time allows, then render once
+	 *
+	 * @param frameTime the time since the last frame in seconds
+	 */
+	public void frame(Game game, double frameTime)
+	{
+		accumulator += frameTime;
+
+		int steps = 0;
+		while(accumulator >= tickTime && steps < maxSteps)
+		{
+			game.update((float) tickTime);
+			accumulator -= tickTime;
+			tick++;
+			steps++;
+		}
+
+		// Too far behind (e.g. a breakpoint or a long load). Drop the
+		// backlog instead of spending more and more time catching up
+		if(accumulator >= tickTime)
+		{
+			long behind = (long) (accumulator / tickTime);
+			droppedTicks += behind;
+			accumulator -= behind * tickTime;
+		}
+
+		alpha = (float) (accumulator / tickTime);
+		game.render(alpha);
+	}
+
+	/**
+	 * @return the number of ticks simulated so far
+	 */
+	public long getTick()
+	{
+		return tick;
+	}
+
+	/**
+	 * @return the length of one tick in seconds
+	 */
+	public float getTickTime()
+	{
+		return (float) tickTime;
+	}
+
+	/**
+	 * @return the interpolation factor of the last rendered frame
+	 */
+	public float getAlpha()
+	{
+		return alpha;
+	}
+
+	/**
+	 * @return the number of ticks skipped to avoid falling behind
+	 */
+	public long getDroppedTicks()
+	{
+		return droppedTicks;
+	}
+}
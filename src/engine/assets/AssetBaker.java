@@ -0,0 +1,381 @@
+package engine.assets;
+
+import static org.lwjgl.util.lz4.LZ4.LZ4_compressBound;
+import static org.lwjgl.util.lz4.LZ4HC.LZ4HC_CLEVEL_DEFAULT;
+import static org.lwjgl.util.lz4.LZ4HC.LZ4_compress_HC;
+import static org.lwjgl.util.xxhash.XXHash.XXH64;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.lwjgl.BufferUtils;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import de.matthiasmann.twl.utils.PNGDecoder;
+import de.matthiasmann.twl.utils.PNGDecoder.Format;
+
+import engine.graphics.Animation;
+import engine.graphics.TextureFormat;
+
+/*
+ * Bakes resources/images, fonts and shaders into one AssetPack file,
+ * so the game doesn't decode PNGs or parse atlas JSON at startup:
+ *
+ *     java engine.assets.AssetBaker src resources.pack [--lz4] [--compact]
+ *
+ * PNGs become raw pixels in the TextureFormat their atlas asks for
+ * (RGBA8 by default), atlas JSON (a JSON file with an "atlas" array)
+ * becomes binary animation tables, and everything else is stored as it
+ * is. With --compact, images whose atlas doesn't ask for a format get
+ * the smallest one that loses nothing (see TextureFormat.pick()).
+ *
+ * Every source file is hashed with xxhash64; when the pack already
+ * exists, assets whose source hash hasn't changed are copied from it
+ * instead of being baked again.
+ */
+public class AssetBaker
+{
+	public static final String[] DIRECTORIES = {
+		"resources/images",
+		"resources/fonts",
+		"resources/shaders"
+	};
+
+	private static final long SEED = 0;
+
+	// Let the baker pick the format of an image
+	private static final int AUTO = -1;
+
+	private final Path root;
+	private final boolean compress;
+	private final boolean compact;
+
+	private int baked = 0;
+	private int reused = 0;
+
+	/**
+	 * @param root the folder holding the resources folder (e.g. src)
+	 * @param compress whether to LZ4 compress assets that get smaller
+	 * @param compact whether to pick the smallest lossless format for
+	 * images whose atlas doesn't ask for one
+	 */
+	public AssetBaker(Path root, boolean compress, boolean compact)
+	{
+		this.root = root;
+		this.compress = compress;
+		this.compact = compact;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if(args.length < 2)
+			usage();
+
+		boolean compress = false;
+		boolean compact = false;
+		for(int i = 2; i < args.length; i++)
+		{
+			if(args[i].equals("--lz4"))
+				compress = true;
+			else if(args[i].equals("--compact"))
+				compact = true;
+			else
+				usage();
+		}
+
+		new AssetBaker(Paths.get(args[0]), compress, compact).bake(Paths.get(args[1]));
+	}
+
+	private static void usage()
+	{
+		System.err.println("Usage: AssetBaker <source root> <pack file> [--lz4] [--compact]");
+		System.exit(1);
+	}
+
+	/**
+	 * Bake every asset under the source root into a pack, reusing the
+	 * unchanged assets of the pack already there
+	 */
+	public void bake(Path pack) throws IOException
+	{
+		AssetPack previous = null;
+		if(Files.exists(pack))
+		{
+			try
+			{
+				// Read rather than map it, so it can be replaced afterwards
+				ByteBuffer old = ByteBuffer.allocateDirect((int) Files.size(pack));
+				try(FileChannel channel = FileChannel.open(pack, StandardOpenOption.READ))
+				{
+					while(old.hasRemaining() && channel.read(old) >= 0);
+				}
+				old.flip();
+				previous = new AssetPack(old);
+			}
+			catch(IOException e)
+			{
+				System.err.println("Rebaking everything: " + e.getMessage());
+			}
+		}
+
+		ArrayList<Path> files = new ArrayList<>();
+		for(String directory : DIRECTORIES)
+		{
+			Path dir = root.resolve(directory);
+			if(!Files.isDirectory(dir))
+				continue;
+
+			try(Stream<Path> walk = Files.walk(dir))
+			{
+				files.addAll(walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList()));
+			}
+		}
+
+		Path temp = pack.resolveSibling(pack.getFileName() + ".tmp");
+		try(FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			ArrayList<AssetPack.Entry> entries = new ArrayList<>();
+			long offset = align(AssetPack.HEADER_SIZE);
+
+			for(Path file : files)
+			{
+				AssetPack.Entry entry = new AssetPack.Entry();
+				entry.path = root.relativize(file).toString().replace('\\', '/');
+
+				ByteBuffer stored = bakeFile(file, entry, previous);
+				entry.offset = offset;
+				entry.storedSize = stored.remaining();
+
+				out.write(stored, offset);
+				offset = align(offset + entry.storedSize);
+				entries.add(entry);
+			}
+
+			writeIndex(out, entries, offset);
+		}
+
+		Files.move(temp, pack, StandardCopyOption.REPLACE_EXISTING);
+		System.out.println("Baked " + baked + " assets, reused " + reused + " into " + pack);
+	}
+
+	/*
+	 * Fill in an entry and get the bytes to store for a source file
+	 */
+	private ByteBuffer bakeFile(Path file, AssetPack.Entry entry, AssetPack previous) throws IOException
+	{
+		ByteBuffer source = read(file);
+		String name = file.getFileName().toString();
+
+		// Images are hashed with the format asked for, so asking for
+		// another one bakes them again
+		int format = name.endsWith(".png") ? requestedFormat(file) : AUTO;
+		entry.hash = XXH64(source, name.endsWith(".png") ? SEED + 2 + format : SEED);
+
+		AssetPack.Entry old = previous == null ? null : previous.getEntry(entry.path);
+		if(old != null && old.hash == entry.hash && (old.compression != AssetPack.NONE) == compress)
+		{
+			entry.type = old.type;
+			entry.compression = old.compression;
+			entry.size = old.size;
+			entry.width = old.width;
+			entry.height = old.height;
+			entry.format = old.format;
+			reused++;
+			return previous.getStored(old);
+		}
+
+		ByteBuffer data;
+		if(name.endsWith(".png"))
+			data = bakeImage(source, entry, format);
+		else if(name.endsWith(".json") && (data = bakeAtlas(source)) != null)
+			entry.type = AssetPack.ATLAS;
+		else
+		{
+			entry.type = AssetPack.RAW;
+			data = source;
+		}
+
+		entry.size = data.remaining();
+		entry.compression = AssetPack.NONE;
+		baked++;
+
+		if(compress)
+		{
+			ByteBuffer compressed = BufferUtils.createByteBuffer(LZ4_compressBound(entry.size));
+			int size = LZ4_compress_HC(data, compressed, LZ4HC_CLEVEL_DEFAULT);
+			if(size > 0 && size < entry.size)
+			{
+				compressed.limit(size);
+				entry.compression = AssetPack.LZ4;
+				return compressed;
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * @return the format an image's atlas asks for, or AUTO or RGBA8 if
+	 * it doesn't ask for one
+	 */
+	private int requestedFormat(Path image) throws IOException
+	{
+		String name = image.getFileName().toString();
+		Path atlas = image.resolveSibling(name.substring(0, name.length() - ".png".length()) + ".json");
+
+		if(Files.exists(atlas))
+		{
+			try(InputStreamReader reader = new InputStreamReader(Files.newInputStream(atlas), StandardCharsets.UTF_8))
+			{
+				JsonElement json = new JsonParser().parse(reader);
+				if(json.isJsonObject() && json.getAsJsonObject().has("format"))
+					return TextureFormat.fromAtlas(json.getAsJsonObject());
+			}
+		}
+		return compact ? AUTO : TextureFormat.RGBA8;
+	}
+
+	private static ByteBuffer bakeImage(ByteBuffer source, AssetPack.Entry entry, int format) throws IOException
+	{
+		byte[] bytes = new byte[source.remaining()];
+		source.duplicate().get(bytes);
+		PNGDecoder decoder = new PNGDecoder(new ByteArrayInputStream(bytes));
+
+		entry.type = AssetPack.IMAGE;
+		entry.width = decoder.getWidth();
+		entry.height = decoder.getHeight();
+
+		ByteBuffer pixels = BufferUtils.createByteBuffer(entry.width * entry.height * 4);
+		decoder.decode(pixels, entry.width * 4, Format.RGBA);
+		pixels.flip();
+
+		if(format == AUTO)
+			format = TextureFormat.pick(pixels, entry.width, entry.height);
+
+		if(format != TextureFormat.RGBA8)
+		{
+			// 16 bit pixels are stored little endian like the rest of the pack
+			ByteBuffer converted = TextureFormat.convert(pixels, entry.width, entry.height, format, ByteOrder.LITTLE_ENDIAN);
+			if(converted != null)
+			{
+				entry.format = (byte) format;
+				return converted;
+			}
+			System.err.println("Keeping " + entry.path + " rgba8, it has more than "
+					+ TextureFormat.PALETTE_SIZE + " colors to index");
+		}
+
+		entry.format = TextureFormat.RGBA8;
+		return pixels;
+	}
+
+	/**
+	 * @return the binary animation tables of an atlas, or null if the
+	 * JSON isn't an atlas
+	 */
+	private static ByteBuffer bakeAtlas(ByteBuffer source)
+	{
+		byte[] bytes = new byte[source.remaining()];
+		source.duplicate().get(bytes);
+
+		JsonElement json = new JsonParser().parse(new InputStreamReader(
+				new ByteArrayInputStream(bytes), StandardCharsets.UTF_8));
+		if(!json.isJsonObject() || !json.getAsJsonObject().has("atlas"))
+			return null;
+
+		JsonArray atlas = json.getAsJsonObject().getAsJsonArray("atlas");
+		ByteBuffer out = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+		out.putInt(atlas.size());
+
+		for(JsonElement element : atlas)
+		{
+			Animation animation = new Animation();
+			animation.parse((JsonObject) element);
+
+			while(true)
+			{
+				int start = out.position();
+				try
+				{
+					animation.write(out);
+					break;
+				}
+				catch(BufferOverflowException e)
+				{
+					out.position(start);
+					out.flip();
+					out = ByteBuffer.allocate(out.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN).put(out);
+				}
+			}
+		}
+
+		out.flip();
+		ByteBuffer direct = BufferUtils.createByteBuffer(out.remaining());
+		direct.put(out).flip();
+		return direct;
+	}
+
+	private static void writeIndex(FileChannel out, ArrayList<AssetPack.Entry> entries, long offset) throws IOException
+	{
+		int size = 0;
+		for(AssetPack.Entry entry : entries)
+			size += 2 + entry.path.getBytes(StandardCharsets.UTF_8).length + 3 + 8 + 8 + 4 * 4;
+
+		ByteBuffer index = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		for(AssetPack.Entry entry : entries)
+		{
+			byte[] path = entry.path.getBytes(StandardCharsets.UTF_8);
+			index.putShort((short) path.length).put(path);
+			index.put(entry.type).put(entry.compression).put(entry.format);
+			index.putLong(entry.hash);
+			index.putLong(entry.offset);
+			index.putInt(entry.storedSize).putInt(entry.size);
+			index.putInt(entry.width).putInt(entry.height);
+		}
+		index.flip();
+		out.write(index, offset);
+
+		ByteBuffer header = ByteBuffer.allocate(AssetPack.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(AssetPack.MAGIC);
+		header.putShort(AssetPack.VERSION);
+		header.putShort((short) 0);
+		header.putInt(entries.size());
+		header.putLong(offset);
+		header.flip();
+		out.write(header, 0);
+	}
+
+	private static ByteBuffer read(Path file) throws IOException
+	{
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			ByteBuffer buffer = BufferUtils.createByteBuffer((int) channel.size());
+			while(buffer.hasRemaining() && channel.read(buffer) >= 0);
+			buffer.flip();
+			return buffer;
+		}
+	}
+
+	private static long align(long offset)
+	{
+		return (offset + AssetPack.ALIGNMENT - 1) & -AssetPack.ALIGNMENT;
+	}
+}
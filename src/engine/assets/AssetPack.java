@@ -0,0 +1,237 @@
+package engine.assets;
+
+import static org.lwjgl.util.lz4.LZ4.LZ4_decompress_safe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+
+import org.lwjgl.BufferUtils;
+
+import engine.graphics.Animation;
+
+/*
+ * A pack of baked assets (see AssetBaker), memory-mapped so assets are
+ * read straight from the file without decoding:
+ *
+ *   images are raw pixels in their TextureFormat that can be uploaded
+ *   to GL as they are (indexed images are followed by their palette)
+ *   atlases are binary animation tables (see Animation.write())
+ *   fonts, shaders and other files are their original bytes
+ *
+ * Every asset may be LZ4 compressed, in which case it's decompressed
+ * into a new buffer when read.
+ *
+ * Layout (little endian):
+ *
+ *   magic, version, entry count, index offset
+ *   asset data, every asset 16 byte aligned
+ *   index: per asset its path, type, compression, texture format,
+ *          source hash, offset, stored size, size, width and height
+ *
+ * Assets are looked up by their path under the source root with the
+ * extension, e.g. resources/images/narry.png.
+ */
+public class AssetPack
+{
+	public static final int MAGIC = 0x4B41504C; // "LPAK"
+	public static final short VERSION = 2;
+
+	public static final int HEADER_SIZE = 4 + 2 + 2 + 4 + 8;
+	public static final int ALIGNMENT = 16;
+
+	// Asset types
+	public static final byte RAW = 0;
+	public static final byte IMAGE = 1;
+	public static final byte ATLAS = 2;
+
+	// Compression
+	public static final byte NONE = 0;
+	public static final byte LZ4 = 1;
+
+	/*
+	 * Where one asset is in the pack
+	 */
+	public static class Entry
+	{
+		public String path;
+		public byte type;
+		public byte compression;
+
+		// xxhash64 of the source file the asset was baked from
+		public long hash;
+
+		public long offset;
+		public int storedSize;
+		public int size;
+
+		// Images only
+		public int width;
+		public int height;
+		public byte format;
+	}
+
+	private final ByteBuffer data;
+	private final HashMap<String, Entry> entries = new HashMap<>();
+
+	/**
+	 * Map a pack file
+	 *
+	 * @throws IOException if the file can't be read or isn't a pack
+	 */
+	public static AssetPack open(Path path) throws IOException
+	{
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new AssetPack(data);
+		}
+	}
+
+	/**
+	 * @param data the whole pack file
+	 * @throws IOException if the data isn't a pack
+	 */
+	AssetPack(ByteBuffer data) throws IOException
+	{
+		this.data = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+		if(this.data.getInt(0) != MAGIC)
+			throw new IOException("Not an asset pack");
+
+		short version = this.data.getShort(4);
+		if(version != VERSION)
+			throw new IOException("Unsupported asset pack version " + version + " (expected " + VERSION + ")");
+
+		int count = this.data.getInt(8);
+		ByteBuffer in = this.data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		in.position((int) this.data.getLong(12));
+
+		for(int i = 0; i < count; i++)
+		{
+			Entry entry = new Entry();
+			byte[] bytes = new byte[in.getShort()];
+			in.get(bytes);
+			entry.path = new String(bytes, StandardCharsets.UTF_8);
+			entry.type = in.get();
+			entry.compression = in.get();
+			entry.format = in.get();
+			entry.hash = in.getLong();
+			entry.offset = in.getLong();
+			entry.storedSize = in.getInt();
+			entry.size = in.getInt();
+			entry.width = in.getInt();
+			entry.height = in.getInt();
+			entries.put(entry.path, entry);
+		}
+	}
+
+	/**
+	 * Turn a file or resource path into the path of its asset, e.g.
+	 * src/resources/shaders/TextVert.glsl into resources/shaders/TextVert.glsl
+	 */
+	public static String key(String path)
+	{
+		path = path.replace('\\', '/');
+		int resources = path.indexOf("resources/");
+		return resources > 0 ? path.substring(resources) : path;
+	}
+
+	public boolean has(String path)
+	{
+		return entries.containsKey(key(path));
+	}
+
+	/**
+	 * @return the index entry of an asset, or null if it isn't in the pack
+	 */
+	public Entry getEntry(String path)
+	{
+		return entries.get(key(path));
+	}
+
+	public Collection<Entry> getEntries()
+	{
+		return entries.values();
+	}
+
+	/**
+	 * Get the bytes of an asset. Uncompressed assets are a view of the
+	 * mapped file, so nothing is copied
+	 *
+	 * @return a direct buffer holding the asset, or null if it isn't in the pack
+	 */
+	public ByteBuffer get(String path)
+	{
+		Entry entry = getEntry(path);
+		if(entry == null)
+			return null;
+
+		ByteBuffer stored = getStored(entry);
+		if(entry.compression == NONE)
+			return stored;
+
+		ByteBuffer out = BufferUtils.createByteBuffer(entry.size);
+		int read = LZ4_decompress_safe(stored, out);
+		if(read != entry.size)
+			throw new IllegalStateException("Corrupt asset " + entry.path + " in pack");
+		return out;
+	}
+
+	/*
+	 * Get the bytes of an asset as they are in the file, compressed or not
+	 */
+	ByteBuffer getStored(Entry entry)
+	{
+		ByteBuffer stored = data.duplicate();
+		stored.position((int) entry.offset);
+		stored.limit((int) entry.offset + entry.storedSize);
+		return stored.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * @return the text of a shader or other text asset, or null if it isn't in the pack
+	 */
+	public String getString(String path)
+	{
+		ByteBuffer bytes = get(path);
+		if(bytes == null)
+			return null;
+
+		byte[] text = new byte[bytes.remaining()];
+		bytes.get(text);
+		return new String(text, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Read the animations of a baked atlas
+	 *
+	 * @param path the path of the atlas, e.g. resources/images/narry.json
+	 * @return the animations, or null if the atlas isn't in the pack
+	 */
+	public ArrayList<Animation> getAnimations(String path)
+	{
+		ByteBuffer in = get(path);
+		if(in == null)
+			return null;
+
+		in.order(ByteOrder.LITTLE_ENDIAN);
+		int count = in.getInt();
+		ArrayList<Animation> animations = new ArrayList<>(count);
+		for(int i = 0; i < count; i++)
+		{
+			Animation animation = new Animation();
+			animation.read(in);
+			animations.add(animation);
+		}
+		return animations;
+	}
+}
@@ -0,0 +1,197 @@
+package engine.components;
+
+import engine.graphics.Animation;
+import engine.graphics.AnimationController;
+import engine.graphics.AnimationEvents;
+
+/*
+ * Runs an AnimationController for one entity: holds its parameter
+ * values and current state, and tells the entity's GraphicsComponent
+ * which animation to play. Parameters are set by id (see
+ * AnimationController.getParameterId()), never by name.
+ */
+public class AnimatorComponent implements Component
+{
+	private AnimationController controller;
+	private float[] parameters;
+
+	private int state = AnimationController.NONE;
+
+	// Last frame (counting loops) whose events were fired
+	private long lastFrame = -1;
+
+	public AnimatorComponent(AnimationController controller)
+	{
+		this.controller = controller;
+		this.parameters = new float[controller.getParameterCount()];
+		controller.resetParameters(parameters);
+	}
+
+	/**
+	 * Take a transition if one is ready, make the graphics play the
+	 * current state and push the events of every frame reached since
+	 * the last update. Does nothing while the texture is loading
+	 *
+	 * @param graphics the graphics of the same entity
+	 * @param events where frame events go
+	 * @param entity the handle of the entity, for the events
+	 */
+	public void update(GraphicsComponent graphics, AnimationEvents events, int entity)
+	{
+		if(!controller.isLoaded())
+			return;
+
+		if(state == AnimationController.NONE || graphics.getAnimation() != controller.getAnimation(state))
+			enter(state == AnimationController.NONE ? controller.getStartState() : state, graphics);
+
+		Animation animation = graphics.getAnimation();
+		boolean finished = graphics.getAnimationTime() >= animation.getDuration();
+
+		int transition = controller.findTransition(state, parameters, finished);
+		if(transition != AnimationController.NONE)
+		{
+			controller.consumeTriggers(transition, parameters);
+			enter(controller.getTransitionTarget(transition), graphics);
+			animation = graphics.getAnimation();
+		}
+
+		fireEvents(animation, graphics.getAnimationTime(), events, entity);
+	}
+
+	/**
+	 * Jump to a state and play its animation from the start
+	 */
+	public void enter(int state, GraphicsComponent graphics)
+	{
+		this.state = state;
+		graphics.setAnimation(controller.getAnimation(state));
+		graphics.restartAnimation();
+		lastFrame = -1;
+	}
+
+	public void setFloat(int parameter, float value)
+	{
+		parameters[parameter] = value;
+	}
+
+	public void setInt(int parameter, int value)
+	{
+		parameters[parameter] = value;
+	}
+
+	public void setBool(int parameter, boolean value)
+	{
+		parameters[parameter] = value ? 1.0f : 0.0f;
+	}
+
+	/*
+	 * Set a trigger. It stays on until a transition uses it
+	 */
+	public void setTrigger(int parameter)
+	{
+		parameters[parameter] = 1.0f;
+	}
+
+	public float getFloat(int parameter)
+	{
+		return parameters[parameter];
+	}
+
+	public int getInt(int parameter)
+	{
+		return (int) parameters[parameter];
+	}
+
+	public boolean getBool(int parameter)
+	{
+		return parameters[parameter] != 0.0f;
+	}
+
+	/**
+	 * @return the value of every parameter, indexed by parameter id
+	 */
+	public float[] getParameters()
+	{
+		return parameters;
+	}
+
+	/**
+	 * @return the current state, or AnimationController.NONE before the first update
+	 */
+	public int getState()
+	{
+		return state;
+	}
+
+	/*
+	 * Set the state without restarting the animation (e.g. when restoring
+	 * a snapshot). Use enter() to play a state from the start
+	 */
+	public void setState(int state, long lastFrame)
+	{
+		this.state = state;
+		this.lastFrame = lastFrame;
+	}
+
+	public long getLastFrame()
+	{
+		return lastFrame;
+	}
+
+	public AnimationController getController()
+	{
+		return controller;
+	}
+
+	@Override
+	public AnimatorComponent copy()
+	{
+		AnimatorComponent copy = new AnimatorComponent(controller);
+		copy.reset(this);
+		return copy;
+	}
+
+	/**
+	 * Use the template's controller and parameter values, and start
+	 * over from the start state
+	 */
+	@Override
+	public void reset(Component template)
+	{
+		AnimatorComponent a = (AnimatorComponent) template;
+
+		if(parameters.length != a.parameters.length)
+			parameters = new float[a.parameters.length];
+
+		controller = a.controller;
+		System.arraycopy(a.parameters, 0, parameters, 0, parameters.length);
+		state = AnimationController.NONE;
+		lastFrame = -1;
+	}
+
+	private void fireEvents(Animation animation, float time, AnimationEvents events, int entity)
+	{
+		int first = controller.getFirstEvent(state);
+		int count = controller.getEventCount(state);
+		int frameCount = Math.max(animation.getFrameCount(), 1);
+
+		long frame = animation.getInterval() > 0 ? (long) (time / animation.getInterval()) : 0;
+		if(!animation.isLoop())
+			frame = Math.min(frame, frameCount - 1);
+
+		if(frame <= lastFrame)
+			return;
+
+		// Don't fire the same loop more than once after a long gap
+		long from = Math.max(lastFrame + 1, frame - frameCount + 1);
+		lastFrame = frame;
+
+		for(long f = from; f <= frame; f++)
+		{
+			int index = animation.getFrameIndex((int) f);
+			for(int e = first; e < first + count; e++)
+				if(controller.getEventFrame(e) == index)
+					events.push(entity, controller.getEvent(e));
+		}
+	}
+}
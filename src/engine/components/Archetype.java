@@ -0,0 +1,181 @@
+package engine.components;
+
+import java.util.Arrays;
+
+/*
+ * Holds every entity that has exactly the same set of components.
+ * Each component type gets its own array and an entity's components
+ * share the same row in all of them, so iterating over every entity
+ * of an archetype is a linear scan.
+ */
+public final class Archetype
+{
+	private static final int INITIAL_CAPACITY = 16;
+	
+	private final long mask;
+	private final int[] types;
+	
+	// Component type id -> column index, or -1 if this archetype doesn't have it
+	private final int[] columnOf = new int[ComponentType.MAX_TYPES];
+	
+	private Component[][] columns;
+	private Entity[] entities;
+	private int size = 0;
+	
+	// Archetypes reached by adding or removing one component type
+	final Archetype[] addEdges = new Archetype[ComponentType.MAX_TYPES];
+	final Archetype[] removeEdges = new Archetype[ComponentType.MAX_TYPES];
+	
+	Archetype(long mask)
+	{
+		this.mask = mask;
+		this.types = new int[Long.bitCount(mask)];
+		
+		Arrays.fill(columnOf, -1);
+		
+		int column = 0;
+		for(int type = 0; type < ComponentType.MAX_TYPES; type++)
+		{
+			if((mask & (1L << type)) != 0)
+			{
+				types[column] = type;
+				columnOf[type] = column++;
+			}
+		}
+		
+		columns = new Component[types.length][INITIAL_CAPACITY];
+		entities = new Entity[INITIAL_CAPACITY];
+	}
+	
+	/*
+	 * Add a row for an entity. Its components must be set afterwards
+	 */
+	int add(Entity entity)
+	{
+		ensureCapacity(size + 1);
+		entities[size] = entity;
+		return size++;
+	}
+	
+	/*
+	 * Remove a row by moving the last row into it.
+	 * Returns the entity that now lives in the row, or null if 
+	 * the removed row was the last one
+	 */
+	Entity remove(int row)
+	{
+		int last = --size;
+		Entity moved = null;
+		
+		if(row != last)
+		{
+			entities[row] = entities[last];
+			for(Component[] column : columns)
+				column[row] = column[last];
+			moved = entities[row];
+		}
+		
+		// Don't keep dead components reachable
+		entities[last] = null;
+		for(Component[] column : columns)
+			column[last] = null;
+		
+		return moved;
+	}
+	
+	/*
+	 * Remove every row
+	 */
+	void clear()
+	{
+		Arrays.fill(entities, 0, size, null);
+		for(Component[] column : columns)
+			Arrays.fill(column, 0, size, null);
+		size = 0;
+	}
+	
+	/*
+	 * Make room for at least this many entities
+	 */
+	void ensureCapacity(int capacity)
+	{
+		if(capacity <= entities.length)
+			return;
+		
+		int newCapacity = Math.max(capacity, entities.length * 2);
+		entities = Arrays.copyOf(entities, newCapacity);
+		for(int c = 0; c < columns.length; c++)
+			columns[c] = Arrays.copyOf(columns[c], newCapacity);
+	}
+	
+	void set(int row, int type, Component component)
+	{
+		columns[columnOf[type]][row] = component;
+	}
+	
+	/**
+	 * @return the component of a type in a row, or null if
+	 * this archetype doesn't have the type
+	 */
+	public Component get(int row, int type)
+	{
+		int column = columnOf[type];
+		return column < 0 ? null : columns[column][row];
+	}
+	
+	/**
+	 * Get the whole array of one component type. Only the first
+	 * size() elements are valid. Cast each element to the type.
+	 * 
+	 * @return the array, or null if this archetype doesn't have the type
+	 */
+	public Component[] getColumn(int type)
+	{
+		int column = columnOf[type];
+		return column < 0 ? null : columns[column];
+	}
+	
+	public Component[] getColumn(Class<? extends Component> type)
+	{
+		return getColumn(ComponentType.of(type));
+	}
+	
+	public Entity getEntity(int row)
+	{
+		return entities[row];
+	}
+	
+	/**
+	 * @return whether this archetype has every type of a mask
+	 */
+	public boolean matches(long mask)
+	{
+		return (this.mask & mask) == mask;
+	}
+	
+	public boolean has(int type)
+	{
+		return columnOf[type] >= 0;
+	}
+	
+	public long getMask()
+	{
+		return mask;
+	}
+	
+	/**
+	 * @return the ids of the component types, in increasing order
+	 */
+	public int[] getTypes()
+	{
+		return types;
+	}
+	
+	/**
+	 * @return the number of entities in this archetype
+	 */
+	public int size()
+	{
+		return size;
+	}
+}
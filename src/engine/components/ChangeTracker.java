@@ -0,0 +1,192 @@
+package engine.components;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/*
+ * Records which entities had a component of one type changed, added
+ * or removed. Components report their own changes (see TrackedComponent)
+ * so systems can process only what changed instead of every entity.
+ *
+ * Changes are double buffered. Everything recorded during a tick becomes
+ * readable after the next swap() (done by the SystemScheduler at the
+ * start of every tick), so systems always see the whole previous tick no
+ * matter which order they run in, and reading never races with writing.
+ *
+ * Every thread records into its own buffer, so components may change
+ * from parallel queries and systems. swap() merges the buffers, and
+ * must not run while anything is recording. The buffers of threads
+ * that have ended (e.g. pool workers that timed out) are dropped then.
+ */
+public final class ChangeTracker
+{
+	// The buffer of every thread that recorded something
+	private final ArrayList<Buffer> recording = new ArrayList<>();
+	private final ThreadLocal<Buffer> live = ThreadLocal.withInitial(this::register);
+
+	private final Buffer frozen = new Buffer(null);
+
+	private static final class Buffer
+	{
+		// The thread recording into this buffer, or null for the frozen one
+		final Thread thread;
+
+		// The handle last recorded per entity index. Compared by handle, so
+		// an index reused by a new entity in the same tick is recorded again
+		Entity[] marked = new Entity[64];
+		Entity[] changed = new Entity[16];
+		int changedCount = 0;
+		Entity[] removed = new Entity[16];
+		int removedCount = 0;
+
+		Buffer(Thread thread)
+		{
+			this.thread = thread;
+		}
+
+		/**
+		 * @return false if the entity was already recorded
+		 */
+		boolean mark(Entity entity)
+		{
+			int index = entity.getIndex();
+			if(index >= marked.length)
+				marked = Arrays.copyOf(marked, Math.max(index + 1, marked.length * 2));
+
+			if(entity.equals(marked[index]))
+				return false;
+			marked[index] = entity;
+			return true;
+		}
+
+		void addChanged(Entity entity)
+		{
+			if(changedCount == changed.length)
+				changed = Arrays.copyOf(changed, changedCount * 2);
+			changed[changedCount++] = entity;
+		}
+
+		void addRemoved(Entity entity)
+		{
+			if(removedCount == removed.length)
+				removed = Arrays.copyOf(removed, removedCount * 2);
+			removed[removedCount++] = entity;
+		}
+
+		boolean isMarked(Entity entity)
+		{
+			int index = entity.getIndex();
+			return index < marked.length && entity.equals(marked[index]);
+		}
+
+		void clear()
+		{
+			for(int i = 0; i < changedCount; i++)
+			{
+				marked[changed[i].getIndex()] = null;
+				changed[i] = null;
+			}
+			Arrays.fill(removed, 0, removedCount, null);
+
+			changedCount = 0;
+			removedCount = 0;
+		}
+	}
+
+	private Buffer register()
+	{
+		Buffer buffer = new Buffer(Thread.currentThread());
+		synchronized(recording)
+		{
+			recording.add(buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Record a change of an entity's component. Recording the same
+	 * entity again in the same tick does nothing
+	 */
+	public void markChanged(Entity entity)
+	{
+		Buffer b = live.get();
+		if(b.mark(entity))
+			b.addChanged(entity);
+	}
+
+	/**
+	 * Record that an entity lost its component (or was destroyed)
+	 */
+	public void markRemoved(Entity entity)
+	{
+		live.get().addRemoved(entity);
+	}
+
+	/*
+	 * Make everything recorded since the last swap readable
+	 * and start recording the next tick
+	 */
+	public void swap()
+	{
+		frozen.clear();
+
+		synchronized(recording)
+		{
+			for(Iterator<Buffer> it = recording.iterator(); it.hasNext();)
+			{
+				Buffer b = it.next();
+				for(int i = 0; i < b.changedCount; i++)
+					if(frozen.mark(b.changed[i]))
+						frozen.addChanged(b.changed[i]);
+
+				for(int i = 0; i < b.removedCount; i++)
+					frozen.addRemoved(b.removed[i]);
+
+				b.clear();
+				if(!b.thread.isAlive())
+					it.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of entities changed last tick
+	 */
+	public int getChangedCount()
+	{
+		return frozen.changedCount;
+	}
+
+	/**
+	 * @param i from 0 to getChangedCount() - 1
+	 */
+	public Entity getChanged(int i)
+	{
+		return frozen.changed[i];
+	}
+
+	/**
+	 * @return whether the entity's component changed last tick
+	 */
+	public boolean isChanged(Entity entity)
+	{
+		return frozen.isMarked(entity);
+	}
+
+	/**
+	 * @return the number of entities that lost the component last tick
+	 */
+	public int getRemovedCount()
+	{
+		return frozen.removedCount;
+	}
+
+	/**
+	 * @param i from 0 to getRemovedCount() - 1
+	 */
+	public Entity getRemoved(int i)
+	{
+		return frozen.removed[i];
+	}
+}
@@ -0,0 +1,266 @@
+package engine.components;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+ * Records structural changes (creating and destroying entities, adding
+ * and removing components) so systems can ask for them while they
+ * iterate, even from worker threads. Nothing happens to the world until
+ * playback(), which the SystemScheduler calls once every system of the
+ * tick is done.
+ * 
+ * Every thread records into its own buffer, so recording never waits
+ * on a lock. On playback all the commands of an entity are merged so
+ * each entity moves between archetypes at most once, and the buffers of
+ * threads that have ended are dropped.
+ */
+public final class CommandBuffer
+{
+	private static final int CREATE = 0;
+	private static final int DESTROY = 1;
+	private static final int ADD = 2;
+	private static final int REMOVE = 3;
+	
+	private final World world;
+	
+	// Every thread's buffer. Appended to the first time a thread records
+	private final ConcurrentLinkedQueue<LocalBuffer> buffers = new ConcurrentLinkedQueue<>();
+	
+	private final ThreadLocal<LocalBuffer> local = new ThreadLocal<LocalBuffer>()
+	{
+		@Override
+		protected LocalBuffer initialValue()
+		{
+			LocalBuffer buffer = new LocalBuffer(Thread.currentThread());
+			buffers.add(buffer);
+			return buffer;
+		}
+	};
+	
+	// Playback scratch, reused every time
+	private long[] order = new long[64];
+	private int[] allOps = new int[64];
+	private Entity[] allEntities = new Entity[64];
+	private Object[] allArgs = new Object[64];
+	private final Component[] byType = new Component[ComponentType.MAX_TYPES];
+	
+	/*
+	 * The commands recorded by one thread
+	 */
+	private static final class LocalBuffer
+	{
+		final Thread thread;
+		
+		int[] ops = new int[64];
+		Entity[] entities = new Entity[64];
+		Object[] args = new Object[64];
+		int count = 0;
+		
+		LocalBuffer(Thread thread)
+		{
+			this.thread = thread;
+		}
+		
+		void put(int op, Entity entity, Object arg)
+		{
+			if(count == ops.length)
+			{
+				ops = Arrays.copyOf(ops, count * 2);
+				entities = Arrays.copyOf(entities, count * 2);
+				args = Arrays.copyOf(args, count * 2);
+			}
+			
+			ops[count] = op;
+			entities[count] = entity;
+			args[count] = arg;
+			count++;
+		}
+		
+		void clear()
+		{
+			Arrays.fill(entities, 0, count, null);
+			Arrays.fill(args, 0, count, null);
+			count = 0;
+		}
+	}
+	
+	CommandBuffer(World world)
+	{
+		this.world = world;
+	}
+	
+	/**
+	 * Create an entity. The handle is valid right away but the entity
+	 * only joins the world on playback
+	 */
+	public Entity createEntity()
+	{
+		Entity entity = new Entity(world.getEntityManager().create());
+		local.get().put(CREATE, entity, null);
+		return entity;
+	}
+	
+	public void destroyEntity(Entity entity)
+	{
+		local.get().put(DESTROY, entity, null);
+	}
+	
+	public void add(Entity entity, Component component)
+	{
+		local.get().put(ADD, entity, component);
+	}
+	
+	public void remove(Entity entity, Class<? extends Component> componentType)
+	{
+		local.get().put(REMOVE, entity, componentType);
+	}
+	
+	/**
+	 * Apply every recorded command to the world and clear the buffers.
+	 * Must only be called when no thread is recording (e.g. between ticks).
+	 * 
+	 * Commands of the same thread keep their order. Commands of different
+	 * threads on the same entity are applied in no particular order.
+	 */
+	public void playback()
+	{
+		int count = gather();
+		if(count == 0)
+			return;
+		
+		// Group by entity index and keep the recording order inside a group
+		for(int i = 0; i < count; i++)
+			order[i] = ((long) allEntities[i].getIndex() << 32) | i;
+		Arrays.sort(order, 0, count);
+		
+		int start = 0;
+		while(start < count)
+		{
+			int end = start + 1;
+			while(end < count && (order[end] >>> 32) == (order[start] >>> 32))
+				end++;
+			
+			applyGroup(start, end);
+			start = end;
+		}
+		
+		Arrays.fill(allEntities, 0, count, null);
+		Arrays.fill(allArgs, 0, count, null);
+	}
+	
+	/*
+	 * Copy every thread's commands into the playback arrays
+	 */
+	private int gather()
+	{
+		int count = 0;
+		for(LocalBuffer buffer : buffers)
+			count += buffer.count;
+		
+		if(count > order.length)
+		{
+			int capacity = Math.max(count, order.length * 2);
+			order = new long[capacity];
+			allOps = new int[capacity];
+			allEntities = new Entity[capacity];
+			allArgs = new Object[capacity];
+		}
+		
+		int offset = 0;
+		for(Iterator<LocalBuffer> it = buffers.iterator(); it.hasNext();)
+		{
+			LocalBuffer buffer = it.next();
+			System.arraycopy(buffer.ops, 0, allOps, offset, buffer.count);
+			System.arraycopy(buffer.entities, 0, allEntities, offset, buffer.count);
+			System.arraycopy(buffer.args, 0, allArgs, offset, buffer.count);
+			offset += buffer.count;
+			buffer.clear();
+			
+			if(!buffer.thread.isAlive())
+				it.remove();
+		}
+		
+		return count;
+	}
+	
+	/*
+	 * Merge the commands of one entity index and apply them at once.
+	 * For every component type only the last add or remove counts
+	 */
+	private void applyGroup(int start, int end)
+	{
+		Entity entity = null;
+		boolean created = false;
+		boolean destroyed = false;
+		long addMask = 0;
+		long removeMask = 0;
+		
+		for(int k = start; k < end; k++)
+		{
+			int i = (int) order[k];
+			Entity target = allEntities[i];
+			
+			// Commands for a stale handle of a recycled index
+			if(entity != null && target.getId() != entity.getId())
+			{
+				flush(entity, created, destroyed, addMask, removeMask);
+				created = destroyed = false;
+				addMask = removeMask = 0;
+			}
+			entity = target;
+			
+			switch(allOps[i])
+			{
+			case CREATE:
+				created = true;
+				break;
+			case DESTROY:
+				destroyed = true;
+				break;
+			case ADD:
+			{
+				Component component = (Component) allArgs[i];
+				int type = ComponentType.of(component.getClass());
+				byType[type] = component;
+				addMask |= 1L << type;
+				removeMask &= ~(1L << type);
+				break;
+			}
+			case REMOVE:
+			{
+				@SuppressWarnings("unchecked")
+				int type = ComponentType.of((Class<? extends Component>) allArgs[i]);
+				byType[type] = null;
+				removeMask |= 1L << type;
+				addMask &= ~(1L << type);
+				break;
+			}
+			}
+		}
+		
+		flush(entity, created, destroyed, addMask, removeMask);
+	}
+	
+	private void flush(Entity entity, boolean created, boolean destroyed, long addMask, long removeMask)
+	{
+		if(destroyed)
+		{
+			if(world.isAlive(entity))
+				world.destroyEntity(entity);
+			else if(created)
+				world.getEntityManager().destroy(entity.getId());
+		}
+		else if(created)
+		{
+			// Straight into its final archetype, removes have nothing to remove
+			world.insertEntity(entity, byType, addMask);
+		}
+		else if(world.isAlive(entity) && (addMask | removeMask) != 0)
+			world.apply(entity, byType, addMask, removeMask);
+		
+		for(long bits = addMask; bits != 0; bits &= bits - 1)
+			byType[Long.numberOfTrailingZeros(bits)] = null;
+	}
+}
@@ -5,5 +5,17 @@ package engine.components;
  */
 public interface Component
 {
-
+	/**
+	 * Make a new component with the same data, for a new entity
+	 * (see Prefab and EntityPool). References to shared resources
+	 * (textures, shaders) are shared, not copied.
+	 */
+	public Component copy();
+	
+	/**
+	 * Put this component back to the same state as a template of the
+	 * same type, so it can be reused instead of making a new copy
+	 * (see EntityPool).
+	 */
+	public void reset(Component template);
 }
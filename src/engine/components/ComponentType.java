@@ -0,0 +1,77 @@
+package engine.components;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Gives every Component class a small dense id the first time it's
+ * used so component sets can be stored as a 64-bit mask
+ */
+public final class ComponentType
+{
+	public final static int MAX_TYPES = 64;
+	
+	private static final AtomicInteger typeCount = new AtomicInteger();
+	
+	@SuppressWarnings("unchecked")
+	private static final Class<? extends Component>[] classes = (Class<? extends Component>[]) new Class<?>[MAX_TYPES];
+	
+	private static final ClassValue<Integer> ids = new ClassValue<Integer>()
+	{
+		@Override
+		protected Integer computeValue(Class<?> type)
+		{
+			int id = typeCount.getAndIncrement();
+			if(id >= MAX_TYPES)
+				throw new IllegalStateException("Can't have more than " + MAX_TYPES + " component types!");
+			
+			classes[id] = type.asSubclass(Component.class);
+			return id;
+		}
+	};
+	
+	private ComponentType() {}
+	
+	/**
+	 * @return the id of a component class
+	 */
+	public static int of(Class<? extends Component> type)
+	{
+		return ids.get(type);
+	}
+	
+	/**
+	 * @return the mask bit of a component class
+	 */
+	public static long bit(Class<? extends Component> type)
+	{
+		return 1L << of(type);
+	}
+	
+	/**
+	 * @return the mask of a set of component classes
+	 */
+	@SafeVarargs
+	public static long mask(Class<? extends Component>... types)
+	{
+		long mask = 0;
+		for(Class<? extends Component> type : types)
+			mask |= bit(type);
+		return mask;
+	}
+	
+	/**
+	 * @return the component class of an id
+	 */
+	public static Class<? extends Component> getClass(int id)
+	{
+		return classes[id];
+	}
+	
+	/**
+	 * @return the number of component types seen so far
+	 */
+	public static int count()
+	{
+		return Math.min(typeCount.get(), MAX_TYPES);
+	}
+}
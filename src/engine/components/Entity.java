@@ -1,20 +1,57 @@
 package engine.components;
 
 /*
- * A container of Components. An entity is only an integer.
+ * A container of Components. An entity is only an integer: a handle
+ * from an EntityManager made of an index and a generation.
  */
 public class Entity
 {
-	private static int entityCount = 0;
-	private int id;
+	private final int id;
 
-	public Entity()
+	public Entity(int handle)
 	{
-		id = entityCount++;
+		id = handle;
 	}
 
+	/**
+	 * @return the full handle of this entity
+	 */
 	public int getId()
 	{
 		return id;
 	}
+	
+	/**
+	 * @return the index part of the handle. Use this to index arrays
+	 */
+	public int getIndex()
+	{
+		return EntityManager.index(id);
+	}
+	
+	/**
+	 * @return the generation part of the handle
+	 */
+	public int getGeneration()
+	{
+		return EntityManager.generation(id);
+	}
+	
+	@Override
+	public boolean equals(Object other)
+	{
+		return other instanceof Entity && ((Entity) other).id == id;
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return id;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "Entity " + getIndex() + "v" + getGeneration();
+	}
 }
@@ -0,0 +1,283 @@
+package engine.components;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * Hands out entity handles and recycles the indices of destroyed
+ * entities. A handle packs the index in its low bits and a generation
+ * counter in its high bits. The generation goes up every time an index
+ * is recycled, so a handle to a destroyed entity is detected as stale
+ * even if a new entity got the same index.
+ * 
+ * Destroyed indices are reused first in, first out, and only once more
+ * than MIN_FREE_INDICES are waiting. An index is then reused at most once
+ * per MIN_FREE_INDICES destroyed entities, so its generation takes
+ * millions of destroys to wrap around instead of 4096 under heavy churn.
+ * 
+ * Creating and destroying handles is safe from any thread. Handing out
+ * new indices is lock-free; only reusing and queueing destroyed indices
+ * take a short lock.
+ */
+public final class EntityManager
+{
+	public static final int INDEX_BITS = 20;
+	public static final int GENERATION_BITS = 32 - INDEX_BITS;
+	
+	// The last index is never used so no handle is ever -1
+	public static final int MAX_ENTITIES = (1 << INDEX_BITS) - 1;
+	
+	// Destroyed indices waiting before any of them is reused
+	public static final int MIN_FREE_INDICES = 1024;
+	
+	private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+	private static final int GENERATION_MASK = (1 << GENERATION_BITS) - 1;
+	
+	// Generations and free list links live in pages allocated on demand
+	private static final int PAGE_BITS = 12;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_COUNT = (1 << INDEX_BITS) >> PAGE_BITS;
+	
+	private final AtomicReferenceArray<AtomicIntegerArray> generations = new AtomicReferenceArray<>(PAGE_COUNT);
+	private final AtomicReferenceArray<AtomicIntegerArray> nextFree = new AtomicReferenceArray<>(PAGE_COUNT);
+	
+	// Next index that has never been handed out
+	private final AtomicInteger nextIndex = new AtomicInteger();
+	
+	// Recycled indices, a queue linked through nextFree. -1 = empty.
+	// freeCount is read without the lock to skip it when nothing's recycled
+	private final Object freeLock = new Object();
+	private int freeHead = -1;
+	private int freeTail = -1;
+	private volatile int freeCount = 0;
+	
+	private final AtomicInteger aliveCount = new AtomicInteger();
+	
+	/**
+	 * Create a new entity handle, reusing a destroyed index if there is one
+	 */
+	public int create()
+	{
+		if(canRecycle())
+		{
+			synchronized(freeLock)
+			{
+				if(canRecycle())
+				{
+					int index = freeHead;
+					freeHead = page(nextFree, index).get(index & (PAGE_SIZE - 1));
+					if(freeHead < 0)
+						freeTail = -1;
+					freeCount--;
+					
+					aliveCount.incrementAndGet();
+					return handle(index, page(generations, index).get(index & (PAGE_SIZE - 1)));
+				}
+			}
+		}
+		
+		int index = nextIndex.getAndIncrement();
+		if(index >= MAX_ENTITIES)
+		{
+			nextIndex.decrementAndGet();
+			throw new IllegalStateException("Ran out of entity indices!");
+		}
+		
+		ensurePage(index);
+		aliveCount.incrementAndGet();
+		return handle(index, 0);
+	}
+	
+	/*
+	 * Whether create() should reuse a destroyed index instead of a new one
+	 */
+	private boolean canRecycle()
+	{
+		int free = freeCount;
+		return free > MIN_FREE_INDICES || (free > 0 && nextIndex.get() >= MAX_ENTITIES);
+	}
+	
+	/**
+	 * Destroy an entity handle so its index can be reused
+	 * 
+	 * @return false if the handle was already stale
+	 */
+	public boolean destroy(int handle)
+	{
+		int index = index(handle);
+		if(index >= nextIndex.get())
+			return false;
+		
+		AtomicIntegerArray page = page(generations, index);
+		if(page == null)
+			return false;
+		
+		// Only one thread can win the generation bump for a handle
+		int generation = generation(handle);
+		int nextGeneration = (generation + 1) & GENERATION_MASK;
+		if(!page.compareAndSet(index & (PAGE_SIZE - 1), generation, nextGeneration))
+			return false;
+		
+		aliveCount.decrementAndGet();
+		
+		synchronized(freeLock)
+		{
+			page(nextFree, index).set(index & (PAGE_SIZE - 1), -1);
+			if(freeTail < 0)
+				freeHead = index;
+			else
+				page(nextFree, freeTail).set(freeTail & (PAGE_SIZE - 1), index);
+			freeTail = index;
+			freeCount++;
+		}
+		return true;
+	}
+	
+	/**
+	 * @return whether the handle still refers to a living entity
+	 */
+	public boolean isAlive(int handle)
+	{
+		int index = index(handle);
+		if(handle == -1 || index >= nextIndex.get())
+			return false;
+		
+		AtomicIntegerArray page = generations.get(index >> PAGE_BITS);
+		return page != null && page.get(index & (PAGE_SIZE - 1)) == generation(handle);
+	}
+	
+	/**
+	 * @return the number of living entities
+	 */
+	public int getAliveCount()
+	{
+		return aliveCount.get();
+	}
+	
+	/**
+	 * @return one more than the highest index handed out so far.
+	 * Arrays indexed by entity index never need to be bigger than this
+	 */
+	public int getIndexCount()
+	{
+		return nextIndex.get();
+	}
+	
+	/**
+	 * @return the current generation of an index, i.e. the generation
+	 * of the living entity using it or of the next one that will
+	 */
+	public int getGeneration(int index)
+	{
+		AtomicIntegerArray page = generations.get(index >> PAGE_BITS);
+		return page == null ? 0 : page.get(index & (PAGE_SIZE - 1));
+	}
+	
+	/**
+	 * Get the recycled indices in the order create() will reuse them.
+	 * Other threads must not create or destroy entities meanwhile
+	 * 
+	 * @return the number of free indices written to dest, or the number
+	 * needed if dest is too small
+	 */
+	public int getFreeIndices(int[] dest)
+	{
+		synchronized(freeLock)
+		{
+			int count = 0;
+			for(int index = freeHead; index >= 0; index = page(nextFree, index).get(index & (PAGE_SIZE - 1)))
+			{
+				if(count < dest.length)
+					dest[count] = index;
+				count++;
+			}
+			return count;
+		}
+	}
+	
+	/**
+	 * Put the manager back in a saved state (e.g. from a snapshot).
+	 * Other threads must not create or destroy entities meanwhile
+	 * 
+	 * @param indexCount one more than the highest index handed out
+	 * @param generations the generation of every index below indexCount
+	 * @param freeIndices the recycled indices, in the order create() reuses them
+	 * @param freeCount the number of recycled indices
+	 */
+	public void restore(int indexCount, int[] generations, int[] freeIndices, int freeCount)
+	{
+		if(indexCount < 0 || indexCount > MAX_ENTITIES)
+			throw new IllegalArgumentException("Invalid index count " + indexCount + "!");
+		
+		// Keep the pages still in use, drop the rest
+		for(int p = (indexCount + PAGE_SIZE - 1) >> PAGE_BITS; p < PAGE_COUNT; p++)
+		{
+			this.generations.set(p, null);
+			this.nextFree.set(p, null);
+		}
+		
+		for(int index = 0; index < indexCount; index++)
+		{
+			ensurePage(index);
+			page(this.generations, index).set(index & (PAGE_SIZE - 1), generations[index] & GENERATION_MASK);
+		}
+		
+		// Link the free list back to front so its head is freeIndices[0]
+		int next = -1;
+		for(int i = freeCount - 1; i >= 0; i--)
+		{
+			page(nextFree, freeIndices[i]).set(freeIndices[i] & (PAGE_SIZE - 1), next);
+			next = freeIndices[i];
+		}
+		
+		synchronized(freeLock)
+		{
+			freeHead = next;
+			freeTail = freeCount == 0 ? -1 : freeIndices[freeCount - 1];
+			this.freeCount = freeCount;
+		}
+		
+		nextIndex.set(indexCount);
+		aliveCount.set(indexCount - freeCount);
+	}
+	
+	/**
+	 * @return the index part of a handle
+	 */
+	public static int index(int handle)
+	{
+		return handle & INDEX_MASK;
+	}
+	
+	/**
+	 * @return the generation part of a handle
+	 */
+	public static int generation(int handle)
+	{
+		return (handle >>> INDEX_BITS) & GENERATION_MASK;
+	}
+	
+	private static int handle(int index, int generation)
+	{
+		return (generation << INDEX_BITS) | index;
+	}
+	
+	private static AtomicIntegerArray page(AtomicReferenceArray<AtomicIntegerArray> pages, int index)
+	{
+		return pages.get(index >> PAGE_BITS);
+	}
+	
+	/*
+	 * Make sure the pages of an index exist. Several threads may race 
+	 * to create the same page, only one of them wins
+	 */
+	private void ensurePage(int index)
+	{
+		int p = index >> PAGE_BITS;
+		if(generations.get(p) == null)
+			generations.compareAndSet(p, null, new AtomicIntegerArray(PAGE_SIZE));
+		if(nextFree.get(p) == null)
+			nextFree.compareAndSet(p, null, new AtomicIntegerArray(PAGE_SIZE));
+	}
+}
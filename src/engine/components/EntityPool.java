@@ -0,0 +1,193 @@
+package engine.components;
+
+import java.util.Arrays;
+
+/*
+ * Recycles the components of entities spawned from one prefab.
+ * Releasing an entity destroys it but keeps its components, and the
+ * next acquire resets them to the prefab's templates (Component.reset)
+ * instead of allocating new ones. Entity indices are recycled by the
+ * world's EntityManager as usual.
+ *
+ * Meant for entities that come and go all the time, like projectiles,
+ * hit effects and pickups.
+ *
+ * Released components are detached, so they give back their texture
+ * references (see GraphicsComponent) and the prefab's templates keep
+ * the textures loaded until they're acquired again.
+ */
+public class EntityPool
+{
+	private final World world;
+	private final Prefab prefab;
+
+	// Component sets of released entities, in the prefab's column order
+	private Component[][] free = new Component[16][];
+	private int freeCount = 0;
+
+	// Empty arrays for the next releases so releasing doesn't allocate
+	private Component[][] spare = new Component[16][];
+	private int spareCount = 0;
+
+	// Statistics
+	private long acquires = 0;
+	private long hits = 0;
+	private int active = 0;
+	private int highWater = 0;
+
+	public EntityPool(World world, Prefab prefab)
+	{
+		this.world = world;
+		this.prefab = prefab;
+	}
+
+	/**
+	 * Make component sets ahead of time (e.g. while loading a room) so
+	 * the first acquires don't allocate
+	 *
+	 * @param count the number of free sets to have
+	 */
+	public void prewarm(int count)
+	{
+		Component[] templates = prefab.getTemplates();
+
+		while(freeCount < count)
+		{
+			Component[] components = new Component[templates.length];
+			for(int c = 0; c < templates.length; c++)
+				components[c] = templates[c].copy();
+
+			prefab.link(components);
+			push(components);
+		}
+	}
+
+	/**
+	 * Spawn an entity of the prefab, reusing released components if
+	 * there are any
+	 */
+	public Entity acquire()
+	{
+		Component[] templates = prefab.getTemplates();
+		Component[] components;
+
+		acquires++;
+		if(freeCount > 0)
+		{
+			hits++;
+			components = free[--freeCount];
+			free[freeCount] = null;
+
+			for(int c = 0; c < templates.length; c++)
+				components[c].reset(templates[c]);
+		}
+		else
+		{
+			components = new Component[templates.length];
+			for(int c = 0; c < templates.length; c++)
+				components[c] = templates[c].copy();
+		}
+		prefab.link(components);
+
+		active++;
+		highWater = Math.max(highWater, active);
+
+		Entity entity = world.spawn(prefab, components);
+
+		Arrays.fill(components, null);
+		if(spareCount == spare.length)
+			spare = Arrays.copyOf(spare, spareCount * 2);
+		spare[spareCount++] = components;
+
+		return entity;
+	}
+
+	/**
+	 * Destroy an entity acquired from this pool and keep its components
+	 * for the next acquire
+	 */
+	public void release(Entity entity)
+	{
+		if(world.getMask(entity) != prefab.getMask())
+			throw new IllegalArgumentException(entity + " doesn't have the components of prefab " + prefab.getName() + "!");
+
+		int[] types = prefab.getTypes();
+		Component[] components = spareCount > 0 ? spare[--spareCount] : new Component[types.length];
+		spare[spareCount] = null;
+		for(int c = 0; c < types.length; c++)
+			components[c] = world.get(entity, types[c]);
+
+		world.destroyEntity(entity);
+		push(components);
+
+		if(active > 0)
+			active--;
+	}
+
+	public Prefab getPrefab()
+	{
+		return prefab;
+	}
+
+	/**
+	 * @return the fraction of acquires (0.0f--1.0f) that reused
+	 * released components
+	 */
+	public float getHitRate()
+	{
+		return acquires == 0 ? 0.0f : (float) hits / acquires;
+	}
+
+	public long getAcquireCount()
+	{
+		return acquires;
+	}
+
+	/**
+	 * @return the number of entities acquired and not released yet
+	 */
+	public int getActiveCount()
+	{
+		return active;
+	}
+
+	/**
+	 * @return the most entities that were active at once
+	 */
+	public int getHighWaterMark()
+	{
+		return highWater;
+	}
+
+	/**
+	 * @return the number of component sets waiting to be reused
+	 */
+	public int getFreeCount()
+	{
+		return freeCount;
+	}
+
+	/**
+	 * Reset the statistics, not the free component sets
+	 */
+	public void resetStats()
+	{
+		acquires = 0;
+		hits = 0;
+		highWater = active;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("EntityPool(%s) active %d, high water %d, free %d, hit rate %.1f%%",
+				prefab.getName(), active, highWater, freeCount, getHitRate() * 100.0f);
+	}
+
+	private void push(Component[] components)
+	{
+		if(freeCount == free.length)
+			free = Arrays.copyOf(free, freeCount * 2);
+		free[freeCount++] = components;
+	}
+}
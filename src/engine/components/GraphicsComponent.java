@@ -1,23 +1,42 @@
 package engine.components;
 
-import org.joml.Vector4f;
-
 import engine.graphics.Animation;
+import engine.graphics.AnimationClock;
 import engine.graphics.Renderer;
 import engine.graphics.Shader;
+import engine.graphics.SpriteBatch;
 import engine.graphics.Texture;
-import engine.graphics.graphicsUtil.Vertex;
-import engine.util.Clock;
-import engine.util.IntRect;
+import engine.graphics.graphicsUtil.Color;
+import engine.graphics.graphicsUtil.QuadKernel;
+import engine.util.ResourceManager;
 
-public class GraphicsComponent implements Component
+/*
+ * Draws an animated sprite at a transform.
+ *
+ * While it's attached to an entity, the component holds its own
+ * reference to its texture (see ResourceManager), given back when it's
+ * detached, the entity is destroyed or the texture is replaced. Whoever
+ * loaded the texture still has to release their own reference.
+ */
+public class GraphicsComponent extends TrackedComponent
 {
 	private TransformComponent transform;
 	
 	private Texture texture;
 	private Shader shader = Shader.TEXTURE;
 	private Animation currentAnimation;
-	private Clock clock = new Clock();
+	private Color color = new Color();
+	
+	// Animation to play once the texture has finished loading, or null
+	private String pendingAnimation;
+	
+	// Animation cursor: the group time the animation started at,
+	// or the time it was at when paused
+	private AnimationClock clock = AnimationClock.DEFAULT;
+	private int group = AnimationClock.DEFAULT_GROUP;
+	private double start = 0.0;
+	private double pausedTime = 0.0;
+	private boolean paused = false;
 	
 	public GraphicsComponent() {}
 	
@@ -33,7 +52,7 @@ public class GraphicsComponent implements Component
 	}
 	
 	/*
-	 * Create a batch for the renderer to use
+	 * Add this sprite to the renderer's sprite batch
 	 */
 	public void render(Renderer renderer)
 	{
@@ -43,35 +62,97 @@ public class GraphicsComponent implements Component
 		if(this.transform == null)
 			throw new NullPointerException("Must have a transform component to draw!");
 		
-		IntRect frame = getCurrentFrame();
-		
-		// Get the texture coordinates of the current frame
-		float s = (float) frame.x / texture.getWidth();
-		float t = (float) frame.y / texture.getHeight();
-		float s1 = (float) (frame.x + frame.w) / texture.getWidth();
-		float t1 = (float) (frame.y + frame.h) / texture.getHeight();
-
-		Vertex[] verts = new Vertex[4];
-		verts[0] = new Vertex().setPosition(0, 0, 0).setColor(1, 0, 0, 0).setST(s, t);
-		verts[1] = new Vertex().setPosition(0, frame.h, 0).setColor(0, 1, 0, 0).setST(s, t1);
-		verts[2] = new Vertex().setPosition(frame.w, frame.h, 0).setColor(0, 0, 1, 0).setST(s1, t1);
-		verts[3] = new Vertex().setPosition(frame.w, 0, 0).setColor(1, 1, 1, 1).setST(s1, t);
-
-		// Transform the vertices to the current transformation
-		for(int i = 0; i < 4; i++)
+		if(!texture.isLoaded())
 		{
-			Vector4f vec = transform.getParentTransform().transform(new Vector4f(verts[i].position, 1.0f));
-			verts[i].setPosition(vec.x, vec.y, vec.z);
+			renderPlaceholder(renderer);
+			return;
 		}
 		
-		// Prepare a batch to send to the renderer
-		Renderer.Batch batch = renderer.new Batch();
-		batch.setTexture(texture);
-		batch.setShader(shader);
-		batch.addVertices(verts);
-		batch.addQuad();
+		if(pendingAnimation != null)
+			setAnimation(pendingAnimation);
+		
+		if(currentAnimation == null)
+			throw new NullPointerException("Please specify an animation!");
+		
+		if(!currentAnimation.isBaked())
+			currentAnimation.bake(texture.getWidth(), texture.getHeight());
+		
+		SpriteBatch sprites = renderer.getSprites();
+		int sprite = sprites.add(texture, shader);
+		
+		// Look up the texture coordinates and size of the current frame
+		int frame = getCurrentFrame();
+		System.arraycopy(currentAnimation.getUVs(), frame * Animation.UV_STRIDE, 
+				sprites.getST(), sprite * QuadKernel.ST_STRIDE, QuadKernel.ST_STRIDE);
+		System.arraycopy(currentAnimation.getSizes(), frame * Animation.SIZE_STRIDE, 
+				sprites.getSizes(), sprite * QuadKernel.SIZE_STRIDE, QuadKernel.SIZE_STRIDE);
+		
+		// Place the quad at the current transformation, moving trimmed
+		// frames to where they sit in the untrimmed frame
+		float[] offsets = currentAnimation.getOffsets();
+		QuadKernel.packAffine(transform.getParentTransform(), sprites.getAffines(), sprite);
+		QuadKernel.translateAffine(sprites.getAffines(), sprite, offsets[frame * Animation.OFFSET_STRIDE], 
+				offsets[frame * Animation.OFFSET_STRIDE + 1]);
+		sprites.setColor(sprite, color);
+		sprites.setRotated(sprite, currentAnimation.isRotated(frame));
+	}
+	
+	/*
+	 * Draw the whole placeholder while the texture is still loading
+	 */
+	private void renderPlaceholder(Renderer renderer)
+	{
+		SpriteBatch sprites = renderer.getSprites();
+		int sprite = sprites.add(texture, shader);
+		
+		float[] size = sprites.getSizes();
+		int sz = sprite * QuadKernel.SIZE_STRIDE;
+		size[sz] = Texture.PLACEHOLDER_SIZE;
+		size[sz + 1] = Texture.PLACEHOLDER_SIZE;
+		
+		float[] st = sprites.getST();
+		int t = sprite * QuadKernel.ST_STRIDE;
+		st[t] = 0.0f;
+		st[t + 1] = 0.0f;
+		st[t + 2] = 1.0f;
+		st[t + 3] = 1.0f;
+		
+		QuadKernel.packAffine(transform.getParentTransform(), sprites.getAffines(), sprite);
+		sprites.setColor(sprite, color);
+	}
+	
+	/**
+	 * Copy the texture, shader, color and animation. The copy isn't linked to
+	 * a transform and its animation starts from the first frame
+	 */
+	@Override
+	public GraphicsComponent copy()
+	{
+		GraphicsComponent copy = new GraphicsComponent();
+		copy.reset(this);
+		return copy;
+	}
+	
+	/**
+	 * Put this component back to the same texture, shader, color and animation
+	 * as a template, playing from the first frame. The transform it's
+	 * linked to is kept
+	 */
+	@Override
+	public void reset(Component template)
+	{
+		GraphicsComponent g = (GraphicsComponent) template;
 		
-		renderer.getBatches().add(batch);
+		replaceTexture(g.texture);
+		shader = g.shader;
+		currentAnimation = g.currentAnimation;
+		pendingAnimation = g.pendingAnimation;
+		color.set(g.color);
+		clock = g.clock;
+		group = g.group;
+		paused = false;
+		restartAnimation();
+		markChanged();
 	}
 	
 	public void setTransformComponent(TransformComponent transform)
@@ -82,6 +163,7 @@ public class GraphicsComponent implements Component
 	public void setShader(Shader shader)
 	{
 		this.shader = shader;
+		markChanged();
 	}
 	
 	public Texture getTexture()
@@ -91,73 +173,213 @@ public class GraphicsComponent implements Component
 	
 	public void setTexture(Texture texture)
 	{
+		replaceTexture(texture);
+		markChanged();
+	}
+	
+	/*
+	 * Swap the texture, moving the reference held while attached
+	 */
+	private void replaceTexture(Texture texture)
+	{
+		if(getOwner() != null && texture != this.texture)
+		{
+			if(texture != null)
+				ResourceManager.retain(texture);
+			if(this.texture != null)
+				ResourceManager.release(this.texture);
+		}
 		this.texture = texture;
 	}
 	
+	@Override
+	void bind(ChangeTracker tracker, Entity owner)
+	{
+		if(getOwner() == null && texture != null)
+			ResourceManager.retain(texture);
+		super.bind(tracker, owner);
+	}
+	
+	@Override
+	void unbind()
+	{
+		if(getOwner() != null && texture != null)
+			ResourceManager.release(texture);
+		super.unbind();
+	}
+	
 
+	/**
+	 * @return the color the sprite is multiplied by. Call setColor()
+	 * after changing it
+	 */
+	public Color getColor()
+	{
+		return color;
+	}
+	
+	public void setColor(Color color)
+	{
+		this.color.set(color);
+		markChanged();
+	}
+	
+	/*
+	 * Set the color the sprite is multiplied by, 
+	 * with RGBA values ranging from 0.0f--1.0f
+	 */
+	public void setColor(float r, float g, float b, float a)
+	{
+		color.r = r;
+		color.g = g;
+		color.b = b;
+		color.a = a;
+		markChanged();
+	}
+	
 	public Animation getAnimation() 
 	{
 		return currentAnimation;
 	}
+	
+	/**
+	 * @return the name of the animation playing, or waiting for the
+	 * texture to load. Null if there's none
+	 */
+	public String getAnimationName()
+	{
+		return pendingAnimation != null ? pendingAnimation 
+				: currentAnimation == null ? null : currentAnimation.getName();
+	}
 
+	/**
+	 * Play an animation of the texture by name. If the texture is still
+	 * loading (or not set yet), the animation starts once it's loaded
+	 */
 	public void setAnimation(String animationName)
 	{
-		if(currentAnimation == null || !animationName.equals(currentAnimation.getName()))
+		if(texture == null || !texture.isLoaded())
 		{
-			currentAnimation = texture.getAnimation(animationName);
-			clock.restart();
+			pendingAnimation = animationName;
+			return;
 		}
+		
+		setAnimation(texture.getAnimationId(animationName));
+	}
+	
+	/**
+	 * Play an animation of the texture by handle. Does nothing if
+	 * it's already playing
+	 * 
+	 * @param animationId the handle from Texture.getAnimationId()
+	 */
+	public void setAnimation(int animationId)
+	{
+		setAnimation(texture.getAnimation(animationId));
 	}
 	
 	public void setAnimation(Animation animation)
 	{
+		pendingAnimation = null;
 		if(currentAnimation == null || currentAnimation != animation)
 		{
 			currentAnimation = animation;
-			clock.restart();
+			restartAnimation();
+			markChanged();
 		}
 	}
 	
 	public void playAnimation()
 	{
-		clock.start();
+		if(paused)
+		{
+			start = clock.getTime(group) - pausedTime;
+			paused = false;
+		}
 	}
 	
 	public void pauseAnimation()
 	{
-		clock.pause();
+		if(!paused)
+		{
+			pausedTime = clock.getTime(group) - start;
+			paused = true;
+		}
 	}
 	
+	/*
+	 * Pause and go back to the first frame
+	 */
 	public void stopAnimation()
 	{
-		clock.stop();
+		pauseAnimation();
+		restartAnimation();
 	}
 	
 	public void restartAnimation()
 	{
-		clock.restart();
+		start = clock.getTime(group);
+		pausedTime = 0.0;
 	}
 	
-	private IntRect getCurrentFrame()
+	/**
+	 * @return the time in seconds since the animation started
+	 */
+	public float getAnimationTime()
 	{
-		IntRect frame;
-		
-		if(currentAnimation  == null)
-			throw new NullPointerException("Please specify an animation!");
-		
-		if(currentAnimation.getFrameCount() > 1 
-				&& currentAnimation.getInterval() > 0)
-		{
-			// Display current frame of an animation
-			int frameIdx = (int) (clock.getElapse() / currentAnimation.getInterval());
-			frame = currentAnimation.getFrame(frameIdx);
-		}
+		return (float) (paused ? pausedTime : clock.getTime(group) - start);
+	}
+	
+	/**
+	 * Jump to a time in the current animation
+	 * @param time the time in seconds since the animation started
+	 */
+	public void setAnimationTime(float time)
+	{
+		if(paused)
+			pausedTime = time;
 		else
-		{
-			// Unmoving image
-			frame = currentAnimation.getFrame();
-		}
+			start = clock.getTime(group) - time;
+	}
+	
+	public boolean isAnimationPaused()
+	{
+		return paused;
+	}
+	
+	/**
+	 * Play animations on another group of a clock (e.g. one that
+	 * keeps playing during hit-stop). Keeps the current animation time
+	 * 
+	 * @param clock the clock to follow, AnimationClock.DEFAULT by default
+	 * @param group the group of the clock, from 0 to AnimationClock.MAX_GROUPS - 1
+	 */
+	public void setAnimationClock(AnimationClock clock, int group)
+	{
+		if(group < 0 || group >= AnimationClock.MAX_GROUPS)
+			throw new IllegalArgumentException("Invalid animation group " + group + "!");
 		
-		return frame;
+		float time = getAnimationTime();
+		this.clock = clock;
+		this.group = group;
+		setAnimationTime(time);
+	}
+	
+	public AnimationClock getAnimationClock()
+	{
+		return clock;
+	}
+	
+	public int getAnimationGroup()
+	{
+		return group;
+	}
+	
+	/*
+	 * Get the index of the frame to display
+	 */
+	private int getCurrentFrame()
+	{
+		return currentAnimation.getFrameIndex(getAnimationTime());
 	}
 }
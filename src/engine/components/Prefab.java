@@ -0,0 +1,271 @@
+package engine.components;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import engine.graphics.AnimationClock;
+import engine.graphics.AnimationController;
+import engine.graphics.Texture;
+import engine.util.JsonFile;
+import engine.util.ResourceManager;
+
+/*
+ * A template for entities loaded from a JSON file. The file is parsed
+ * once into one template component per type, and World.spawn copies
+ * those templates for every new entity.
+ *
+ * The JSON file has a "components" object with one entry per
+ * component, keyed by the name its parser was registered with:
+ *
+ * {
+ *     "name": "narry",
+ *     "components": {
+ *         "transform": { "position": [300, 300], "scale": [4, 4], "rotation": 0, "parent": true },
+ *         "graphics": { "texture": "resources/images/narry", "animation": "default", "group": 0, "color": [1, 1, 1, 1] },
+ *         "animator": { "texture": "resources/images/narry", "controller": "resources/images/narry.controller" }
+ *     }
+ * }
+ *
+ * Rotations are in degrees.
+ *
+ * The templates hold a reference to their textures until release(),
+ * and spawned entities hold their own (see GraphicsComponent).
+ */
+public class Prefab implements JsonFile
+{
+	/*
+	 * Turns the JSON data of one component into a template component
+	 */
+	public interface ComponentParser
+	{
+		public Component parse(JsonObject data);
+	}
+
+	private static final HashMap<String, ComponentParser> parsers = new HashMap<>();
+
+	static
+	{
+		register("transform", Prefab::parseTransform);
+		register("graphics", Prefab::parseGraphics);
+		register("animator", Prefab::parseAnimator);
+	}
+
+	private String name;
+	private long mask;
+
+	// Template components in increasing type order, like archetype columns
+	private int[] types = new int[0];
+	private Component[] templates = new Component[0];
+
+	// Column of the components spawn has to link together, or -1
+	private int transformColumn = -1;
+	private int graphicsColumn = -1;
+
+	/**
+	 * @param path the prefab file without the extension
+	 * (e.g. resources/prefabs/narry)
+	 */
+	public Prefab(String path)
+	{
+		try
+		{
+			openJson(path);
+			System.out.println("Loaded prefab " + path + ".json");
+		}
+		catch(Exception e)
+		{
+			throw new IllegalArgumentException("Could not load prefab \"" + path + ".json\"", e);
+		}
+	}
+
+	/**
+	 * Let prefabs use a component type
+	 *
+	 * @param name the key of the component in the "components" object
+	 * @param parser makes the template component from its JSON data
+	 */
+	public static void register(String name, ComponentParser parser)
+	{
+		parsers.put(name, parser);
+	}
+
+	@Override
+	public void openJson(String path) throws Exception
+	{
+		InputStream stream = getClass().getClassLoader().getResourceAsStream(path + ".json");
+		if(stream == null)
+			throw new FileNotFoundException("Could not find prefab resource for \"" + path + ".json\"");
+
+		JsonObject json = new JsonParser().parse(new InputStreamReader(stream)).getAsJsonObject();
+		stream.close();
+
+		name = json.has("name") ? json.get("name").getAsString() : path;
+
+		// Opening again replaces the templates and their textures
+		release();
+
+		// Parse every component and index it by type
+		Component[] byType = new Component[ComponentType.MAX_TYPES];
+		mask = 0;
+
+		for(Map.Entry<String, JsonElement> entry : json.getAsJsonObject("components").entrySet())
+		{
+			ComponentParser parser = parsers.get(entry.getKey());
+			if(parser == null)
+				throw new IllegalArgumentException("Unknown component \"" + entry.getKey() + "\" in prefab " + name);
+
+			Component template = parser.parse(entry.getValue().getAsJsonObject());
+			int type = ComponentType.of(template.getClass());
+			byType[type] = template;
+			mask |= 1L << type;
+		}
+
+		// Compile into columns so spawning is a straight copy
+		types = new int[Long.bitCount(mask)];
+		templates = new Component[types.length];
+
+		int column = 0;
+		for(long bits = mask; bits != 0; bits &= bits - 1)
+		{
+			int type = Long.numberOfTrailingZeros(bits);
+			types[column] = type;
+			templates[column] = byType[type];
+
+			if(byType[type] instanceof TransformComponent)
+				transformColumn = column;
+			else if(byType[type] instanceof GraphicsComponent)
+				graphicsColumn = column;
+
+			column++;
+		}
+	}
+
+	/**
+	 * Give back the textures of the templates. Entities already spawned
+	 * keep theirs. Don't spawn from the prefab afterward
+	 */
+	public void release()
+	{
+		for(Component template : templates)
+		{
+			if(template instanceof GraphicsComponent)
+			{
+				Texture texture = ((GraphicsComponent) template).getTexture();
+				if(texture != null)
+					ResourceManager.release(texture);
+			}
+		}
+
+		mask = 0;
+		types = new int[0];
+		templates = new Component[0];
+		transformColumn = -1;
+		graphicsColumn = -1;
+	}
+
+	/*
+	 * Hook up the copies of one instance that refer to each other
+	 */
+	void link(Component[] copies)
+	{
+		if(transformColumn >= 0 && graphicsColumn >= 0)
+			((GraphicsComponent) copies[graphicsColumn]).setTransformComponent(
+					(TransformComponent) copies[transformColumn]);
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * @return the component mask of every instance
+	 */
+	public long getMask()
+	{
+		return mask;
+	}
+
+	/**
+	 * @return the component type ids, in increasing order
+	 */
+	public int[] getTypes()
+	{
+		return types;
+	}
+
+	/**
+	 * @return the template components, in the same order as getTypes()
+	 */
+	public Component[] getTemplates()
+	{
+		return templates;
+	}
+
+	private static TransformComponent parseTransform(JsonObject data)
+	{
+		TransformComponent transform = new TransformComponent();
+
+		if(data.has("position"))
+		{
+			JsonArray position = data.getAsJsonArray("position");
+			transform.setPosition(position.get(0).getAsFloat(), position.get(1).getAsFloat());
+		}
+
+		if(data.has("scale"))
+		{
+			JsonArray scale = data.getAsJsonArray("scale");
+			transform.setScale(scale.get(0).getAsFloat(), scale.get(1).getAsFloat());
+		}
+
+		if(data.has("rotation"))
+			transform.setRotation((float) Math.toRadians(data.get("rotation").getAsFloat()));
+
+		if(data.has("parent") && data.get("parent").getAsBoolean())
+			transform.setAsParent();
+
+		transform.updateLocal();
+		transform.savePrevious();
+		return transform;
+	}
+
+	private static GraphicsComponent parseGraphics(JsonObject data)
+	{
+		// Entities show the placeholder until the texture is uploaded
+		Texture texture = ResourceManager.loadTextureAsync(data.get("texture").getAsString());
+
+		GraphicsComponent graphics = new GraphicsComponent(texture);
+		if(data.has("animation"))
+			graphics.setAnimation(data.get("animation").getAsString());
+
+		if(data.has("group"))
+			graphics.setAnimationClock(AnimationClock.DEFAULT, data.get("group").getAsInt());
+
+		if(data.has("color"))
+		{
+			JsonArray color = data.getAsJsonArray("color");
+			graphics.setColor(color.get(0).getAsFloat(), color.get(1).getAsFloat(), 
+					color.get(2).getAsFloat(), color.size() > 3 ? color.get(3).getAsFloat() : 1.0f);
+		}
+
+		return graphics;
+	}
+
+	private static AnimatorComponent parseAnimator(JsonObject data)
+	{
+		// The controller keeps its own reference to the texture
+		Texture texture = ResourceManager.loadTextureAsync(data.get("texture").getAsString());
+		AnimationController controller = ResourceManager.loadAnimationController(data.get("controller").getAsString(), texture);
+		ResourceManager.release(texture);
+
+		return new AnimatorComponent(controller);
+	}
+}
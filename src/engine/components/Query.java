@@ -0,0 +1,196 @@
+package engine.components;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * A cached view of every entity that has a set of components. The
+ * world hands every new archetype to its queries as soon as it's
+ * created, so the list of matching archetypes is always up to date and
+ * never filtered again. Entities moving in and out of those archetypes
+ * show up automatically.
+ * 
+ * Get one from World.query() once and keep it. Iterating doesn't
+ * allocate, except for the chunk list and tasks of parallel iteration,
+ * which are made per call so several systems can iterate the same
+ * query at once.
+ */
+public final class Query
+{
+	private final long mask;
+	
+	private Archetype[] archetypes = new Archetype[4];
+	private int archetypeCount = 0;
+	
+	/*
+	 * Called for every entity of a query
+	 */
+	public interface RowConsumer
+	{
+		public void accept(Archetype archetype, int row);
+	}
+	
+	/*
+	 * Called for a range of rows [start, end) of one archetype
+	 */
+	public interface ChunkConsumer
+	{
+		public void accept(Archetype archetype, int start, int end);
+	}
+	
+	Query(long mask)
+	{
+		this.mask = mask;
+	}
+	
+	/*
+	 * Add the archetype to this query if it has all of its components
+	 */
+	void offer(Archetype archetype)
+	{
+		if(!archetype.matches(mask))
+			return;
+		
+		if(archetypeCount == archetypes.length)
+			archetypes = Arrays.copyOf(archetypes, archetypeCount * 2);
+		archetypes[archetypeCount++] = archetype;
+	}
+	
+	public long getMask()
+	{
+		return mask;
+	}
+	
+	/**
+	 * @return the number of matching archetypes, including empty ones
+	 */
+	public int getArchetypeCount()
+	{
+		return archetypeCount;
+	}
+	
+	public Archetype getArchetype(int index)
+	{
+		return archetypes[index];
+	}
+	
+	/**
+	 * @return the number of matching entities
+	 */
+	public int size()
+	{
+		int size = 0;
+		for(int i = 0; i < archetypeCount; i++)
+			size += archetypes[i].size();
+		return size;
+	}
+	
+	/**
+	 * Call the consumer for every matching entity
+	 */
+	public void forEach(RowConsumer consumer)
+	{
+		for(int a = 0; a < archetypeCount; a++)
+		{
+			Archetype archetype = archetypes[a];
+			for(int row = 0; row < archetype.size(); row++)
+				consumer.accept(archetype, row);
+		}
+	}
+	
+	/**
+	 * Call the consumer with chunks of at most chunkSize rows
+	 */
+	public void forEachChunk(int chunkSize, ChunkConsumer consumer)
+	{
+		for(int a = 0; a < archetypeCount; a++)
+		{
+			Archetype archetype = archetypes[a];
+			for(int start = 0; start < archetype.size(); start += chunkSize)
+				consumer.accept(archetype, start, Math.min(start + chunkSize, archetype.size()));
+		}
+	}
+	
+	/**
+	 * Call the consumer with chunks of at most chunkSize rows on 
+	 * the threads of a pool and wait for all of them. The consumer
+	 * must be safe to call from several threads at once, and nothing
+	 * may add or remove components until this returns.
+	 */
+	public void parallelForEachChunk(ForkJoinPool pool, int chunkSize, ChunkConsumer consumer)
+	{
+		if(chunkSize <= 0)
+			throw new IllegalArgumentException("Chunk size must be positive!");
+		
+		int chunks = 0;
+		for(int a = 0; a < archetypeCount; a++)
+			chunks += (archetypes[a].size() + chunkSize - 1) / chunkSize;
+		
+		if(chunks == 0)
+			return;
+		
+		if(chunks == 1 || pool.getParallelism() == 1)
+		{
+			forEachChunk(chunkSize, consumer);
+			return;
+		}
+		
+		// The archetype and first row of every chunk
+		Archetype[] chunkArchetype = new Archetype[chunks];
+		int[] chunkStart = new int[chunks];
+		int chunk = 0;
+		for(int a = 0; a < archetypeCount; a++)
+		{
+			for(int start = 0; start < archetypes[a].size(); start += chunkSize)
+			{
+				chunkArchetype[chunk] = archetypes[a];
+				chunkStart[chunk] = start;
+				chunk++;
+			}
+		}
+		
+		pool.invoke(new ChunkTask(consumer, chunkSize, chunkArchetype, chunkStart, 0, chunks));
+	}
+	
+	/*
+	 * Splits the chunk list in half until one chunk is left
+	 */
+	private static class ChunkTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final ChunkConsumer consumer;
+		private final int chunkSize;
+		private final Archetype[] chunkArchetype;
+		private final int[] chunkStart;
+		private final int first, last;
+		
+		ChunkTask(ChunkConsumer consumer, int chunkSize, Archetype[] chunkArchetype, int[] chunkStart,
+				int first, int last)
+		{
+			this.consumer = consumer;
+			this.chunkSize = chunkSize;
+			this.chunkArchetype = chunkArchetype;
+			this.chunkStart = chunkStart;
+			this.first = first;
+			this.last = last;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if(last - first > 1)
+			{
+				int middle = (first + last) >>> 1;
+				invokeAll(new ChunkTask(consumer, chunkSize, chunkArchetype, chunkStart, first, middle),
+						new ChunkTask(consumer, chunkSize, chunkArchetype, chunkStart, middle, last));
+				return;
+			}
+			
+			Archetype archetype = chunkArchetype[first];
+			int start = chunkStart[first];
+			consumer.accept(archetype, start, Math.min(start + chunkSize, archetype.size()));
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package engine.components;
+
+/*
+ * A component that tells its world when it changes. Mutators call
+ * markChanged() and the world records the owning entity in the
+ * ChangeTracker of this component's type.
+ */
+public abstract class TrackedComponent implements Component
+{
+	private ChangeTracker tracker;
+	private Entity owner;
+	
+	/*
+	 * Called by the world when this component is attached to an entity
+	 */
+	void bind(ChangeTracker tracker, Entity owner)
+	{
+		this.tracker = tracker;
+		this.owner = owner;
+		tracker.markChanged(owner);
+	}
+	
+	/*
+	 * Called by the world when this component is detached
+	 */
+	void unbind()
+	{
+		if(tracker != null)
+			tracker.markRemoved(owner);
+		
+		tracker = null;
+		owner = null;
+	}
+	
+	/**
+	 * @return the entity this component is attached to, or null
+	 */
+	public Entity getOwner()
+	{
+		return owner;
+	}
+	
+	/*
+	 * Record that this component changed this tick
+	 */
+	protected void markChanged()
+	{
+		if(tracker != null)
+			tracker.markChanged(owner);
+	}
+}
@@ -1,11 +1,12 @@
 package engine.components;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 import org.joml.Matrix4f;
 import org.joml.Vector2f;
 
-public class TransformComponent implements Component
+public class TransformComponent extends TrackedComponent
 {
 	// Parent transformations, if this component has
 	private Vector2f parentPosition = new Vector2f(0.0f, 0.0f);
@@ -17,6 +18,11 @@ public class TransformComponent implements Component
 	private float rotation = 0.0f; // in radians
 	private Vector2f scale = new Vector2f(1.0f, 1.0f);
 	
+	// local properties at the previous simulation tick, for interpolation
+	private Vector2f prevPosition = new Vector2f(0.0f, 0.0f);
+	private float prevRotation = 0.0f;
+	private Vector2f prevScale = new Vector2f(1.0f, 1.0f);
+	
 	private ArrayList<TransformComponent> children = new ArrayList<TransformComponent>(); // long boi
 
 	private boolean needsUpdate = false;
@@ -99,6 +105,124 @@ public class TransformComponent implements Component
 		}
 	}
 	
+	/**
+	 * Remember the current local properties as the previous tick's.
+	 * Called at the start of every simulation tick before anything moves
+	 */
+	public void savePrevious()
+	{
+		prevPosition.set(position);
+		prevRotation = rotation;
+		prevScale.set(scale);
+	}
+	
+	/**
+	 * Build the local matrix between the previous and current tick
+	 * so rendering stays smooth when it runs faster than the simulation
+	 * 
+	 * @param alpha 0.0f for the previous tick, 1.0f for the current one
+	 */
+	public void interpolate(float alpha)
+	{
+		float x = prevPosition.x + (position.x - prevPosition.x) * alpha;
+		float y = prevPosition.y + (position.y - prevPosition.y) * alpha;
+		float r = prevRotation + (rotation - prevRotation) * alpha;
+		float sx = prevScale.x + (scale.x - prevScale.x) * alpha;
+		float sy = prevScale.y + (scale.y - prevScale.y) * alpha;
+		
+		transform.identity();
+		transform.translate(x, y, 0.0f);
+		transform.rotate(r, 0.0f, 0.0f, 1.0f);
+		transform.scale(sx, sy, 1.0f);
+		needsUpdate = false;
+	}
+	
+	/**
+	 * Copy the local properties. Children aren't copied, and a copy 
+	 * of a parent is also a parent
+	 */
+	@Override
+	public TransformComponent copy()
+	{
+		TransformComponent copy = new TransformComponent();
+		copy.reset(this);
+		return copy;
+	}
+	
+	/**
+	 * Put this transform back to the same state as a template and
+	 * remove its children. A transform whose parent still lists it
+	 * as a child must be removed from the parent first
+	 */
+	@Override
+	public void reset(Component template)
+	{
+		TransformComponent t = (TransformComponent) template;
+		
+		position.set(t.position);
+		rotation = t.rotation;
+		scale.set(t.scale);
+		prevPosition.set(t.prevPosition);
+		prevRotation = t.prevRotation;
+		prevScale.set(t.prevScale);
+		transform.set(t.transform);
+		needsUpdate = t.needsUpdate;
+		children.clear();
+		
+		if(t.isParent())
+			setAsParent();
+		else if(isParent())
+			parentTransform = new Matrix4f();
+		
+		markChanged();
+	}
+	
+	/**
+	 * Write the local properties of this and the previous tick.
+	 * Children aren't written
+	 */
+	public void write(ByteBuffer out)
+	{
+		out.putFloat(position.x).putFloat(position.y).putFloat(rotation)
+			.putFloat(scale.x).putFloat(scale.y);
+		out.putFloat(prevPosition.x).putFloat(prevPosition.y).putFloat(prevRotation)
+			.putFloat(prevScale.x).putFloat(prevScale.y);
+		out.put((byte) (isParent() ? 1 : 0));
+	}
+	
+	/**
+	 * Read the properties written by write()
+	 */
+	public void read(ByteBuffer in)
+	{
+		position.set(in.getFloat(), in.getFloat());
+		rotation = in.getFloat();
+		scale.set(in.getFloat(), in.getFloat());
+		prevPosition.set(in.getFloat(), in.getFloat());
+		prevRotation = in.getFloat();
+		prevScale.set(in.getFloat(), in.getFloat());
+		
+		if(in.get() != 0)
+			setAsParent();
+		
+		needsUpdate = true;
+		updateLocal();
+		markChanged();
+	}
+	
+	/**
+	 * @return whether this is at the top of a transformation tree
+	 */
+	public boolean isParent()
+	{
+		return parentTransform == transform;
+	}
+	
+	public ArrayList<TransformComponent> getChildren()
+	{
+		return children;
+	}
+	
 	public Matrix4f getTransform()
 	{
 		return transform;
@@ -108,6 +232,7 @@ public class TransformComponent implements Component
 	{
 		this.transform = transform; 
 		needsUpdate = true;
+		markChanged();
 	}
 	
 	public void setParentTransform(Matrix4f transform)
@@ -122,38 +247,44 @@ public class TransformComponent implements Component
 	
 	public void setPosition(Vector2f position) 
 	{
-		this.position = position;
+		this.position.set(position);
 		needsUpdate = true;
+		markChanged();
 	}
 	
 	public void setPosition(float x, float y)
 	{
-		this.position = new Vector2f(x, y);
+		this.position.set(x, y);
 		needsUpdate = true;
+		markChanged();
 	}
 
 	public void setScale(Vector2f scale)
 	{
-		this.scale = scale;
+		this.scale.set(scale);
 		needsUpdate = true;
+		markChanged();
 	}
 	
 	public void setScale(float x, float y)
 	{
-		this.scale = new Vector2f(x, y);
+		this.scale.set(x, y);
 		needsUpdate = true;
+		markChanged();
 	}
 	
 	public void setScale(float scale)
 	{
-		this.scale = new Vector2f(scale, scale);
+		this.scale.set(scale, scale);
 		needsUpdate = true;
+		markChanged();
 	}
 
 	public void setRotation(float rotation) 
 	{
 		this.rotation = rotation;
 		needsUpdate = true;
+		markChanged();
 	}
 
 	public Vector2f getPosition()
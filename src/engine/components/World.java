@@ -0,0 +1,489 @@
+package engine.components;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/*
+ * Stores every entity and its components grouped by archetype
+ * (the exact set of component types it has). Adding or removing a
+ * component moves the entity to another archetype, which copies
+ * one reference per component it has.
+ */
+public class World
+{
+	private final EntityManager entityManager = new EntityManager();
+	
+	private final HashMap<Long, Archetype> archetypeMap = new HashMap<>();
+	private final ArrayList<Archetype> archetypes = new ArrayList<>();
+	private final HashMap<Long, Query> queries = new HashMap<>();
+	private final ChangeTracker[] trackers = new ChangeTracker[ComponentType.MAX_TYPES];
+	private final CommandBuffer commands = new CommandBuffer(this);
+	private final Archetype emptyArchetype;
+	
+	// Where every entity lives, indexed by entity index
+	private Archetype[] entityArchetype = new Archetype[64];
+	private int[] entityRow = new int[64];
+	private int[] entityHandle = new int[64];
+	
+	private int entityCount = 0;
+	
+	public World()
+	{
+		emptyArchetype = getArchetype(0L);
+	}
+	
+	/**
+	 * Create an entity with no components
+	 */
+	public Entity createEntity()
+	{
+		Entity entity = new Entity(entityManager.create());
+		insertEntity(entity);
+		return entity;
+	}
+	
+	/*
+	 * Add an entity whose handle was already created by this
+	 * world's entity manager (e.g. by a CommandBuffer)
+	 */
+	void insertEntity(Entity entity)
+	{
+		place(entity, emptyArchetype);
+	}
+	
+	/*
+	 * Add an entity whose handle was already created, straight into the
+	 * archetype of its components. byType holds the components indexed
+	 * by component type id
+	 */
+	void insertEntity(Entity entity, Component[] byType, long mask)
+	{
+		Archetype archetype = getArchetype(mask);
+		int row = place(entity, archetype);
+		
+		for(long bits = mask; bits != 0; bits &= bits - 1)
+		{
+			int type = Long.numberOfTrailingZeros(bits);
+			set(archetype, row, type, byType[type]);
+		}
+	}
+	
+	/**
+	 * Create one entity from a prefab
+	 */
+	public Entity spawn(Prefab prefab)
+	{
+		return spawn(prefab, 1)[0];
+	}
+	
+	/**
+	 * Create many entities from a prefab at once. They go straight into
+	 * the prefab's archetype, which only grows once, and every component
+	 * is a copy of the prefab's template.
+	 *
+	 * @return the new entities
+	 */
+	public Entity[] spawn(Prefab prefab, int count)
+	{
+		Archetype archetype = getArchetype(prefab.getMask());
+		archetype.ensureCapacity(archetype.size() + count);
+	
+		int[] types = prefab.getTypes();
+		Component[] templates = prefab.getTemplates();
+		Component[] copies = new Component[types.length];
+		Entity[] spawned = new Entity[count];
+	
+		for(int i = 0; i < count; i++)
+		{
+			Entity entity = new Entity(entityManager.create());
+			int row = place(entity, archetype);
+	
+			for(int c = 0; c < types.length; c++)
+			{
+				copies[c] = templates[c].copy();
+				set(archetype, row, types[c], copies[c]);
+			}
+			prefab.link(copies);
+	
+			spawned[i] = entity;
+		}
+	
+		return spawned;
+	}
+	
+	/*
+	 * Create one entity of a prefab from components that already
+	 * exist (e.g. recycled by an EntityPool), in the prefab's column order
+	 */
+	Entity spawn(Prefab prefab, Component[] components)
+	{
+		int[] types = prefab.getTypes();
+		Archetype archetype = getArchetype(prefab.getMask());
+		
+		Entity entity = new Entity(entityManager.create());
+		int row = place(entity, archetype);
+		
+		for(int c = 0; c < types.length; c++)
+			set(archetype, row, types[c], components[c]);
+		
+		return entity;
+	}
+	
+	/*
+	 * Add an entity straight into an archetype. Its components must
+	 * be set afterwards. Returns its row
+	 */
+	int place(Entity entity, Archetype archetype)
+	{
+		int index = entity.getIndex();
+		ensureCapacity(index);
+		
+		int row = archetype.add(entity);
+		entityArchetype[index] = archetype;
+		entityRow[index] = row;
+		entityHandle[index] = entity.getId();
+		entityCount++;
+		return row;
+	}
+	
+	/*
+	 * Set a component of an entity placed in an archetype
+	 */
+	void set(Archetype archetype, int row, int type, Component component)
+	{
+		archetype.set(row, type, component);
+		bind(type, archetype.getEntity(row), component);
+	}
+	
+	/**
+	 * Remove an entity and all of its components from the world
+	 */
+	public void destroyEntity(Entity entity)
+	{
+		int index = entity.getIndex();
+		Archetype archetype = archetypeOf(entity);
+		
+		for(int type : archetype.getTypes())
+			unbind(archetype.get(entityRow[index], type));
+		
+		removeRow(archetype, entityRow[index]);
+		entityArchetype[index] = null;
+		entityManager.destroy(entity.getId());
+		entityCount--;
+	}
+	
+	/**
+	 * Destroy every entity. Archetypes and queries are kept
+	 */
+	public void clear()
+	{
+		for(Archetype archetype : archetypes)
+		{
+			for(int row = 0; row < archetype.size(); row++)
+			{
+				for(int type : archetype.getTypes())
+					unbind(archetype.get(row, type));
+				
+				Entity entity = archetype.getEntity(row);
+				entityArchetype[entity.getIndex()] = null;
+				entityManager.destroy(entity.getId());
+			}
+			archetype.clear();
+		}
+		
+		entityCount = 0;
+	}
+	
+	/**
+	 * @return whether the entity is in this world. False for stale
+	 * handles to destroyed entities
+	 */
+	public boolean isAlive(Entity entity)
+	{
+		int index = entity.getIndex();
+		return index < entityArchetype.length && entityArchetype[index] != null
+				&& entityHandle[index] == entity.getId();
+	}
+	
+	/**
+	 * Attach a component to an entity. Replaces the component if the
+	 * entity already has one of the same type.
+	 */
+	public <T extends Component> void add(Entity entity, T component)
+	{
+		int type = ComponentType.of(component.getClass());
+		Archetype from = archetypeOf(entity);
+		
+		if(from.has(type))
+		{
+			int row = entityRow[entity.getIndex()];
+			unbind(from.get(row, type));
+			from.set(row, type, component);
+			bind(type, entity, component);
+			return;
+		}
+		
+		Archetype to = from.addEdges[type];
+		if(to == null)
+		{
+			to = getArchetype(from.getMask() | (1L << type));
+			from.addEdges[type] = to;
+			to.removeEdges[type] = from;
+		}
+		
+		int row = move(entity, from, to);
+		to.set(row, type, component);
+		bind(type, entity, component);
+	}
+	
+	/**
+	 * Detach a component from an entity. Does nothing if the entity
+	 * doesn't have one.
+	 */
+	public void remove(Entity entity, Class<? extends Component> componentType)
+	{
+		int type = ComponentType.of(componentType);
+		Archetype from = archetypeOf(entity);
+		
+		if(!from.has(type))
+			return;
+		
+		unbind(from.get(entityRow[entity.getIndex()], type));
+		
+		Archetype to = from.removeEdges[type];
+		if(to == null)
+		{
+			to = getArchetype(from.getMask() & ~(1L << type));
+			from.removeEdges[type] = to;
+			to.addEdges[type] = from;
+		}
+		
+		move(entity, from, to);
+	}
+	
+	/*
+	 * Add and remove several components with a single move.
+	 * byType holds the added components indexed by component type id
+	 */
+	void apply(Entity entity, Component[] byType, long addMask, long removeMask)
+	{
+		Archetype from = archetypeOf(entity);
+		int row = entityRow[entity.getIndex()];
+		
+		for(int type : from.getTypes())
+			if((removeMask & (1L << type)) != 0 || (addMask & (1L << type)) != 0)
+				unbind(from.get(row, type));
+		
+		long mask = (from.getMask() & ~removeMask) | addMask;
+		Archetype to = from;
+		if(mask != from.getMask())
+		{
+			to = getArchetype(mask);
+			row = move(entity, from, to);
+		}
+		
+		for(long bits = addMask; bits != 0; bits &= bits - 1)
+		{
+			int type = Long.numberOfTrailingZeros(bits);
+			to.set(row, type, byType[type]);
+			bind(type, entity, byType[type]);
+		}
+	}
+	
+	/**
+	 * Retrieve a component from an entity
+	 * 
+	 * @return the component, or null if the entity doesn't have one
+	 */
+	public <T extends Component> T get(Entity entity, Class<T> componentType)
+	{
+		Archetype archetype = archetypeOf(entity);
+		Component component = archetype.get(entityRow[entity.getIndex()], ComponentType.of(componentType));
+		return componentType.cast(component);
+	}
+	
+	/*
+	 * Retrieve a component from an entity by type id
+	 */
+	Component get(Entity entity, int type)
+	{
+		return archetypeOf(entity).get(entityRow[entity.getIndex()], type);
+	}
+	
+	/*
+	 * Get the component mask of an entity's archetype
+	 */
+	long getMask(Entity entity)
+	{
+		return archetypeOf(entity).getMask();
+	}
+	
+	public boolean has(Entity entity, Class<? extends Component> componentType)
+	{
+		return archetypeOf(entity).has(ComponentType.of(componentType));
+	}
+	
+	/**
+	 * Get a query of every entity that has all of these components.
+	 * Queries are cached, so asking twice returns the same query.
+	 * Safe to call from systems running in parallel
+	 */
+	@SafeVarargs
+	public final Query query(Class<? extends Component>... componentTypes)
+	{
+		long mask = ComponentType.mask(componentTypes);
+		
+		synchronized(queries)
+		{
+			Query query = queries.get(mask);
+			if(query == null)
+			{
+				query = new Query(mask);
+				for(Archetype archetype : archetypes)
+					query.offer(archetype);
+				queries.put(mask, query);
+			}
+			return query;
+		}
+	}
+	
+	/**
+	 * Get the changes of a component type. Only components that
+	 * extend TrackedComponent report their changes
+	 */
+	public ChangeTracker getChanges(Class<? extends Component> componentType)
+	{
+		return getTracker(ComponentType.of(componentType));
+	}
+	
+	/*
+	 * Make the changes recorded since the last call readable and start
+	 * recording new ones. Called once per tick by the SystemScheduler
+	 */
+	public void swapChanges()
+	{
+		for(ChangeTracker tracker : trackers)
+			if(tracker != null)
+				tracker.swap();
+	}
+	
+	/**
+	 * @return every archetype created so far, including empty ones
+	 */
+	public ArrayList<Archetype> getArchetypes()
+	{
+		return archetypes;
+	}
+	
+	public int getEntityCount()
+	{
+		return entityCount;
+	}
+	
+	/**
+	 * @return the buffer for structural changes that can't happen right
+	 * away (e.g. while iterating or from another thread)
+	 */
+	public CommandBuffer getCommands()
+	{
+		return commands;
+	}
+	
+	/**
+	 * @return the manager handing out this world's entity handles
+	 */
+	public EntityManager getEntityManager()
+	{
+		return entityManager;
+	}
+	
+	/*
+	 * Find the archetype of a component mask, or create it
+	 */
+	Archetype getArchetype(long mask)
+	{
+		Archetype archetype = archetypeMap.get(mask);
+		if(archetype == null)
+		{
+			archetype = new Archetype(mask);
+			archetypeMap.put(mask, archetype);
+			synchronized(queries)
+			{
+				archetypes.add(archetype);
+				for(Query query : queries.values())
+					query.offer(archetype);
+			}
+		}
+		return archetype;
+	}
+	
+	/*
+	 * Move an entity's row to another archetype, keeping every
+	 * component both archetypes have. Returns the new row
+	 */
+	private int move(Entity entity, Archetype from, Archetype to)
+	{
+		int index = entity.getIndex();
+		int oldRow = entityRow[index];
+		int newRow = to.add(entity);
+		
+		for(int type : from.getTypes())
+			if(to.has(type))
+				to.set(newRow, type, from.get(oldRow, type));
+		
+		removeRow(from, oldRow);
+		
+		entityArchetype[index] = to;
+		entityRow[index] = newRow;
+		return newRow;
+	}
+	
+	private void removeRow(Archetype archetype, int row)
+	{
+		Entity moved = archetype.remove(row);
+		if(moved != null)
+			entityRow[moved.getIndex()] = row;
+	}
+	
+	private ChangeTracker getTracker(int type)
+	{
+		if(trackers[type] == null)
+			trackers[type] = new ChangeTracker();
+		return trackers[type];
+	}
+	
+	private void bind(int type, Entity entity, Component component)
+	{
+		if(component instanceof TrackedComponent)
+			((TrackedComponent) component).bind(getTracker(type), entity);
+	}
+	
+	private void unbind(Component component)
+	{
+		if(component instanceof TrackedComponent)
+			((TrackedComponent) component).unbind();
+	}
+	
+	private Archetype archetypeOf(Entity entity)
+	{
+		if(!isAlive(entity))
+			throw new IllegalArgumentException(entity + " isn't in this world!");
+		
+		return entityArchetype[entity.getIndex()];
+	}
+	
+	private void ensureCapacity(int index)
+	{
+		if(index < entityArchetype.length)
+			return;
+		
+		int capacity = entityArchetype.length;
+		while(capacity <= index)
+			capacity *= 2;
+		
+		entityArchetype = Arrays.copyOf(entityArchetype, capacity);
+		entityRow = Arrays.copyOf(entityRow, capacity);
+		entityHandle = Arrays.copyOf(entityHandle, capacity);
+	}
+}
@@ -0,0 +1,606 @@
+package engine.components;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import engine.graphics.AnimationClock;
+import engine.graphics.AnimationController;
+import engine.graphics.Texture;
+import engine.graphics.graphicsUtil.Color;
+import engine.util.ResourceManager;
+
+/*
+ * Saves a whole world (entity handles and every component) into a
+ * compact binary buffer and restores it. Used for autosaves between
+ * rooms and for instant retries, so both directions are straight
+ * reads and writes of a direct ByteBuffer with no reflection.
+ *
+ * Layout (little endian):
+ *   magic, version, string table offset
+ *   entity manager: index count, generation of every index, free indices
+ *   animation clock: time and scale of every group, global scale
+ *   component types: name of each type's serializer
+ *   archetypes: types, entity handles, then every component column by column
+ *   string table (texture paths, animation names, ...)
+ *
+ * Every component type in the world needs a serializer. Transforms,
+ * graphics and animators have one built in, other types are added with register().
+ * Shaders aren't saved, restored graphics use the default shader.
+ * Animations are saved relative to AnimationClock.DEFAULT, which is
+ * saved and restored with the world.
+ */
+public class WorldSnapshot
+{
+	public static final int MAGIC = 0x534E524C; // "LRNS"
+	public static final short VERSION = 4;
+
+	// The oldest version restore() still reads. Data added since then
+	// gets its default: v2 added animation groups and animators, v3
+	// sprite colors and v4 the animation clock
+	public static final short MIN_VERSION = 1;
+
+	private static final int INITIAL_CAPACITY = 64 * 1024;
+
+	/*
+	 * Writes and reads one component type
+	 */
+	public interface Serializer<T extends Component>
+	{
+		public void write(T component, WorldSnapshot snapshot, ByteBuffer out);
+
+		public T read(WorldSnapshot snapshot, ByteBuffer in);
+
+		/**
+		 * Called once every entity has been restored, to link up
+		 * components that refer to other entities
+		 */
+		public default void resolve(World world) {}
+	}
+
+	private final HashMap<Class<?>, Serializer<?>> serializers = new HashMap<>();
+	private final HashMap<Class<?>, String> names = new HashMap<>();
+	private final HashMap<String, Class<?>> classes = new HashMap<>();
+
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_CAPACITY).order(ByteOrder.LITTLE_ENDIAN);
+
+	// String table of the snapshot being written or read
+	private final HashMap<String, Integer> stringIds = new HashMap<>();
+	private final ArrayList<String> strings = new ArrayList<>();
+
+	// Version of the snapshot being read
+	private int version = VERSION;
+
+	private int[] generations = new int[0];
+	private int[] freeIndices = new int[0];
+
+	public WorldSnapshot()
+	{
+		register(TransformComponent.class, "transform", new TransformSerializer());
+		register(GraphicsComponent.class, "graphics", new GraphicsSerializer());
+		register(AnimatorComponent.class, "animator", new AnimatorSerializer());
+	}
+
+	/**
+	 * Let snapshots save a component type
+	 *
+	 * @param name the name stored in the snapshot. Must stay the same
+	 * between versions of the game for old snapshots to load
+	 */
+	public <T extends Component> void register(Class<T> type, String name, Serializer<T> serializer)
+	{
+		serializers.put(type, serializer);
+		names.put(type, name);
+		classes.put(name, type);
+	}
+
+	/**
+	 * Save a world into this snapshot's buffer. The buffer is reused by
+	 * the next save, so keep one snapshot per save slot.
+	 *
+	 * @return the buffer, ready to be read
+	 */
+	public ByteBuffer save(World world)
+	{
+		while(true)
+		{
+			try
+			{
+				buffer.clear();
+				write(world, buffer);
+				buffer.flip();
+				return buffer;
+			}
+			catch(BufferOverflowException e)
+			{
+				buffer = ByteBuffer.allocateDirect(buffer.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+			}
+		}
+	}
+
+	/**
+	 * Save a world to a file
+	 */
+	public void save(World world, Path path) throws IOException
+	{
+		ByteBuffer data = save(world);
+
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			while(data.hasRemaining())
+				channel.write(data);
+		}
+	}
+
+	/**
+	 * Replace everything in a world with the entities of a snapshot.
+	 * Entity handles are the same as when the snapshot was saved
+	 *
+	 * @param data a buffer written by save(), from its position
+	 */
+	public void restore(World world, ByteBuffer data)
+	{
+		ByteBuffer in = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+		if(in.getInt() != MAGIC)
+			throw new IllegalArgumentException("Not a world snapshot!");
+
+		version = in.getShort();
+		if(version < MIN_VERSION || version > VERSION)
+			throw new IllegalArgumentException("Unsupported snapshot version " + version + "!");
+		in.getShort(); // Reserved
+
+		readStrings(in);
+
+		world.clear();
+
+		// Entity manager
+		int indexCount = in.getInt();
+		if(generations.length < indexCount)
+			generations = new int[indexCount];
+		for(int i = 0; i < indexCount; i++)
+			generations[i] = in.getShort() & 0xFFFF;
+
+		int freeCount = in.getInt();
+		if(freeIndices.length < freeCount)
+			freeIndices = new int[freeCount];
+		for(int i = 0; i < freeCount; i++)
+			freeIndices[i] = in.getInt();
+
+		world.getEntityManager().restore(indexCount, generations, freeIndices, freeCount);
+
+		// Animation clock, before the animations that start relative to it
+		if(version >= 4)
+		{
+			AnimationClock clock = AnimationClock.DEFAULT;
+			for(int g = 0; g < AnimationClock.MAX_GROUPS; g++)
+			{
+				clock.setTime(g, in.getDouble());
+				clock.setScale(g, in.getFloat());
+			}
+			clock.setGlobalScale(in.getFloat());
+		}
+
+		// Component types
+		int typeCount = in.get() & 0xFF;
+		Serializer<?>[] typeSerializers = new Serializer<?>[typeCount];
+		int[] typeIds = new int[typeCount];
+		for(int t = 0; t < typeCount; t++)
+		{
+			String name = string(in.getInt());
+			Class<?> type = classes.get(name);
+			if(type == null)
+				throw new IllegalArgumentException("No serializer for component \"" + name + "\"!");
+
+			typeSerializers[t] = serializers.get(type);
+			typeIds[t] = ComponentType.of(type.asSubclass(Component.class));
+		}
+
+		// Archetypes
+		int archetypeCount = in.getInt();
+		int[] types = new int[typeCount];
+
+		for(int a = 0; a < archetypeCount; a++)
+		{
+			int count = in.get() & 0xFF;
+			long mask = 0;
+			for(int t = 0; t < count; t++)
+			{
+				types[t] = in.get() & 0xFF;
+				mask |= 1L << typeIds[types[t]];
+			}
+
+			Archetype archetype = world.getArchetype(mask);
+			int size = in.getInt();
+			int first = archetype.size();
+			archetype.ensureCapacity(first + size);
+
+			for(int i = 0; i < size; i++)
+				world.place(new Entity(in.getInt()), archetype);
+
+			for(int t = 0; t < count; t++)
+			{
+				Serializer<?> serializer = typeSerializers[types[t]];
+				int type = typeIds[types[t]];
+
+				for(int row = first; row < first + size; row++)
+					world.set(archetype, row, type, serializer.read(this, in));
+			}
+		}
+
+		for(Serializer<?> serializer : typeSerializers)
+			serializer.resolve(world);
+	}
+
+	/**
+	 * Restore a world from a file
+	 */
+	public void restore(World world, Path path) throws IOException
+	{
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE)
+				throw new IOException("Snapshot is too big!");
+
+			if(buffer.capacity() < size)
+				buffer = ByteBuffer.allocateDirect((int) size).order(ByteOrder.LITTLE_ENDIAN);
+
+			buffer.clear();
+			buffer.limit((int) size);
+			while(buffer.hasRemaining())
+				if(channel.read(buffer) < 0)
+					throw new IOException("Snapshot ended early!");
+			buffer.flip();
+		}
+
+		restore(world, buffer);
+	}
+
+	/**
+	 * @return the version of the snapshot being read, for serializers
+	 * that read older data
+	 */
+	public int getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Get the id of a string in the snapshot being written. Strings
+	 * are only stored once no matter how many components use them
+	 *
+	 * @return the id, or -1 for null
+	 */
+	public int intern(String string)
+	{
+		if(string == null)
+			return -1;
+
+		Integer id = stringIds.get(string);
+		if(id == null)
+		{
+			id = strings.size();
+			strings.add(string);
+			stringIds.put(string, id);
+		}
+		return id;
+	}
+
+	/**
+	 * @return the string of an id in the snapshot being read,
+	 * or null for -1
+	 */
+	public String string(int id)
+	{
+		return id < 0 ? null : strings.get(id);
+	}
+
+	private void write(World world, ByteBuffer out)
+	{
+		stringIds.clear();
+		strings.clear();
+
+		out.putInt(MAGIC);
+		out.putShort(VERSION);
+		out.putShort((short) 0); // Reserved
+
+		int stringOffset = out.position();
+		out.putInt(0);
+
+		// Entity manager
+		EntityManager entities = world.getEntityManager();
+		int indexCount = entities.getIndexCount();
+		out.putInt(indexCount);
+		for(int i = 0; i < indexCount; i++)
+			out.putShort((short) entities.getGeneration(i));
+
+		int freeCount = entities.getFreeIndices(freeIndices);
+		if(freeCount > freeIndices.length)
+		{
+			freeIndices = new int[freeCount];
+			entities.getFreeIndices(freeIndices);
+		}
+		out.putInt(freeCount);
+		for(int i = 0; i < freeCount; i++)
+			out.putInt(freeIndices[i]);
+
+		// Animation clock
+		AnimationClock clock = AnimationClock.DEFAULT;
+		for(int g = 0; g < AnimationClock.MAX_GROUPS; g++)
+		{
+			out.putDouble(clock.getTime(g));
+			out.putFloat(clock.getScale(g));
+		}
+		out.putFloat(clock.getGlobalScale());
+
+		// Component types, numbered in the order they're found
+		int[] localType = new int[ComponentType.MAX_TYPES];
+		Serializer<?>[] typeSerializers = new Serializer<?>[ComponentType.MAX_TYPES];
+		int typeCount = 0;
+		int archetypeCount = 0;
+		long mask = 0;
+
+		for(Archetype archetype : world.getArchetypes())
+		{
+			if(archetype.size() == 0)
+				continue;
+
+			archetypeCount++;
+			mask |= archetype.getMask();
+		}
+
+		out.put((byte) Long.bitCount(mask));
+		for(long bits = mask; bits != 0; bits &= bits - 1)
+		{
+			int type = Long.numberOfTrailingZeros(bits);
+			Class<?> typeClass = ComponentType.getClass(type);
+
+			typeSerializers[type] = serializers.get(typeClass);
+			if(typeSerializers[type] == null)
+				throw new IllegalStateException("No serializer for " + typeClass.getSimpleName() + "!");
+
+			localType[type] = typeCount++;
+			out.putInt(intern(names.get(typeClass)));
+		}
+
+		// Archetypes
+		out.putInt(archetypeCount);
+		for(Archetype archetype : world.getArchetypes())
+		{
+			int size = archetype.size();
+			if(size == 0)
+				continue;
+
+			int[] types = archetype.getTypes();
+			out.put((byte) types.length);
+			for(int type : types)
+				out.put((byte) localType[type]);
+
+			out.putInt(size);
+			for(int row = 0; row < size; row++)
+				out.putInt(archetype.getEntity(row).getId());
+
+			for(int type : types)
+			{
+				@SuppressWarnings("unchecked")
+				Serializer<Component> serializer = (Serializer<Component>) typeSerializers[type];
+				Component[] column = archetype.getColumn(type);
+
+				for(int row = 0; row < size; row++)
+					serializer.write(column[row], this, out);
+			}
+		}
+
+		// String table goes last since components add to it
+		out.putInt(stringOffset, out.position());
+		out.putInt(strings.size());
+		for(String string : strings)
+		{
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			out.putShort((short) bytes.length);
+			out.put(bytes);
+		}
+	}
+
+	/*
+	 * Read the string table without moving the buffer's position
+	 */
+	private void readStrings(ByteBuffer in)
+	{
+		stringIds.clear();
+		strings.clear();
+
+		int offset = in.getInt();
+		int position = in.position();
+		in.position(offset);
+
+		int count = in.getInt();
+		for(int i = 0; i < count; i++)
+		{
+			byte[] bytes = new byte[in.getShort() & 0xFFFF];
+			in.get(bytes);
+			strings.add(new String(bytes, StandardCharsets.UTF_8));
+		}
+
+		in.position(position);
+	}
+
+	/*
+	 * Transforms and the handles of their children, which are
+	 * linked back up once every entity exists
+	 */
+	private static class TransformSerializer implements Serializer<TransformComponent>
+	{
+		private final ArrayList<TransformComponent> pending = new ArrayList<>();
+		private final ArrayList<int[]> pendingChildren = new ArrayList<>();
+
+		@Override
+		public void write(TransformComponent transform, WorldSnapshot snapshot, ByteBuffer out)
+		{
+			transform.write(out);
+
+			ArrayList<TransformComponent> children = transform.getChildren();
+			out.putShort((short) children.size());
+			for(TransformComponent child : children)
+				out.putInt(child.getOwner() == null ? -1 : child.getOwner().getId());
+		}
+
+		@Override
+		public TransformComponent read(WorldSnapshot snapshot, ByteBuffer in)
+		{
+			TransformComponent transform = new TransformComponent();
+			transform.read(in);
+
+			int count = in.getShort() & 0xFFFF;
+			if(count > 0)
+			{
+				int[] children = new int[count];
+				for(int i = 0; i < count; i++)
+					children[i] = in.getInt();
+
+				pending.add(transform);
+				pendingChildren.add(children);
+			}
+			return transform;
+		}
+
+		@Override
+		public void resolve(World world)
+		{
+			for(int i = 0; i < pending.size(); i++)
+			{
+				for(int handle : pendingChildren.get(i))
+				{
+					Entity child = new Entity(handle);
+					if(world.isAlive(child) && world.has(child, TransformComponent.class))
+						pending.get(i).addChild(world.get(child, TransformComponent.class));
+				}
+			}
+
+			pending.clear();
+			pendingChildren.clear();
+		}
+	}
+
+	/*
+	 * Texture, animation, animation time, group and color. The transform drawn with
+	 * is the one of the same entity. The texture reference from loading
+	 * is given back once the component is attached and holds its own
+	 */
+	private static class GraphicsSerializer implements Serializer<GraphicsComponent>
+	{
+		private final ArrayList<GraphicsComponent> pending = new ArrayList<>();
+
+		@Override
+		public void write(GraphicsComponent graphics, WorldSnapshot snapshot, ByteBuffer out)
+		{
+			Texture texture = graphics.getTexture();
+
+			out.putInt(snapshot.intern(texture == null ? null : texture.getPath()));
+			out.putInt(snapshot.intern(graphics.getAnimationName()));
+			out.putFloat(graphics.getAnimationTime());
+			out.put((byte) (graphics.isAnimationPaused() ? 1 : 0));
+			out.put((byte) graphics.getAnimationGroup());
+
+			Color color = graphics.getColor();
+			out.putFloat(color.r).putFloat(color.g).putFloat(color.b).putFloat(color.a);
+		}
+
+		@Override
+		public GraphicsComponent read(WorldSnapshot snapshot, ByteBuffer in)
+		{
+			String path = snapshot.string(in.getInt());
+			String animation = snapshot.string(in.getInt());
+			float time = in.getFloat();
+			boolean paused = in.get() != 0;
+			int group = snapshot.getVersion() >= 2 ? in.get() & 0xFF : AnimationClock.DEFAULT_GROUP;
+
+			float r = 1.0f, g = 1.0f, b = 1.0f, a = 1.0f;
+			if(snapshot.getVersion() >= 3)
+			{
+				r = in.getFloat();
+				g = in.getFloat();
+				b = in.getFloat();
+				a = in.getFloat();
+			}
+
+			GraphicsComponent graphics = new GraphicsComponent(path == null ? null : ResourceManager.loadTexture(path));
+			if(animation != null)
+				graphics.setAnimation(animation);
+			graphics.setAnimationClock(AnimationClock.DEFAULT, group);
+			if(paused)
+				graphics.pauseAnimation();
+			graphics.setAnimationTime(time);
+			graphics.setColor(r, g, b, a);
+
+			pending.add(graphics);
+			return graphics;
+		}
+
+		@Override
+		public void resolve(World world)
+		{
+			for(GraphicsComponent graphics : pending)
+			{
+				graphics.setTransformComponent(world.get(graphics.getOwner(), TransformComponent.class));
+				if(graphics.getTexture() != null)
+					ResourceManager.release(graphics.getTexture());
+			}
+			pending.clear();
+		}
+	}
+
+	/*
+	 * Controller, state and parameter values
+	 */
+	private static class AnimatorSerializer implements Serializer<AnimatorComponent>
+	{
+		@Override
+		public void write(AnimatorComponent animator, WorldSnapshot snapshot, ByteBuffer out)
+		{
+			AnimationController controller = animator.getController();
+			out.putInt(snapshot.intern(controller.getPath()));
+			out.putInt(snapshot.intern(controller.getTexture().getPath()));
+			out.putInt(animator.getState());
+			out.putLong(animator.getLastFrame());
+
+			float[] parameters = animator.getParameters();
+			if(parameters.length > 255)
+				throw new IllegalStateException("Can't save more than 255 animator parameters!");
+			out.put((byte) parameters.length);
+			for(float value : parameters)
+				out.putFloat(value);
+		}
+
+		@Override
+		public AnimatorComponent read(WorldSnapshot snapshot, ByteBuffer in)
+		{
+			String path = snapshot.string(in.getInt());
+			Texture texture = ResourceManager.loadTexture(snapshot.string(in.getInt()));
+			AnimationController controller = ResourceManager.loadAnimationController(path, texture);
+			ResourceManager.release(texture);
+
+			AnimatorComponent animator = new AnimatorComponent(controller);
+			animator.setState(in.getInt(), in.getLong());
+
+			float[] parameters = animator.getParameters();
+			int count = in.get() & 0xFF;
+			for(int p = 0; p < count; p++)
+			{
+				float value = in.getFloat();
+				if(p < parameters.length)
+					parameters[p] = value;
+			}
+			return animator;
+		}
+	}
+}
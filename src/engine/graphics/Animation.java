@@ -1,5 +1,9 @@
 package engine.graphics;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
 import engine.util.IntRect;
@@ -12,6 +16,30 @@ public class Animation
 	private boolean loop;
 	private String name;
 	
+	// Floats per frame in the baked tables
+	public static final int UV_STRIDE = 4;     // u0, v0, u1, v1
+	public static final int SIZE_STRIDE = 2;   // w, h
+	public static final int OFFSET_STRIDE = 2; // x, y
+	
+	// Where every frame is in the texture: x, y, w, h. The size is the
+	// sprite's size before rotation
+	private int[] rects = new int[0];
+	
+	// Where the trimmed frame sits in the untrimmed frame: x, y
+	private int[] offsets = new int[0];
+	
+	// Frames stored rotated 90 degrees clockwise in the texture, or null if none are
+	private boolean[] rotated;
+	
+	// Size of the frames before they were trimmed
+	private int sourceWidth;
+	private int sourceHeight;
+	
+	// Texture coordinates, size and trim offset of every frame, baked for the owning texture
+	private float[] uvs;
+	private float[] sizes;
+	private float[] trimOffsets;
+	
 	// TODO: enums for other animation types
 	
 	public Animation()
@@ -20,6 +48,7 @@ public class Animation
 		loop = false;
 		frameCount = 0;
 		interval = 0;
+		makeStrip();
 	}
 	
 	public Animation(IntRect frame, boolean loop, int frameCount, int interval)
@@ -28,6 +57,7 @@ public class Animation
 		this.loop = loop;
 		this.frameCount = frameCount;
 		this.interval = interval;
+		makeStrip();
 	}
 
 	/*
@@ -39,20 +69,186 @@ public class Animation
 	}
 	
 	/**
-	 * Get frame at an index. Calculates looping
+	 * Get frame at an index. Calculates looping.
+	 * Allocates a new rect, use getFrameIndex() with the baked tables
+	 * when drawing
 	 */
 	public IntRect getFrame(int frame)
 	{
-		int frameIdx = 0;
-		if(loop)
-			frameIdx = (frame % frameCount + frameCount) % frameCount;
-		else
-			frameIdx = Math.max(Math.min(frame, frameCount - 1), 0);
+		int r = getFrameIndex(frame) * 4;
 		
 		IntRect currentFrame = new IntRect(this.frame);
-		currentFrame.x += this.frame.w * frameIdx;
+		currentFrame.x = rects[r];
+		currentFrame.y = rects[r + 1];
+		currentFrame.w = rects[r + 2];
+		currentFrame.h = rects[r + 3];
 		return currentFrame;
 	}
+	
+	/**
+	 * Get the index of the frame to show, from 0 to getFrameCount() - 1.
+	 * Calculates looping
+	 */
+	public int getFrameIndex(int frame)
+	{
+		if(frameCount <= 1)
+			return 0;
+		
+		if(loop)
+			return (frame % frameCount + frameCount) % frameCount;
+		else
+			return Math.max(Math.min(frame, frameCount - 1), 0);
+	}
+	
+	/**
+	 * Get the index of the frame to show at a time
+	 * @param time seconds since the animation started
+	 */
+	public int getFrameIndex(float time)
+	{
+		if(frameCount <= 1 || interval <= 0)
+			return 0;
+		
+		return getFrameIndex((int) (time / interval));
+	}
+	
+	/**
+	 * Precompute the texture coordinates, size and trim offset of every
+	 * frame. Called when the atlas is loaded so drawing only looks them up
+	 * 
+	 * @param textureWidth the width of the owning texture in pixels
+	 * @param textureHeight the height of the owning texture in pixels
+	 */
+	public void bake(int textureWidth, int textureHeight)
+	{
+		int count = rects.length / 4;
+		uvs = new float[count * UV_STRIDE];
+		sizes = new float[count * SIZE_STRIDE];
+		trimOffsets = new float[count * OFFSET_STRIDE];
+		
+		float invW = 1.0f / textureWidth;
+		float invH = 1.0f / textureHeight;
+		
+		for(int i = 0; i < count; i++)
+		{
+			int r = i * 4;
+			int x = rects[r], y = rects[r + 1], w = rects[r + 2], h = rects[r + 3];
+			
+			// A rotated frame takes up h x w pixels of the texture
+			int regionW = isRotated(i) ? h : w;
+			int regionH = isRotated(i) ? w : h;
+			
+			int u = i * UV_STRIDE;
+			uvs[u]     = x * invW;
+			uvs[u + 1] = y * invH;
+			uvs[u + 2] = (x + regionW) * invW;
+			uvs[u + 3] = (y + regionH) * invH;
+			
+			sizes[i * SIZE_STRIDE]     = w;
+			sizes[i * SIZE_STRIDE + 1] = h;
+			
+			trimOffsets[i * OFFSET_STRIDE]     = offsets[i * 2];
+			trimOffsets[i * OFFSET_STRIDE + 1] = offsets[i * 2 + 1];
+		}
+	}
+	
+	public boolean isBaked()
+	{
+		return uvs != null;
+	}
+	
+	/**
+	 * @return u0, v0, u1, v1 of every frame (see bake()), or null
+	 * if the animation isn't baked. These are the corners of the frame's
+	 * region in the texture, even if the frame is rotated
+	 */
+	public float[] getUVs()
+	{
+		return uvs;
+	}
+	
+	/**
+	 * @return the width and height of every frame (see bake()), or null
+	 * if the animation isn't baked
+	 */
+	public float[] getSizes()
+	{
+		return sizes;
+	}
+	
+	/**
+	 * @return the trim offset of every frame (see bake()), or null
+	 * if the animation isn't baked
+	 */
+	public float[] getOffsets()
+	{
+		return trimOffsets;
+	}
+	
+	/**
+	 * @return whether a frame is stored rotated 90 degrees clockwise
+	 */
+	public boolean isRotated(int frame)
+	{
+		return rotated != null && rotated[frame];
+	}
+	
+	/**
+	 * @return whether any frame is stored rotated
+	 */
+	public boolean hasRotatedFrames()
+	{
+		return rotated != null;
+	}
+	
+	/**
+	 * Get the rect of a frame in the texture. The width and height
+	 * are the frame's size before rotation
+	 * 
+	 * @param frame the frame index, from 0 to getFrameCount() - 1
+	 * @param dest the rect to write to
+	 */
+	public IntRect getFrameRect(int frame, IntRect dest)
+	{
+		int r = frame * 4;
+		dest.x = rects[r];
+		dest.y = rects[r + 1];
+		dest.w = rects[r + 2];
+		dest.h = rects[r + 3];
+		return dest;
+	}
+	
+	/**
+	 * Move a frame to another place in the texture (e.g. when packing
+	 * atlases). Bake again afterwards
+	 */
+	public void setFramePosition(int frame, int x, int y)
+	{
+		rects[frame * 4] = x;
+		rects[frame * 4 + 1] = y;
+		
+		if(frame == 0)
+		{
+			this.frame.x = x;
+			this.frame.y = y;
+		}
+	}
+	
+	/**
+	 * @return the width of the frames before they were trimmed
+	 */
+	public int getWidth()
+	{
+		return sourceWidth;
+	}
+	
+	/**
+	 * @return the height of the frames before they were trimmed
+	 */
+	public int getHeight()
+	{
+		return sourceHeight;
+	}
 
 	/*
 	 * Get the number of frames in this animation
@@ -90,22 +286,45 @@ public class Animation
 	}
 	
 	/**
-	 * Parse animation information from a JSON Object
+	 * Parse animation information from a JSON Object.
+	 * 
+	 * Frames are either a horizontal strip ("x", "y", "w", "h" of the
+	 * first frame and "frames") or listed one by one in "rects":
+	 * 
+	 * "rects": [ { "x": 0, "y": 0, "w": 12, "h": 20, "offsetX": 2, "offsetY": 0, "rotated": false }, ... ],
+	 * "sourceW": 16, "sourceH": 20
+	 * 
+	 * where the offset is where the trimmed frame sits in the untrimmed
+	 * one (sourceW x sourceH) and a rotated frame is stored turned
+	 * 90 degrees clockwise in the texture.
+	 * 
 	 * @param object the JSONObject to retrieve data from
 	 */
 	public void parse(JsonObject object)
 	{
 		name = object.get("name").getAsString();
 		
-		frame.x = object.get("x").getAsInt();
-		frame.y = object.get("y").getAsInt();
-		frame.w = object.get("w").getAsInt();
-		frame.h = object.get("h").getAsInt();
-		
-		if(hasObject(object, "frames"))
-			frameCount = object.get("frames").getAsInt();
+		if(hasObject(object, "rects"))
+		{
+			parseRects(object.getAsJsonArray("rects"));
+			
+			sourceWidth = hasObject(object, "sourceW") ? object.get("sourceW").getAsInt() : sourceWidth;
+			sourceHeight = hasObject(object, "sourceH") ? object.get("sourceH").getAsInt() : sourceHeight;
+		}
 		else
-			frameCount = 1;
+		{
+			frame.x = object.get("x").getAsInt();
+			frame.y = object.get("y").getAsInt();
+			frame.w = object.get("w").getAsInt();
+			frame.h = object.get("h").getAsInt();
+			
+			if(hasObject(object, "frames"))
+				frameCount = object.get("frames").getAsInt();
+			else
+				frameCount = 1;
+			
+			makeStrip();
+		}
 		
 		if(hasObject(object, "interval"))
 			interval =  object.get("interval").getAsFloat() /1000f; // convert from milliseconds to seconds
@@ -114,6 +333,124 @@ public class Animation
 			loop =  object.get("loop").getAsBoolean();
 	}
 	
+	/**
+	 * Write the animation in the binary atlas format of asset packs
+	 * (little endian: name, loop, interval, source size, then x, y, w, h,
+	 * offset x, offset y and rotated of every frame)
+	 */
+	public void write(ByteBuffer out)
+	{
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		out.putShort((short) bytes.length).put(bytes);
+		out.put((byte) (loop ? 1 : 0));
+		out.putFloat(interval);
+		out.putInt(sourceWidth).putInt(sourceHeight);
+		
+		int count = rects.length / 4;
+		out.putInt(count);
+		for(int i = 0; i < count; i++)
+		{
+			out.putInt(rects[i * 4]).putInt(rects[i * 4 + 1]).putInt(rects[i * 4 + 2]).putInt(rects[i * 4 + 3]);
+			out.putInt(offsets[i * 2]).putInt(offsets[i * 2 + 1]);
+			out.put((byte) (isRotated(i) ? 1 : 0));
+		}
+	}
+	
+	/**
+	 * Read an animation written by write()
+	 */
+	public void read(ByteBuffer in)
+	{
+		byte[] bytes = new byte[in.getShort()];
+		in.get(bytes);
+		name = new String(bytes, StandardCharsets.UTF_8);
+		loop = in.get() != 0;
+		interval = in.getFloat();
+		sourceWidth = in.getInt();
+		sourceHeight = in.getInt();
+		
+		frameCount = in.getInt();
+		rects = new int[frameCount * 4];
+		offsets = new int[frameCount * 2];
+		rotated = null;
+		uvs = null;
+		
+		for(int i = 0; i < frameCount; i++)
+		{
+			for(int r = 0; r < 4; r++)
+				rects[i * 4 + r] = in.getInt();
+			offsets[i * 2] = in.getInt();
+			offsets[i * 2 + 1] = in.getInt();
+			
+			if(in.get() != 0)
+			{
+				if(rotated == null)
+					rotated = new boolean[frameCount];
+				rotated[i] = true;
+			}
+		}
+		
+		getFrameRect(0, frame);
+	}
+	
+	private void parseRects(JsonArray array)
+	{
+		frameCount = array.size();
+		rects = new int[frameCount * 4];
+		offsets = new int[frameCount * 2];
+		rotated = null;
+		
+		for(int i = 0; i < frameCount; i++)
+		{
+			JsonObject rect = array.get(i).getAsJsonObject();
+			int w = rect.get("w").getAsInt();
+			int h = rect.get("h").getAsInt();
+			
+			rects[i * 4]     = rect.get("x").getAsInt();
+			rects[i * 4 + 1] = rect.get("y").getAsInt();
+			rects[i * 4 + 2] = w;
+			rects[i * 4 + 3] = h;
+			
+			offsets[i * 2]     = hasObject(rect, "offsetX") ? rect.get("offsetX").getAsInt() : 0;
+			offsets[i * 2 + 1] = hasObject(rect, "offsetY") ? rect.get("offsetY").getAsInt() : 0;
+			
+			if(hasObject(rect, "rotated") && rect.get("rotated").getAsBoolean())
+			{
+				if(rotated == null)
+					rotated = new boolean[frameCount];
+				rotated[i] = true;
+			}
+			
+			// Untrimmed size defaults to the biggest frame
+			sourceWidth = Math.max(sourceWidth, offsets[i * 2] + w);
+			sourceHeight = Math.max(sourceHeight, offsets[i * 2 + 1] + h);
+		}
+		
+		getFrameRect(0, frame);
+	}
+	
+	/*
+	 * Lay the frames out side by side starting from the root frame
+	 */
+	private void makeStrip()
+	{
+		int count = Math.max(frameCount, 1);
+		rects = new int[count * 4];
+		offsets = new int[count * 2];
+		rotated = null;
+		
+		for(int i = 0; i < count; i++)
+		{
+			rects[i * 4]     = frame.x + frame.w * i;
+			rects[i * 4 + 1] = frame.y;
+			rects[i * 4 + 2] = frame.w;
+			rects[i * 4 + 3] = frame.h;
+		}
+		
+		sourceWidth = frame.w;
+		sourceHeight = frame.h;
+	}
+	
 	/**
 	 * Checks if an animation has a certain value from a JSON key
 	 */
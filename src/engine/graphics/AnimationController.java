@@ -0,0 +1,498 @@
+package engine.graphics;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import engine.util.JsonFile;
+
+/*
+ * An animation state machine loaded from a JSON file next to a texture's
+ * atlas (e.g. resources/images/narry.controller.json). Every state plays
+ * one of the texture's animations, moves to another state when all the
+ * conditions of one of its transitions hold, and fires named events on
+ * some of its frames.
+ *
+ * {
+ *     "parameters": [
+ *         { "name": "speed", "type": "float", "default": 0 },
+ *         { "name": "grounded", "type": "bool", "default": true },
+ *         { "name": "attack", "type": "trigger" }
+ *     ],
+ *     "start": "idle",
+ *     "states": [
+ *         {
+ *             "name": "idle", "animation": "idle",
+ *             "transitions": [
+ *                 { "to": "walk", "conditions": [ { "param": "speed", "op": ">", "value": 0.1 } ] }
+ *             ]
+ *         },
+ *         {
+ *             "name": "walk", "animation": "default",
+ *             "events": [ { "frame": 1, "event": "footstep" }, { "frame": 3, "event": "footstep" } ],
+ *             "transitions": [ { "to": "idle", "exitTime": true } ]
+ *         }
+ *     ]
+ * }
+ *
+ * Parameter types are "float", "int", "bool" and "trigger" (a bool that
+ * turns itself off once a transition uses it). Condition ops are
+ * >, >=, <, <=, == and !=. A transition with "exitTime" only happens
+ * once the current animation has played through.
+ *
+ * Everything is compiled into flat arrays indexed by state, transition
+ * and condition, and names are only used while loading. Parameters and
+ * events are looked up by name once and used by id afterwards.
+ *
+ * The texture may still be loading (see ResourceManager.loadTextureAsync).
+ * State animations are looked up once it's loaded, and until then
+ * isLoaded() is false and the controller can't run.
+ */
+public class AnimationController implements JsonFile
+{
+	public static final int FLOAT = 0;
+	public static final int INT = 1;
+	public static final int BOOL = 2;
+	public static final int TRIGGER = 3;
+
+	public static final int NONE = -1;
+
+	private static final int GT = 0, GE = 1, LT = 2, LE = 3, EQ = 4, NE = 5;
+	private static final String[] OPS = { ">", ">=", "<", "<=", "==", "!=" };
+
+	// Event names are shared by every controller so ids mean the same everywhere
+	private static final HashMap<String, Integer> eventIds = new HashMap<>();
+	private static final ArrayList<String> eventNames = new ArrayList<>();
+
+	private final Texture texture;
+	private String path;
+
+	// Parameters
+	private final HashMap<String, Integer> parameterIds = new HashMap<>();
+	private int[] parameterTypes;
+	private float[] defaults;
+
+	// States
+	private final HashMap<String, Integer> stateIds = new HashMap<>();
+	private String[] stateNames;
+	private String[] stateAnimationNames;
+	private Animation[] stateAnimations;
+	private boolean resolved = false;
+	private int[] firstTransition, transitionCount;
+	private int[] firstEvent, eventCount;
+	private int startState;
+
+	// Transitions
+	private int[] transitionTo;
+	private boolean[] exitTime;
+	private int[] firstCondition, conditionCount;
+
+	// Conditions
+	private int[] conditionParameter;
+	private int[] conditionOp;
+	private float[] conditionValue;
+
+	// Frame events
+	private int[] eventFrame;
+	private int[] eventId;
+
+	/**
+	 * @param path the controller file without the extension
+	 * (e.g. resources/images/narry.controller)
+	 * @param texture the texture whose animations the states play
+	 */
+	public AnimationController(String path, Texture texture)
+	{
+		this.texture = texture;
+
+		try
+		{
+			openJson(path);
+
+			// Check the state animations now if the texture is already loaded
+			isLoaded();
+			System.out.println("Loaded animation controller " + path + ".json");
+		}
+		catch(Exception e)
+		{
+			throw new IllegalArgumentException("Could not load animation controller \"" + path + ".json\"", e);
+		}
+	}
+
+	/**
+	 * Get the id of a frame event name. The same name always gets the
+	 * same id, so look it up once and compare ids afterwards
+	 */
+	public static synchronized int getEventId(String name)
+	{
+		Integer id = eventIds.get(name);
+		if(id == null)
+		{
+			id = eventNames.size();
+			eventNames.add(name);
+			eventIds.put(name, id);
+		}
+		return id;
+	}
+
+	public static synchronized String getEventName(int id)
+	{
+		return eventNames.get(id);
+	}
+
+	@Override
+	public void openJson(String path) throws Exception
+	{
+		this.path = path;
+
+		InputStream stream = getClass().getClassLoader().getResourceAsStream(path + ".json");
+		if(stream == null)
+			throw new FileNotFoundException("Could not find animation controller resource for \"" + path + ".json\"");
+
+		JsonObject json = new JsonParser().parse(new InputStreamReader(stream)).getAsJsonObject();
+		stream.close();
+
+		parseParameters(json.has("parameters") ? json.getAsJsonArray("parameters") : new JsonArray());
+
+		// Number the states first so transitions can refer to later ones
+		JsonArray states = json.getAsJsonArray("states");
+		int stateCount = states.size();
+		stateNames = new String[stateCount];
+		for(int s = 0; s < stateCount; s++)
+		{
+			stateNames[s] = states.get(s).getAsJsonObject().get("name").getAsString();
+			stateIds.put(stateNames[s], s);
+		}
+
+		stateAnimationNames = new String[stateCount];
+		stateAnimations = new Animation[stateCount];
+		resolved = false;
+		firstTransition = new int[stateCount];
+		transitionCount = new int[stateCount];
+		firstEvent = new int[stateCount];
+		eventCount = new int[stateCount];
+
+		int transitions = 0, conditions = 0, events = 0;
+		for(JsonElement state : states)
+		{
+			JsonObject data = state.getAsJsonObject();
+			if(data.has("transitions"))
+			{
+				for(JsonElement transition : data.getAsJsonArray("transitions"))
+				{
+					transitions++;
+					JsonObject t = transition.getAsJsonObject();
+					if(t.has("conditions"))
+						conditions += t.getAsJsonArray("conditions").size();
+				}
+			}
+			if(data.has("events"))
+				events += data.getAsJsonArray("events").size();
+		}
+
+		transitionTo = new int[transitions];
+		exitTime = new boolean[transitions];
+		firstCondition = new int[transitions];
+		conditionCount = new int[transitions];
+		conditionParameter = new int[conditions];
+		conditionOp = new int[conditions];
+		conditionValue = new float[conditions];
+		eventFrame = new int[events];
+		eventId = new int[events];
+
+		int t = 0, c = 0, e = 0;
+		for(int s = 0; s < stateCount; s++)
+		{
+			JsonObject data = states.get(s).getAsJsonObject();
+
+			stateAnimationNames[s] = data.get("animation").getAsString();
+
+			firstTransition[s] = t;
+			if(data.has("transitions"))
+			{
+				for(JsonElement transition : data.getAsJsonArray("transitions"))
+				{
+					JsonObject tr = transition.getAsJsonObject();
+					transitionTo[t] = stateId(tr.get("to").getAsString());
+					exitTime[t] = tr.has("exitTime") && tr.get("exitTime").getAsBoolean();
+
+					firstCondition[t] = c;
+					if(tr.has("conditions"))
+					{
+						for(JsonElement condition : tr.getAsJsonArray("conditions"))
+						{
+							JsonObject cond = condition.getAsJsonObject();
+							conditionParameter[c] = parameterId(cond.get("param").getAsString());
+							conditionOp[c] = cond.has("op") ? op(cond.get("op").getAsString()) : EQ;
+							conditionValue[c] = cond.has("value") ? value(cond.get("value")) : 1.0f;
+							c++;
+						}
+					}
+					conditionCount[t] = c - firstCondition[t];
+					t++;
+				}
+			}
+			transitionCount[s] = t - firstTransition[s];
+
+			firstEvent[s] = e;
+			if(data.has("events"))
+			{
+				for(JsonElement event : data.getAsJsonArray("events"))
+				{
+					JsonObject ev = event.getAsJsonObject();
+					eventFrame[e] = ev.get("frame").getAsInt();
+					eventId[e] = getEventId(ev.get("event").getAsString());
+					e++;
+				}
+			}
+			eventCount[s] = e - firstEvent[s];
+		}
+
+		startState = json.has("start") ? stateId(json.get("start").getAsString()) : 0;
+	}
+
+	/**
+	 * Find the first transition of a state whose conditions all hold
+	 *
+	 * @param state the current state
+	 * @param parameters the parameter values of the animated entity
+	 * @param finished whether the state's animation has played through
+	 * @return the transition, or NONE
+	 */
+	public int findTransition(int state, float[] parameters, boolean finished)
+	{
+		for(int t = firstTransition[state], end = t + transitionCount[state]; t < end; t++)
+		{
+			if(exitTime[t] && !finished)
+				continue;
+
+			boolean pass = true;
+			for(int c = firstCondition[t], last = c + conditionCount[t]; c < last && pass; c++)
+				pass = test(conditionOp[c], parameters[conditionParameter[c]], conditionValue[c]);
+
+			if(pass)
+				return t;
+		}
+		return NONE;
+	}
+
+	/**
+	 * Turn off the triggers a transition used
+	 */
+	public void consumeTriggers(int transition, float[] parameters)
+	{
+		for(int c = firstCondition[transition], end = c + conditionCount[transition]; c < end; c++)
+			if(parameterTypes[conditionParameter[c]] == TRIGGER)
+				parameters[conditionParameter[c]] = 0.0f;
+	}
+
+	/**
+	 * @return the id of a parameter, or NONE if there isn't one
+	 */
+	public int getParameterId(String name)
+	{
+		Integer id = parameterIds.get(name);
+		return id == null ? NONE : id;
+	}
+
+	public int getParameterType(int parameter)
+	{
+		return parameterTypes[parameter];
+	}
+
+	public int getParameterCount()
+	{
+		return defaults.length;
+	}
+
+	/**
+	 * Copy the default parameter values into an entity's parameters
+	 */
+	public void resetParameters(float[] parameters)
+	{
+		System.arraycopy(defaults, 0, parameters, 0, defaults.length);
+	}
+
+	/**
+	 * @return the id of a state, or NONE if there isn't one
+	 */
+	public int getStateId(String name)
+	{
+		Integer id = stateIds.get(name);
+		return id == null ? NONE : id;
+	}
+
+	public String getStateName(int state)
+	{
+		return stateNames[state];
+	}
+
+	public int getStateCount()
+	{
+		return stateNames.length;
+	}
+
+	public int getStartState()
+	{
+		return startState;
+	}
+
+	/**
+	 * @return whether the texture is loaded and every state has its
+	 * animation
+	 */
+	public boolean isLoaded()
+	{
+		if(!resolved && texture.isLoaded())
+			resolveAnimations();
+		return resolved;
+	}
+
+	/**
+	 * @return the animation a state plays, or null while the texture
+	 * is loading
+	 */
+	public Animation getAnimation(int state)
+	{
+		return stateAnimations[state];
+	}
+
+	public int getTransitionTarget(int transition)
+	{
+		return transitionTo[transition];
+	}
+
+	public int getFirstEvent(int state)
+	{
+		return firstEvent[state];
+	}
+
+	public int getEventCount(int state)
+	{
+		return eventCount[state];
+	}
+
+	/**
+	 * @return the frame an event fires on
+	 */
+	public int getEventFrame(int event)
+	{
+		return eventFrame[event];
+	}
+
+	/**
+	 * @return the id of an event's name (see getEventId())
+	 */
+	public int getEvent(int event)
+	{
+		return eventId[event];
+	}
+
+	public Texture getTexture()
+	{
+		return texture;
+	}
+
+	/**
+	 * @return the file this controller was loaded from, without the extension
+	 */
+	public String getPath()
+	{
+		return path;
+	}
+
+	private void parseParameters(JsonArray parameters)
+	{
+		parameterTypes = new int[parameters.size()];
+		defaults = new float[parameters.size()];
+
+		for(int p = 0; p < parameters.size(); p++)
+		{
+			JsonObject data = parameters.get(p).getAsJsonObject();
+			String name = data.get("name").getAsString();
+			String type = data.has("type") ? data.get("type").getAsString() : "float";
+
+			switch(type)
+			{
+			case "float":   parameterTypes[p] = FLOAT; break;
+			case "int":     parameterTypes[p] = INT; break;
+			case "bool":    parameterTypes[p] = BOOL; break;
+			case "trigger": parameterTypes[p] = TRIGGER; break;
+			default:
+				throw new IllegalArgumentException("Unknown parameter type \"" + type + "\" for " + name);
+			}
+
+			defaults[p] = data.has("default") ? value(data.get("default")) : 0.0f;
+			parameterIds.put(name, p);
+		}
+	}
+
+	private int stateId(String name)
+	{
+		Integer id = stateIds.get(name);
+		if(id == null)
+			throw new IllegalArgumentException("Unknown state \"" + name + "\"");
+		return id;
+	}
+
+	private int parameterId(String name)
+	{
+		Integer id = parameterIds.get(name);
+		if(id == null)
+			throw new IllegalArgumentException("Unknown parameter \"" + name + "\"");
+		return id;
+	}
+
+	private static int op(String op)
+	{
+		for(int i = 0; i < OPS.length; i++)
+			if(OPS[i].equals(op))
+				return i;
+		throw new IllegalArgumentException("Unknown condition op \"" + op + "\"");
+	}
+
+	/*
+	 * Parameters are all stored as floats, bools as 0 or 1
+	 */
+	private static float value(JsonElement value)
+	{
+		if(value.getAsJsonPrimitive().isBoolean())
+			return value.getAsBoolean() ? 1.0f : 0.0f;
+		return value.getAsFloat();
+	}
+
+	private static boolean test(int op, float a, float b)
+	{
+		switch(op)
+		{
+		case GT: return a > b;
+		case GE: return a >= b;
+		case LT: return a < b;
+		case LE: return a <= b;
+		case EQ: return a == b;
+		default: return a != b;
+		}
+	}
+
+	/*
+	 * Look up the animation of every state in the loaded texture
+	 */
+	private void resolveAnimations()
+	{
+		for(int s = 0; s < stateAnimations.length; s++)
+		{
+			stateAnimations[s] = texture.getAnimation(stateAnimationNames[s]);
+			if(stateAnimations[s] == null)
+				throw new IllegalArgumentException("State " + stateNames[s] + " of " + path 
+						+ " plays unknown animation \"" + stateAnimationNames[s] + "\"");
+		}
+		resolved = true;
+	}
+}
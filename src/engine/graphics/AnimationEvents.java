@@ -0,0 +1,120 @@
+package engine.graphics;
+
+/*
+ * A ring buffer of frame events fired by animation controllers. Every
+ * event is an entity handle and an event id (see
+ * AnimationController.getEventId()), so nothing is allocated.
+ *
+ * Read the events once per tick:
+ *
+ *     while(events.next())
+ *         if(events.getEvent() == FOOTSTEP)
+ *             playFootstep(events.getEntity());
+ *
+ * If the reader falls behind by more than the capacity, the oldest
+ * events are dropped.
+ */
+public class AnimationEvents
+{
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private final int[] entities;
+	private final int[] events;
+	private final int mask;
+
+	// Total number of events written and read so far
+	private long head = 0;
+	private long tail = 0;
+	private long current = -1;
+	private long dropped = 0;
+
+	public AnimationEvents()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity the most events kept at once, rounded up to a power of 2
+	 */
+	public AnimationEvents(int capacity)
+	{
+		int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+		entities = new int[size];
+		events = new int[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Add an event, overwriting the oldest one if the buffer is full
+	 *
+	 * @param entity the handle of the entity whose animation fired it
+	 * @param event the id of the event's name
+	 */
+	public void push(int entity, int event)
+	{
+		if(head - tail == entities.length)
+		{
+			tail++;
+			dropped++;
+		}
+
+		int i = (int) (head & mask);
+		entities[i] = entity;
+		events[i] = event;
+		head++;
+	}
+
+	/**
+	 * Move to the next unread event
+	 *
+	 * @return false if every event has been read
+	 */
+	public boolean next()
+	{
+		if(tail == head)
+			return false;
+
+		current = tail++;
+		return true;
+	}
+
+	/**
+	 * @return the entity handle of the event next() moved to
+	 */
+	public int getEntity()
+	{
+		return entities[(int) (current & mask)];
+	}
+
+	/**
+	 * @return the event id of the event next() moved to
+	 */
+	public int getEvent()
+	{
+		return events[(int) (current & mask)];
+	}
+
+	/**
+	 * @return the number of unread events
+	 */
+	public int size()
+	{
+		return (int) (head - tail);
+	}
+
+	/*
+	 * Skip every unread event
+	 */
+	public void clear()
+	{
+		tail = head;
+	}
+
+	/**
+	 * @return the number of events overwritten before they were read
+	 */
+	public long getDroppedCount()
+	{
+		return dropped;
+	}
+}
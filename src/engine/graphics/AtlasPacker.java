@@ -0,0 +1,349 @@
+package engine.graphics;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.*;
+import static org.lwjgl.stb.STBRectPack.*;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.stb.STBRPContext;
+import org.lwjgl.stb.STBRPNode;
+import org.lwjgl.stb.STBRPRect;
+
+import com.google.gson.JsonObject;
+
+import de.matthiasmann.twl.utils.PNGDecoder;
+import de.matthiasmann.twl.utils.PNGDecoder.Format;
+
+import engine.assets.AssetPack;
+import engine.graphics.graphicsUtil.VertexArray;
+import engine.util.ResourceManager;
+
+/*
+ * Packs sprite sheets into shared atlas pages at load time, so sprites
+ * from different sheets draw from the same GL texture.
+ *
+ * Register the sheets, then pack them before anything loads them:
+ *
+ *     AtlasPacker packer = new AtlasPacker();
+ *     packer.add("resources/images/narry");
+ *     packer.add("resources/images/birboi");
+ *     packer.pack();
+ *
+ * Every sheet becomes a Texture sharing its page's GL texture, with the
+ * frame rects of its animations moved to where the sheet landed and
+ * the texture coordinates baked for the page. These textures replace
+ * the sheets in the ResourceManager, so ResourceManager.loadTexture()
+ * (and prefabs) get the packed version.
+ *
+ * Pages are RGBA8. Sheets whose atlas asks for another TextureFormat
+ * are loaded on their own in that format instead of being packed.
+ *
+ * The packer holds a reference to every packed sheet, since they're
+ * views of its pages. Sheets loaded on their own are only cached.
+ */
+public class AtlasPacker
+{
+	public static final int SMALL_PAGE = 2048;
+	public static final int LARGE_PAGE = 4096;
+
+	// Edge pixels repeated around every sheet so filtering and mipmaps
+	// don't pick up the neighbouring sheet
+	public static final int PADDING = 2;
+
+	private static class Sheet
+	{
+		String path;
+		int width;
+		int height;
+		ByteBuffer pixels;
+
+		// Atlas JSON when the sheet isn't baked, or null
+		JsonObject atlas;
+
+		int page = -1;
+		int x;
+		int y;
+	}
+
+	private final int pageSize;
+	private final ArrayList<String> paths = new ArrayList<>();
+	private final ArrayList<Texture> pages = new ArrayList<>();
+
+	public AtlasPacker()
+	{
+		this(SMALL_PAGE);
+	}
+
+	/**
+	 * @param pageSize the most width and height of a page, e.g. SMALL_PAGE
+	 * or LARGE_PAGE. Pages shrink to the smallest power of 2 that holds their sheets
+	 */
+	public AtlasPacker(int pageSize)
+	{
+		if(pageSize <= 0 || Integer.bitCount(pageSize) != 1 || pageSize > Short.MAX_VALUE)
+			throw new IllegalArgumentException("Atlas page size must be a power of 2, not " + pageSize);
+
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Register a sheet to pack
+	 *
+	 * @param path the image and atlas path without the extension
+	 * (e.g. resources/images/narry)
+	 */
+	public void add(String path)
+	{
+		if(!paths.contains(path))
+			paths.add(path);
+	}
+
+	/**
+	 * Pack every registered sheet into pages and upload them. Sheets
+	 * bigger than a page are loaded on their own instead
+	 *
+	 * @return the pages
+	 */
+	public ArrayList<Texture> pack()
+	{
+		ArrayList<Sheet> remaining = new ArrayList<>();
+		for(String path : paths)
+		{
+			Sheet sheet = decode(path);
+			if(sheet == null)
+				continue;
+
+			if(sheet.width + PADDING * 2 > pageSize || sheet.height + PADDING * 2 > pageSize)
+			{
+				System.err.println("Sheet " + path + ".png doesn't fit in a " + pageSize + " atlas page");
+				preload(path);
+				continue;
+			}
+			remaining.add(sheet);
+		}
+
+		ArrayList<Sheet> packed = new ArrayList<>(remaining);
+		int first = pages.size();
+		int page = first;
+		while(!remaining.isEmpty())
+			packPage(remaining, page++);
+
+		for(int p = first; p < page; p++)
+			pages.add(upload(packed, p));
+
+		for(Sheet sheet : packed)
+		{
+			Texture texture = new Texture(pages.get(sheet.page), sheet.path);
+			openAtlas(texture, sheet);
+			ResourceManager.addTexture(sheet.path, texture);
+		}
+
+		System.out.println("Packed " + packed.size() + " sheets into " + (page - first) + " atlas pages");
+		paths.clear();
+		return pages;
+	}
+
+	public ArrayList<Texture> getPages()
+	{
+		return pages;
+	}
+
+	/*
+	 * Load a sheet that isn't packed into the cache, so loading it
+	 * later is free
+	 */
+	private static void preload(String path)
+	{
+		ResourceManager.release(ResourceManager.loadTexture(path));
+	}
+
+	/*
+	 * Place as many of the remaining sheets on one page as fit, and take
+	 * them out of the list
+	 */
+	private void packPage(ArrayList<Sheet> remaining, int page)
+	{
+		try(STBRPContext context = STBRPContext.malloc();
+				STBRPNode.Buffer nodes = STBRPNode.malloc(pageSize);
+				STBRPRect.Buffer rects = STBRPRect.malloc(remaining.size()))
+		{
+			stbrp_init_target(context, pageSize, pageSize, nodes);
+
+			for(int i = 0; i < remaining.size(); i++)
+			{
+				Sheet sheet = remaining.get(i);
+				rects.get(i).set(i, (short) (sheet.width + PADDING * 2),
+						(short) (sheet.height + PADDING * 2), (short) 0, (short) 0, false);
+			}
+
+			stbrp_pack_rects(context, rects);
+
+			for(int i = 0; i < rects.capacity(); i++)
+			{
+				STBRPRect rect = rects.get(i);
+				if(!rect.was_packed())
+					continue;
+
+				Sheet sheet = remaining.get(rect.id());
+				sheet.page = page;
+				sheet.x = rect.x() + PADDING;
+				sheet.y = rect.y() + PADDING;
+			}
+		}
+
+		// Every sheet fits on an empty page, so each page takes at least one
+		remaining.removeIf(sheet -> sheet.page >= 0);
+	}
+
+	/*
+	 * Copy the sheets of a page into one image and make it a texture
+	 */
+	private Texture upload(ArrayList<Sheet> sheets, int page)
+	{
+		// Shrink the page to the smallest power of 2 that holds its sheets
+		int width = 1, height = 1;
+		for(Sheet sheet : sheets)
+		{
+			if(sheet.page != page)
+				continue;
+
+			while(width < sheet.x + sheet.width + PADDING)
+				width <<= 1;
+			while(height < sheet.y + sheet.height + PADDING)
+				height <<= 1;
+		}
+
+		ByteBuffer pixels = BufferUtils.createByteBuffer(width * height * VertexArray.BPF);
+		for(Sheet sheet : sheets)
+		{
+			if(sheet.page == page)
+			{
+				blit(sheet, pixels, width);
+				sheet.pixels = null;
+			}
+		}
+
+		Texture texture = new Texture(width, height, GL_RGBA, pixels);
+		texture.setWrap(GL_CLAMP_TO_EDGE);
+		texture.generateMipmaps();
+		texture.setFilter(Texture.LINEAR_MIPMAP_LINEAR, Texture.NEAREST);
+		texture.unbind();
+
+		return texture;
+	}
+
+	/*
+	 * Copy a sheet into a page, repeating its edge pixels into the padding
+	 */
+	private static void blit(Sheet sheet, ByteBuffer page, int pageWidth)
+	{
+		int bpp = VertexArray.BPF;
+
+		// Copy whole pixels as ints, in the same byte order on both sides
+		ByteBuffer pixels = sheet.pixels.duplicate().order(page.order());
+		for(int y = -PADDING; y < sheet.height + PADDING; y++)
+		{
+			int srcRow = Math.max(0, Math.min(y, sheet.height - 1)) * sheet.width;
+			int dstRow = (sheet.y + y) * pageWidth + sheet.x;
+
+			for(int x = -PADDING; x < sheet.width + PADDING; x++)
+			{
+				int src = srcRow + Math.max(0, Math.min(x, sheet.width - 1));
+				page.putInt((dstRow + x) * bpp, pixels.getInt(src * bpp));
+			}
+		}
+	}
+
+	private Sheet decode(String path)
+	{
+		AssetPack pack = ResourceManager.getPack();
+		if(pack != null && pack.has(path + ".png"))
+		{
+			AssetPack.Entry image = pack.getEntry(path + ".png");
+			if(image.format != TextureFormat.RGBA8)
+			{
+				preload(path);
+				return null;
+			}
+
+			Sheet sheet = new Sheet();
+			sheet.path = path;
+			sheet.width = image.width;
+			sheet.height = image.height;
+			sheet.pixels = pack.get(path + ".png");
+			return sheet;
+		}
+
+		JsonObject atlas = null;
+		try(InputStream stream = getClass().getClassLoader().getResourceAsStream(path + ".json"))
+		{
+			// Sheets without an atlas have no animations, like unpacked ones
+			if(stream != null)
+				atlas = Texture.readAtlas(stream);
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+		}
+
+		if(TextureFormat.fromAtlas(atlas) != TextureFormat.RGBA8)
+		{
+			preload(path);
+			return null;
+		}
+
+		try(InputStream stream = getClass().getClassLoader().getResourceAsStream(path + ".png"))
+		{
+			if(stream == null)
+				throw new FileNotFoundException("Could not find image resource for \"" + path + ".png\"");
+
+			PNGDecoder decoder = new PNGDecoder(stream);
+
+			Sheet sheet = new Sheet();
+			sheet.path = path;
+			sheet.atlas = atlas;
+			sheet.width = decoder.getWidth();
+			sheet.height = decoder.getHeight();
+			sheet.pixels = ByteBuffer.allocateDirect(sheet.width * sheet.height * VertexArray.BPF);
+			decoder.decode(sheet.pixels, sheet.width * VertexArray.BPF, Format.RGBA);
+			sheet.pixels.flip();
+			return sheet;
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private void openAtlas(Texture texture, Sheet sheet)
+	{
+		AssetPack pack = ResourceManager.getPack();
+		if(pack != null && pack.has(sheet.path + ".json"))
+		{
+			ArrayList<Animation> animations = pack.getAnimations(sheet.path + ".json");
+			if(animations != null)
+				texture.addAnimations(animations, sheet.x, sheet.y);
+			return;
+		}
+
+		if(sheet.atlas == null)
+			return;
+
+		try
+		{
+			texture.addAnimations(Texture.parseAtlas(sheet.atlas), sheet.x, sheet.y);
+			System.out.println("Loaded atlas " + sheet.path + ".json into page " + sheet.page);
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+		}
+	}
+}
@@ -8,6 +8,7 @@ import static org.lwjgl.stb.STBTruetype.stbtt_PackFontRange;
 import static org.lwjgl.stb.STBTruetype.stbtt_PackSetOversampling;
 import static org.lwjgl.system.MemoryUtil.NULL;
 import static org.lwjgl.system.MemoryUtil.memAllocFloat;
+import static org.lwjgl.system.MemoryUtil.memFree;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -19,11 +20,15 @@ import org.lwjgl.stb.STBTTAlignedQuad;
 import org.lwjgl.stb.STBTTPackContext;
 import org.lwjgl.stb.STBTTPackedchar;
 
+import engine.assets.AssetPack;
 import engine.components.TransformComponent;
 import engine.graphics.Texture;
+import engine.graphics.TextureFormat;
+import engine.graphics.TextureMemory;
 import engine.graphics.graphicsUtil.Color;
 import engine.graphics.graphicsUtil.Vertex;
 import engine.util.IOUtil;
+import engine.util.ResourceManager;
 
 /*
  * Loads a Truetype font file (.ttf) to enable
@@ -56,6 +61,7 @@ public class Font
 	
 	// ----
 	
+	private String path;
 	private Texture fontTexture;
 	private STBTTPackedchar.Buffer chardata;
 	private int font = 0;
@@ -66,6 +72,7 @@ public class Font
 	
 	public Font(String filePath)
 	{
+		path = filePath;
 		loadFont(filePath);
 	}
 	
@@ -79,6 +86,35 @@ public class Font
 		textColor = color;
 	}
 	
+	public String getPath()
+	{
+		return path;
+	}
+	
+	/**
+	 * @return the estimated GPU memory of the glyph texture in bytes
+	 */
+	public long getMemorySize()
+	{
+		return fontTexture == null ? 0 : fontTexture.getMemorySize();
+	}
+	
+	/*
+	 * Delete the glyph texture and free the glyph data. Fonts are
+	 * usually deleted by the ResourceManager once nothing uses them
+	 */
+	public void delete()
+	{
+		if(fontTexture != null)
+			fontTexture.delete();
+		fontTexture = null;
+		
+		chardata.free();
+		q.free();
+		memFree(xb);
+		memFree(yb);
+	}
+	
 	// TODO: Put this somewhere else
 	public void drawText(Renderer renderer, String text)
 	{
@@ -124,7 +160,9 @@ public class Font
 		
 		try (STBTTPackContext pc = STBTTPackContext.malloc())
 		{
-		    ByteBuffer ttf = IOUtil.ioResourceToByteBuffer(filePath, 512 * 1024);
+		    AssetPack pack = ResourceManager.getPack();
+		    ByteBuffer ttf = pack != null && pack.has(filePath) ? pack.get(filePath)
+		    		: IOUtil.ioResourceToByteBuffer(filePath, 512 * 1024);
 			
 			ByteBuffer bitmap = BufferUtils.createByteBuffer(BITMAP_W * BITMAP_H);
 			
@@ -154,7 +192,8 @@ public class Font
 			chardata.clear();
 			stbtt_PackEnd(pc);
 				
-			fontTexture = new Texture(BITMAP_W, BITMAP_H, GL_RED, bitmap);
+			fontTexture = Texture.fromPixels(TextureFormat.R8, BITMAP_W, BITMAP_H, bitmap);
+			fontTexture.setCategory(TextureMemory.FONT);
 			fontTexture.setFilter(Texture.LINEAR, Texture.LINEAR);
 			fontTexture.setWrap(Texture.CLAMP_TO_EDGE);
 		} 
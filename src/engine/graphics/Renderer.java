@@ -8,6 +8,7 @@ import java.util.ArrayList;
 import org.joml.Matrix4f;
 
 import engine.graphics.graphicsUtil.Framebuffer;
+import engine.graphics.graphicsUtil.QuadKernel;
 import engine.graphics.graphicsUtil.Vertex;
 import engine.graphics.graphicsUtil.VertexArray;
 import engine.util.IntRect;
@@ -20,8 +21,14 @@ public class Renderer
 
 	private ArrayList<Batch> batches = new ArrayList<Batch>();
 	
+	private SpriteBatch sprites = new SpriteBatch();
+	private QuadKernel kernel = new QuadKernel();
+	
 	private VertexArray data;
 	
+	// Most sprites drawn in one draw call
+	private static final int MAX_QUADS = 4096;
+	
 	/*
 	 * Represents something to be drawn to the screen
 	 * This class holds the entity's vertices to be added
@@ -90,7 +97,7 @@ public class Renderer
 	
 	public Renderer()
 	{
-		data = new VertexArray();
+		data = new VertexArray(MAX_QUADS * 4);
 		data.init();
 	}
 	
@@ -115,6 +122,14 @@ public class Renderer
 		return batches;
 	}
 	
+	/**
+	 * @return the sprites to draw this frame, drawn before the batches
+	 */
+	public SpriteBatch getSprites()
+	{
+		return sprites;
+	}
+	
 	/*
 	 * Draw one frame
 	 * Called every frame in the game loop
@@ -134,6 +149,8 @@ public class Renderer
 
 		viewMatrix = new Matrix4f().ortho2D(0, fbo.getWidth(), fbo.getHeight(), 0);
 		
+		renderSprites();
+		
 		for(Batch b : batches)
 		{
 			b.shader.useProgram();
@@ -148,6 +165,46 @@ public class Renderer
 		batches.clear();
 	}
 
+	/*
+	 * Draw the sprites in the order they were added. Each run of sprites
+	 * with the same texture and shader is transformed straight into the
+	 * vertex buffer and drawn with one draw call
+	 */
+	private void renderSprites()
+	{
+		int count = sprites.size();
+		int maxQuads = data.getMaxQuads();
+		
+		for(int first = 0; first < count;)
+		{
+			Texture texture = sprites.getTexture(first);
+			Shader shader = sprites.getShader(first);
+			
+			int end = first + 1;
+			int last = Math.min(count, first + maxQuads);
+			while(end < last && sprites.getTexture(end) == texture && sprites.getShader(end) == shader)
+				end++;
+			
+			kernel.transform(first, end - first, sprites.getSizes(), sprites.getAffines(), 
+					sprites.getST(), sprites.getColors(), sprites.getRotated(), data.getVertexBuffer());
+			data.flip();
+			
+			shader.useProgram();
+			shader.setUniformMat4f("view", viewMatrix);
+			bindTexture(texture, shader);
+			
+			data.bindQuads();
+			data.drawQuads(end - first);
+			
+			texture.unbind();
+			data.reset();
+			
+			first = end;
+		}
+		
+		sprites.clear();
+	}
+
 	private void renderBatch(Batch batch)
 	{
 		for(Vertex v : batch.vertices)
@@ -158,13 +215,23 @@ public class Renderer
 		data.flip();
 		
 		if(batch.texture != null)
-		{
-			batch.texture.bind();
-			batch.shader.setUniform1i("texture_diffuse", 0);
-		}
+			bindTexture(batch.texture, batch.shader);
 		
 		data.bind();
 		data.draw(batch.indices.length);
 		batch.reset();
 	}
+	
+	private void bindTexture(Texture texture, Shader shader)
+	{
+		texture.bind();
+		shader.setUniform1i("texture_diffuse", 0);
+		
+		// Tell the sprite shader how to read compact formats
+		if(shader.hasUniform("texture_format"))
+		{
+			shader.setUniform1i("texture_format", texture.getShaderMode());
+			shader.setUniform1i("palette", TextureFormat.PALETTE_UNIT);
+		}
+	}
 }
@@ -33,6 +33,10 @@ public class Shader
 	
 	private int shaderProgram;
 	
+	// Files the program was loaded from, or null
+	private String vertPath;
+	private String fragPath;
+	
 	/*
 	 * Default constructor
 	 */
@@ -46,6 +50,8 @@ public class Shader
 	 */
 	public Shader(String vertPath, String fragPath)
 	{
+		this.vertPath = vertPath;
+		this.fragPath = fragPath;
 		shaderProgram = ResourceManager.loadShader(vertPath, fragPath);
 	}
 	/*
@@ -67,12 +73,26 @@ public class Shader
 	}
 	
 	/*
-	 * Clean up memory and delete this shader program
-	 * and its shaders.
+	 * Stop using this shader and give its program back to the
+	 * ResourceManager, which deletes it once nothing uses it
 	 */
 	public void delete()
 	{
 		this.reset();
+		
+		if(vertPath != null)
+			ResourceManager.releaseShader(vertPath, fragPath);
+		vertPath = null;
+		fragPath = null;
+		shaderProgram = 0;
+	}
+	
+	/**
+	 * @return whether this shader has an active uniform with a name
+	 */
+	public boolean hasUniform(String name)
+	{
+		return glGetUniformLocation(shaderProgram, name) >= 0;
 	}
 	
 	/**
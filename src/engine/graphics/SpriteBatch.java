@@ -0,0 +1,151 @@
+package engine.graphics;
+
+import java.util.Arrays;
+
+import engine.graphics.graphicsUtil.Color;
+import engine.graphics.graphicsUtil.QuadKernel;
+
+/*
+ * The sprites to draw this frame, packed into the float arrays the
+ * QuadKernel reads. Sprites are drawn in the order they were added and
+ * neighbours with the same texture and shader share one draw call, so
+ * adding them archetype by archetype keeps the draws few.
+ */
+public class SpriteBatch
+{
+	private float[] sizes;
+	private float[] affines;
+	private float[] st;
+	private float[] colors;
+
+	// Sprites stored rotated 90 degrees clockwise in their texture
+	private boolean[] rotated;
+
+	private Texture[] textures;
+	private Shader[] shaders;
+	private int count;
+
+	public SpriteBatch()
+	{
+		this(256);
+	}
+
+	public SpriteBatch(int capacity)
+	{
+		sizes = new float[capacity * QuadKernel.SIZE_STRIDE];
+		affines = new float[capacity * QuadKernel.AFFINE_STRIDE];
+		st = new float[capacity * QuadKernel.ST_STRIDE];
+		colors = new float[capacity * QuadKernel.COLOR_STRIDE];
+		rotated = new boolean[capacity];
+		textures = new Texture[capacity];
+		shaders = new Shader[capacity];
+	}
+
+	/**
+	 * Add a sprite. Its size, transform, texture coordinates and color
+	 * are then written at the returned index of the packed arrays. The
+	 * arrays may be replaced when they grow, so get them after adding
+	 *
+	 * @return the index of the new sprite
+	 */
+	public int add(Texture texture, Shader shader)
+	{
+		if(count == textures.length)
+			grow(count * 2);
+
+		textures[count] = texture;
+		shaders[count] = shader;
+		rotated[count] = false;
+		return count++;
+	}
+
+	/*
+	 * Make room for more sprites, keeping the ones added
+	 */
+	private void grow(int capacity)
+	{
+		sizes = Arrays.copyOf(sizes, capacity * QuadKernel.SIZE_STRIDE);
+		affines = Arrays.copyOf(affines, capacity * QuadKernel.AFFINE_STRIDE);
+		st = Arrays.copyOf(st, capacity * QuadKernel.ST_STRIDE);
+		colors = Arrays.copyOf(colors, capacity * QuadKernel.COLOR_STRIDE);
+		rotated = Arrays.copyOf(rotated, capacity);
+		textures = Arrays.copyOf(textures, capacity);
+		shaders = Arrays.copyOf(shaders, capacity);
+	}
+
+	public void setColor(int sprite, Color color)
+	{
+		int c = sprite * QuadKernel.COLOR_STRIDE;
+		colors[c]     = color.r;
+		colors[c + 1] = color.g;
+		colors[c + 2] = color.b;
+		colors[c + 3] = color.a;
+	}
+
+	public void setRotated(int sprite, boolean rotated)
+	{
+		this.rotated[sprite] = rotated;
+	}
+
+	/*
+	 * Forget every sprite for the next frame
+	 */
+	public void clear()
+	{
+		Arrays.fill(textures, 0, count, null);
+		Arrays.fill(shaders, 0, count, null);
+		count = 0;
+	}
+
+	public int size()
+	{
+		return count;
+	}
+
+	public Texture getTexture(int sprite)
+	{
+		return textures[sprite];
+	}
+
+	public Shader getShader(int sprite)
+	{
+		return shaders[sprite];
+	}
+
+	/**
+	 * @return the width and height of every sprite (QuadKernel.SIZE_STRIDE)
+	 */
+	public float[] getSizes()
+	{
+		return sizes;
+	}
+
+	/**
+	 * @return the packed transform of every sprite (see QuadKernel.packAffine)
+	 */
+	public float[] getAffines()
+	{
+		return affines;
+	}
+
+	/**
+	 * @return the texture coordinates of every sprite (QuadKernel.ST_STRIDE)
+	 */
+	public float[] getST()
+	{
+		return st;
+	}
+
+	/**
+	 * @return the color of every sprite (QuadKernel.COLOR_STRIDE)
+	 */
+	public float[] getColors()
+	{
+		return colors;
+	}
+
+	public boolean[] getRotated()
+	{
+		return rotated;
+	}
+}
@@ -10,6 +10,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 
 import org.lwjgl.BufferUtils;
@@ -21,7 +22,10 @@ import com.google.gson.JsonParser;
 import de.matthiasmann.twl.utils.PNGDecoder;
 import de.matthiasmann.twl.utils.PNGDecoder.Format;
 
+import engine.assets.AssetPack;
 import engine.graphics.graphicsUtil.VertexArray;
+import engine.util.IntRect;
+import engine.util.ResourceManager;
 
 // TODO: refactor + cleanup so there's not so much copied code
 public class Texture 
@@ -39,16 +43,60 @@ public class Texture
 	public static final int CLAMP_TO_EDGE = GL_CLAMP_TO_EDGE;
 	public static final int REPEAT = GL_REPEAT;
 	
+	// Width and height of the placeholder texture
+	public static final int PLACEHOLDER_SIZE = 16;
+	
 	public static final int DEFAULT_FILTER = NEAREST;
 	public static final int DEFAULT_WRAP = REPEAT;
 	
 	private ArrayList<Animation> animationList = new ArrayList<Animation>();
+	private HashMap<String, Integer> animationIds = new HashMap<String, Integer>();
 	
 	private int textureID;
 	
+	// Resource path the texture was opened from, or null
+	private String path;
+	
 	private int width;
 	private int height;
 	
+	// False while this texture shows the placeholder, because it's
+	// still loading (see TextureLoader) or its image couldn't be opened
+	private volatile boolean loaded = true;
+	
+	// False if the GL texture belongs to another texture (copies, sheets
+	// packed into a page, the placeholder), so delete() leaves it alone
+	private boolean ownsID = true;
+	private boolean deleted = false;
+	
+	// How the pixels are stored, see TextureFormat
+	private int format = TextureFormat.RGBA8;
+	private boolean mipmapped = false;
+	
+	// Colors of an indexed texture, or null
+	private Texture palette;
+	
+	// Kept so the parameters can be set again on a new GL texture
+	// when this one is streamed (see TextureStreamer)
+	private int minFilter = DEFAULT_FILTER;
+	private int magFilter = DEFAULT_FILTER;
+	private int wrap = DEFAULT_WRAP;
+	
+	// What the memory of this texture counts towards (see TextureMemory),
+	// and how much of it is counted
+	private int category = TextureMemory.SPRITE;
+	private long countedBytes = 0;
+	
+	// Streaming state. The last frame this texture was bound in, the
+	// number of mip levels dropped from the top, whether the GL texture
+	// was deleted, and whether it's being loaded again
+	private int lastUsedFrame = TextureMemory.frame;
+	private int droppedLevels = 0;
+	private boolean evicted = false;
+	private boolean reloading = false;
+	
+	private static Texture placeholder;
+	
 	/*
 	 * Default constructor
 	 */
@@ -67,6 +115,9 @@ public class Texture
 	
 	public Texture(int width, int height, int format)
 	{
+		this.width = width;
+		this.height = height;
+		this.format = TextureFormat.fromGL(format);
 		textureID = glGenTextures();
 		
 		glBindTexture(GL_TEXTURE_2D, textureID);
@@ -77,10 +128,14 @@ public class Texture
 
 		// Reset the texture now that it's bound
 		unbind();
+		updateMemory();
 	}
 	
 	public Texture(int width, int height, int format, ByteBuffer data)
 	{
+		this.width = width;
+		this.height = height;
+		this.format = TextureFormat.fromGL(format);
 		textureID = glGenTextures();
 		
 		glBindTexture(GL_TEXTURE_2D, textureID);
@@ -91,6 +146,7 @@ public class Texture
 
 		// Reset the texture now that it's bound
 		unbind();
+		updateMemory();
 	}
 	
 	/*
@@ -101,6 +157,140 @@ public class Texture
 		this.textureID = copy.getID();
 		this.width = copy.getWidth();
 		this.height = copy.getHeight();
+		this.format = copy.format;
+		this.palette = copy.palette;
+		this.ownsID = false;
+	}
+	
+	/**
+	 * Make a texture from pixels already in a format
+	 * 
+	 * @param format a TextureFormat, e.g. TextureFormat.R8
+	 * @param pixels row by row, as TextureFormat.convert() makes them
+	 */
+	public static Texture fromPixels(int format, int width, int height, ByteBuffer pixels)
+	{
+		Texture texture = new Texture();
+		texture.width = width;
+		texture.height = height;
+		texture.allocate(format, pixels);
+		texture.setFilter(DEFAULT_FILTER, DEFAULT_FILTER);
+		texture.unbind();
+		return texture;
+	}
+	
+	/*
+	 * A sheet packed into an atlas page. It draws from the page's GL
+	 * texture and its animations are baked for the page
+	 */
+	Texture(Texture page, String path)
+	{
+		this(page);
+		this.path = path;
+	}
+	
+	/*
+	 * A texture that shows the placeholder until a TextureLoader
+	 * finishes loading it
+	 */
+	static Texture loading(String path)
+	{
+		Texture texture = new Texture(getPlaceholder());
+		texture.path = path;
+		texture.loaded = false;
+		return texture;
+	}
+	
+	/**
+	 * Get the texture shown in place of textures that are still loading
+	 * or failed to load: a magenta and black checkerboard. Call on the
+	 * GL thread
+	 */
+	public static Texture getPlaceholder()
+	{
+		if(placeholder == null)
+		{
+			ByteBuffer pixels = BufferUtils.createByteBuffer(PLACEHOLDER_SIZE * PLACEHOLDER_SIZE * 4);
+			for(int y = 0; y < PLACEHOLDER_SIZE; y++)
+				for(int x = 0; x < PLACEHOLDER_SIZE; x++)
+				{
+					byte magenta = (byte) (((x / 4 + y / 4) & 1) == 0 ? 0xFF : 0);
+					pixels.put(magenta).put((byte) 0).put(magenta).put((byte) 0xFF);
+				}
+			pixels.flip();
+			
+			placeholder = new Texture(PLACEHOLDER_SIZE, PLACEHOLDER_SIZE, GL_RGBA, pixels);
+			placeholder.setWrap(REPEAT);
+		}
+		return placeholder;
+	}
+	
+	/*
+	 * Show the placeholder instead of an image that couldn't be opened
+	 */
+	private void usePlaceholder()
+	{
+		if(ownsID && textureID != 0)
+			glDeleteTextures(textureID);
+		
+		Texture p = getPlaceholder();
+		textureID = p.textureID;
+		width = p.width;
+		height = p.height;
+		ownsID = false;
+		loaded = false;
+		updateMemory();
+	}
+	
+	/*
+	 * Swap the placeholder for the uploaded image. Called by the
+	 * TextureLoader on the GL thread
+	 */
+	void finishLoading(int textureID, int width, int height, int format, ArrayList<Animation> animations)
+	{
+		this.textureID = textureID;
+		this.width = width;
+		this.height = height;
+		this.format = format;
+		this.ownsID = true;
+		if(animations != null)
+			addAnimations(animations, 0, 0);
+		lastUsedFrame = TextureMemory.frame;
+		loaded = true;
+		updateMemory();
+	}
+	
+	/*
+	 * Swap a texture streamed out by the TextureStreamer for its
+	 * reloaded full size image. Called by the TextureLoader on the GL thread
+	 */
+	void finishReloading(int textureID)
+	{
+		if(ownsID && this.textureID != 0)
+			glDeleteTextures(this.textureID);
+		
+		this.textureID = textureID;
+		ownsID = true;
+		droppedLevels = 0;
+		evicted = false;
+		reloading = false;
+		lastUsedFrame = TextureMemory.frame;
+		loaded = true;
+		
+		if(TextureFormat.isFilterable(format))
+			generateMipmaps();
+		applyParameters();
+		unbind();
+		updateMemory();
+	}
+	
+	/**
+	 * @return false while the placeholder is shown instead of this
+	 * texture's image
+	 */
+	public boolean isLoaded()
+	{
+		return loaded;
 	}
 	
 	/**
@@ -122,28 +312,50 @@ public class Texture
 	 */
 	public void openResource(String path)
 	{
+		this.path = path;
+		
+		AssetPack pack = ResourceManager.getPack();
+		if(pack != null && pack.has(path + ".png"))
+		{
+			openPacked(pack, path);
+			return;
+		}
+		
+		// Read the atlas first, it says what format the image is stored in
+		JsonObject atlas = null;
+		try
+		{	
+			InputStream atlasStream = getClass().getClassLoader().getResourceAsStream(path + ".json");
+			if (atlasStream == null)
+				throw new FileNotFoundException("Could not find atlas resource for \"" + path + ".json\"");
+			atlas = readAtlas(atlasStream);
+			
+			System.out.println("Loaded atlas " + path + ".json");
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+		}
+		
 		try
 		{
 			InputStream imageStream = getClass().getClassLoader().getResourceAsStream(path + ".png");
 			if (imageStream == null)
 				throw new FileNotFoundException("Could not find image resource for \"" + path + ".png\"");
-			openImage(imageStream);
+			openImage(imageStream, TextureFormat.fromAtlas(atlas));
 			
 			System.out.println("Loaded texture " + path + ".png");
 		}
 		catch(Exception e)
 		{
 			e.printStackTrace();
+			usePlaceholder();
 		}
 		
 		try
-		{	
-			InputStream atlasStream = getClass().getClassLoader().getResourceAsStream(path + ".json");
-			if (atlasStream == null)
-				throw new FileNotFoundException("Could not find atlas resource for \"" + path + ".json\"");
-			openAtlas(atlasStream);	
-			
-			System.out.println("Loaded atlas " + path + ".json");
+		{
+			if(atlas != null)
+				addAnimations(parseAtlas(atlas), 0, 0);
 		}
 		catch(Exception e)
 		{
@@ -151,10 +363,33 @@ public class Texture
 		}
 	}
 	
+	/**
+	 * Open a baked image and atlas from an asset pack. The pixels are
+	 * uploaded straight from the mapped pack, already in their format
+	 */
+	private void openPacked(AssetPack pack, String path)
+	{
+		AssetPack.Entry image = pack.getEntry(path + ".png");
+		width = image.width;
+		height = image.height;
+		
+		textureID = glGenTextures();
+		allocate(image.format, pack.get(path + ".png"));
+		setUpImage();
+		
+		ArrayList<Animation> animations = pack.getAnimations(path + ".json");
+		if(animations != null)
+			addAnimations(animations, 0, 0);
+		
+		System.out.println("Loaded texture " + path + " from asset pack");
+	}
+	
 	/**
 	 * Open an image from the resources folder
+	 * 
+	 * @param format the TextureFormat to store it in
 	 */
-	private void openImage(InputStream stream)
+	private void openImage(InputStream stream, int format)
 	{
 		ByteBuffer buffer;
 		
@@ -170,58 +405,167 @@ public class Texture
 			decoder.decode(buffer, width * VertexArray.BPF, Format.RGBA);
 			buffer.flip();
 			
-			// Create a new texture object in memory and bind it
-			textureID = glGenTextures();
-			this.bind();
-			
-			// Tell OpenGL that each RGB byte component is one byte
-			uploadImageData(GL_RGBA, buffer);
+			if(format != TextureFormat.RGBA8)
+			{
+				ByteBuffer converted = TextureFormat.convert(buffer, width, height, format);
+				if(converted == null)
+				{
+					System.err.println("Texture " + path + " has more than " + TextureFormat.PALETTE_SIZE 
+							+ " colors to index, keeping it rgba8");
+					format = TextureFormat.RGBA8;
+				}
+				else
+					buffer = converted;
+			}
 			
-			glGenerateMipmap(GL_TEXTURE_2D);
-		
-			setWrap(DEFAULT_WRAP);
-			setFilter(LINEAR_MIPMAP_LINEAR, NEAREST);
+			// Create a new texture object in memory and upload the pixels
+			textureID = glGenTextures();
+			allocate(format, buffer);
+			setUpImage();
 		}
 		catch(IOException e)
 		{
 			e.printStackTrace();
-			System.exit(-1);
+			usePlaceholder();
 		}
 	}
 	
+	/*
+	 * Upload pixels in a format to this texture's GL texture, replacing
+	 * what it held. Indexed pixels bring their palette along
+	 */
+	private void allocate(int format, ByteBuffer pixels)
+	{
+		this.format = format;
+		
+		bindForEditing();
+		glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+		glTexImage2D(GL_TEXTURE_2D, 0, TextureFormat.getInternalFormat(format), width, height, 0,
+				TextureFormat.getPixelFormat(format), TextureFormat.getPixelType(format), pixels);
+		
+		if(format == TextureFormat.INDEXED)
+			setPalette(TextureFormat.getPalette(pixels, width, height));
+		updateMemory();
+	}
+	
+	/*
+	 * Make the mipmaps and set the filters of a sprite image. Indexed
+	 * images get neither, filtering would blend their palette indices
+	 */
+	void setUpImage()
+	{
+		if(TextureFormat.isFilterable(format))
+		{
+			generateMipmaps();
+			setFilter(LINEAR_MIPMAP_LINEAR, NEAREST);
+		}
+		else
+			setFilter(NEAREST, NEAREST);
+		
+		setWrap(DEFAULT_WRAP);
+		unbind();
+		updateMemory();
+	}
+	
+	/*
+	 * Set the colors of an indexed texture
+	 * 
+	 * @param colors TextureFormat.PALETTE_SIZE RGBA8 colors
+	 */
+	void setPalette(ByteBuffer colors)
+	{
+		if(palette == null)
+		{
+			palette = new Texture(TextureFormat.PALETTE_SIZE, 1, GL_RGBA, colors);
+			palette.setWrap(CLAMP_TO_EDGE);
+			palette.unbind();
+		}
+		else
+			palette.uploadImageData(GL_RGBA, colors);
+	}
+	
+	/**
+	 * @return the palette of an indexed texture, or null
+	 */
+	public Texture getPalette()
+	{
+		return palette;
+	}
+	
+	/**
+	 * @return how this texture's pixels are stored, see TextureFormat
+	 */
+	public int getFormat()
+	{
+		return format;
+	}
+	
 	/**
-	 * Open an image's JSON atlas file
-	 * @param stream Stream to JSON file atlas
-	 * @throws IOException if parsing fails
+	 * @return how the sprite shader should read this texture, see
+	 * TextureFormat.getShaderMode()
 	 */
-	private void openAtlas(InputStream stream) throws Exception
+	public int getShaderMode()
 	{
-		JsonParser parser = new JsonParser();
+		// Evicted textures show the RGBA placeholder
+		return evicted ? TextureFormat.SHADER_RGBA : TextureFormat.getShaderMode(format);
+	}
+	
+	/**
+	 * Read a JSON atlas file. Doesn't touch GL, so it's safe off the GL thread
+	 */
+	static JsonObject readAtlas(InputStream stream)
+	{
+		return (JsonObject) new JsonParser().parse(new InputStreamReader(stream));
+	}
+	
+	/**
+	 * Parse the animations of a JSON atlas without baking them.
+	 * Doesn't touch GL, so it's safe off the GL thread
+	 */
+	static ArrayList<Animation> parseAtlas(JsonObject jsonObject)
+	{
+		// Get the array of animation data
+		JsonArray atlas = (JsonArray) jsonObject.get("atlas");
+		Iterator i = atlas.iterator();
 		
-		try
+		// Create an Animation object for each animation JSON object
+		ArrayList<Animation> animations = new ArrayList<Animation>();
+		while(i.hasNext())
 		{
-			// Parse the document
-			Object obj = parser.parse(new InputStreamReader(stream));
-			JsonObject jsonObject = (JsonObject) obj;
-
-			// Get the array of animation data
-			JsonArray atlas = (JsonArray) jsonObject.get("atlas");
-			Iterator i = atlas.iterator();
-			
-			// Create an Animation object for each animation JSON object
-			while(i.hasNext())
-			{
-				JsonObject data = (JsonObject) i.next();
-				Animation animation = new Animation();
-				animation.parse(data);
-				animationList.add(animation);
-			}
-			
+			JsonObject data = (JsonObject) i.next();
+			Animation animation = new Animation();
+			animation.parse(data);
+			animations.add(animation);
+		}
+		return animations;
+	}
+	
+	/**
+	 * Add parsed animations to this texture and bake them
+	 * 
+	 * @param x where the animations' image is in this texture
+	 * @param y
+	 */
+	void addAnimations(ArrayList<Animation> animations, int x, int y)
+	{
+		for(Animation animation : animations)
+		{
+			if(x != 0 || y != 0)
+				moveFrames(animation, x, y);
+			if(width > 0 && height > 0)
+				animation.bake(width, height);
+			animationIds.put(animation.getName(), animationList.size());
+			animationList.add(animation);
 		}
-		catch (Exception e)
+	}
+	
+	private static void moveFrames(Animation animation, int x, int y)
+	{
+		IntRect rect = new IntRect();
+		for(int f = 0; f < animation.getFrameCount(); f++)
 		{
-			e.printStackTrace();
-			throw e;
+			animation.getFrameRect(f, rect);
+			animation.setFramePosition(f, rect.x + x, rect.y + y);
 		}
 	}
 	
@@ -233,7 +577,10 @@ public class Texture
 	 */
 	public void setFilter(int minFilter, int magFilter)
 	{
-		bind();
+		this.minFilter = minFilter;
+		this.magFilter = magFilter;
+		
+		bindForEditing();
 		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, minFilter);
 		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, magFilter);
 	}
@@ -244,7 +591,9 @@ public class Texture
 	 */
 	public void setWrap(int wrap)
 	{
-		bind();
+		this.wrap = wrap;
+		
+		bindForEditing();
 		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, wrap);
 		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, wrap);
 	}
@@ -257,21 +606,46 @@ public class Texture
 	 */
 	public void uploadImageData(int imageFormat, ByteBuffer data)
 	{
-		bind();
+		format = TextureFormat.fromGL(imageFormat);
+		
+		bindForEditing();
 		glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
 		glPixelStorei(GL_PACK_ALIGNMENT, 1);
 		
 		glTexImage2D(GL_TEXTURE_2D, 0, imageFormat, width, height, 0,
 				imageFormat, GL_UNSIGNED_BYTE, data);
+		updateMemory();
+	}
+	
+	private void applyParameters()
+	{
+		setWrap(wrap);
+		setFilter(minFilter, magFilter);
 	}
 	
 	/*
 	 * Render this current texture.
 	 * Must be called in the rendering loop after
-	 * choosing a shader to use
+	 * choosing a shader to use. Counts as drawing the texture, so the
+	 * TextureStreamer keeps it (and reloads it if it was streamed out)
 	 */
 	public void bind()
 	{
+		lastUsedFrame = TextureMemory.frame;
+		
+		// Drawn again after being streamed out, so load it back
+		if((droppedLevels > 0 || evicted) && !reloading)
+		{
+			reloading = true;
+			TextureMemory.requestReload(this);
+		}
+		
+		if(palette != null)
+		{
+			glActiveTexture(GL_TEXTURE0 + TextureFormat.PALETTE_UNIT);
+			glBindTexture(GL_TEXTURE_2D, palette.textureID);
+		}
+		
 		glActiveTexture(GL_TEXTURE0);
 		glBindTexture(GL_TEXTURE_2D, textureID);
 	}
@@ -282,12 +656,183 @@ public class Texture
 	}
 	
 	/*
-	 * Delete this texture upon closing the window with
-	 * OpenGL context
+	 * Bind the GL texture to change it. Unlike bind(), this doesn't
+	 * count as drawing it, so a streamed out texture isn't reloaded
+	 */
+	private void bindForEditing()
+	{
+		glActiveTexture(GL_TEXTURE0);
+		glBindTexture(GL_TEXTURE_2D, textureID);
+	}
+	
+	/*
+	 * Make the smaller mipmap levels from the uploaded image
+	 */
+	void generateMipmaps()
+	{
+		bindForEditing();
+		glGenerateMipmap(GL_TEXTURE_2D);
+		mipmapped = true;
+		updateMemory();
+	}
+	
+	/*
+	 * Delete this texture's GL texture. Does nothing for textures
+	 * sharing another's GL texture. Textures are usually deleted by
+	 * the ResourceManager once nothing uses them
 	 */
 	public void delete()
 	{
-		glDeleteTextures(0);
+		if(ownsID && !deleted && textureID != 0)
+			glDeleteTextures(textureID);
+		
+		// Copies share the palette of the texture they copy
+		if(palette != null && (ownsID || evicted))
+			palette.delete();
+		
+		deleted = true;
+		textureID = 0;
+		updateMemory();
+	}
+	
+	boolean isDeleted()
+	{
+		return deleted;
+	}
+	
+	/**
+	 * @return whether the TextureStreamer may shrink or evict this
+	 * texture: it owns its GL texture, is loaded, draws sprites and can
+	 * be loaded again from its path
+	 */
+	boolean isStreamable()
+	{
+		return path != null && ownsID && loaded && !reloading && !deleted
+				&& category == TextureMemory.SPRITE;
+	}
+	
+	int getLastUsedFrame()
+	{
+		return lastUsedFrame;
+	}
+	
+	/**
+	 * @return whether dropping the top mip level keeps the texture at
+	 * least minSize pixels wide and high
+	 */
+	boolean canDropLevel(int minSize)
+	{
+		return mipmapped && (width >> (droppedLevels + 1)) >= minSize
+				&& (height >> (droppedLevels + 1)) >= minSize;
+	}
+	
+	/*
+	 * Replace the GL texture with its next mip level, a quarter of the
+	 * memory. It's copied on the GPU with a framebuffer blit, so nothing
+	 * is read back. Texture coordinates stay the same since they're
+	 * normalized. Call on the GL thread, outside of a frame
+	 */
+	void dropLevel()
+	{
+		int levelWidth = Math.max(1, (width >> droppedLevels) >> 1);
+		int levelHeight = Math.max(1, (height >> droppedLevels) >> 1);
+		
+		int smaller = glGenTextures();
+		glBindTexture(GL_TEXTURE_2D, smaller);
+		glTexImage2D(GL_TEXTURE_2D, 0, TextureFormat.getInternalFormat(format), levelWidth, levelHeight, 0,
+				TextureFormat.getPixelFormat(format), TextureFormat.getPixelType(format), (ByteBuffer) null);
+		
+		int readBinding = glGetInteger(GL_READ_FRAMEBUFFER_BINDING);
+		int drawBinding = glGetInteger(GL_DRAW_FRAMEBUFFER_BINDING);
+		int read = glGenFramebuffers();
+		int draw = glGenFramebuffers();
+		
+		glBindFramebuffer(GL_READ_FRAMEBUFFER, read);
+		glFramebufferTexture2D(GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, textureID, 1);
+		glBindFramebuffer(GL_DRAW_FRAMEBUFFER, draw);
+		glFramebufferTexture2D(GL_DRAW_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, smaller, 0);
+		glBlitFramebuffer(0, 0, levelWidth, levelHeight, 0, 0, levelWidth, levelHeight,
+				GL_COLOR_BUFFER_BIT, GL_NEAREST);
+		
+		glBindFramebuffer(GL_READ_FRAMEBUFFER, readBinding);
+		glBindFramebuffer(GL_DRAW_FRAMEBUFFER, drawBinding);
+		glDeleteFramebuffers(read);
+		glDeleteFramebuffers(draw);
+		
+		glDeleteTextures(textureID);
+		textureID = smaller;
+		droppedLevels++;
+		
+		generateMipmaps();
+		applyParameters();
+		unbind();
+	}
+	
+	/*
+	 * Delete the GL texture and show the placeholder until the texture
+	 * is drawn again and reloaded
+	 */
+	void evict()
+	{
+		glDeleteTextures(textureID);
+		textureID = getPlaceholder().textureID;
+		ownsID = false;
+		evicted = true;
+		loaded = false;
+		updateMemory();
+	}
+	
+	/**
+	 * @return the number of mip levels the TextureStreamer dropped from
+	 * this texture, 0 at full size
+	 */
+	public int getDroppedLevels()
+	{
+		return droppedLevels;
+	}
+	
+	/**
+	 * Choose what the memory of this texture counts towards
+	 * 
+	 * @param category TextureMemory.SPRITE, FONT or RENDER_TARGET
+	 */
+	public void setCategory(int category)
+	{
+		TextureMemory.update(this, this.category, countedBytes, 0);
+		this.category = category;
+		TextureMemory.update(this, category, 0, countedBytes);
+	}
+	
+	public int getCategory()
+	{
+		return category;
+	}
+	
+	/**
+	 * @return the estimated GPU memory of this texture in bytes, counting
+	 * mipmaps. 0 if the GL texture belongs to another texture
+	 */
+	public long getMemorySize()
+	{
+		if(!ownsID || deleted)
+			return 0;
+		
+		long bytes = (long) Math.max(1, width >> droppedLevels) * Math.max(1, height >> droppedLevels)
+				* TextureFormat.getBytesPerPixel(format);
+		return mipmapped ? bytes * 4 / 3 : bytes;
+	}
+	
+	/*
+	 * Tell the TextureMemory about a change in the size of this texture
+	 */
+	private void updateMemory()
+	{
+		long bytes = getMemorySize();
+		if(bytes != countedBytes)
+		{
+			TextureMemory.update(this, category, countedBytes, bytes);
+			countedBytes = bytes;
+		}
 	}
 	
 	/**
@@ -305,10 +850,43 @@ public class Texture
 	 */
 	public Animation getAnimation(String p_name)
 	{
-		for(Animation a : animationList)
-			if(a.getName().equals(p_name))
-				return a;
-		return null;
+		return getAnimation(getAnimationId(p_name));
+	}
+	
+	/**
+	 * Resolve an animation name to its handle. Look names up once
+	 * (e.g. when loading) and use the handle afterwards
+	 * 
+	 * @return the handle, from 0 to getAnimationCount() - 1, or -1 if not found
+	 */
+	public int getAnimationId(String name)
+	{
+		Integer id = animationIds.get(name);
+		return id == null ? -1 : id;
+	}
+	
+	/**
+	 * Get animation by handle
+	 * @param id the handle from getAnimationId()
+	 * @return Animation object. Null for -1.
+	 */
+	public Animation getAnimation(int id)
+	{
+		return id < 0 ? null : animationList.get(id);
+	}
+	
+	public int getAnimationCount()
+	{
+		return animationList.size();
+	}
+	
+	/**
+	 * @return the resource path without the extension, or null if
+	 * this texture wasn't opened from a resource
+	 */
+	public String getPath()
+	{
+		return path;
 	}
 	
 	public int getWidth()
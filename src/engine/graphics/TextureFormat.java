@@ -0,0 +1,318 @@
+package engine.graphics;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.*;
+import static org.lwjgl.opengl.GL30.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.lwjgl.BufferUtils;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/*
+ * How a texture's pixels are stored on the GPU. Images are decoded to
+ * RGBA8, and an atlas can ask for a smaller format with a "format"
+ * field next to its "atlas" array:
+ *
+ *   rgba8     4 bytes per pixel, the default
+ *   rgba4     2 bytes, 4 bits per channel
+ *   rgb5_a1   2 bytes, 5 bits per color channel and 1 bit of alpha
+ *   r8        1 byte, only the alpha is kept. Drawn in the sprite
+ *             color, like font glyphs
+ *   indexed   1 byte, an index into a palette of up to 256 colors that
+ *             the sprite shader looks up. Not mipmapped or filtered,
+ *             since blending indices makes no sense, so it suits pixel art
+ *
+ * The AssetBaker converts images ahead of time (and with --compact picks
+ * the smallest format that loses nothing, see pick()); otherwise they're
+ * converted when they load.
+ */
+public class TextureFormat
+{
+	public static final int RGBA8 = 0;
+	public static final int RGB8 = 1;
+	public static final int RGBA4 = 2;
+	public static final int RGB5_A1 = 3;
+	public static final int R8 = 4;
+	public static final int INDEXED = 5;
+	public static final int COUNT = 6;
+
+	// How the sprite shader reads a format (its texture_format uniform)
+	public static final int SHADER_RGBA = 0;
+	public static final int SHADER_ALPHA = 1;
+	public static final int SHADER_INDEXED = 2;
+
+	// Colors in the palette of an indexed image, and the texture unit
+	// the palette is bound to
+	public static final int PALETTE_SIZE = 256;
+	public static final int PALETTE_UNIT = 1;
+
+	private static final String[] NAMES = { "rgba8", "rgb8", "rgba4", "rgb5_a1", "r8", "indexed" };
+
+	private static final int[] INTERNAL_FORMATS = { GL_RGBA8, GL_RGB8, GL_RGBA4, GL_RGB5_A1, GL_R8, GL_R8 };
+	private static final int[] PIXEL_FORMATS = { GL_RGBA, GL_RGB, GL_RGBA, GL_RGBA, GL_RED, GL_RED };
+	private static final int[] PIXEL_TYPES = { GL_UNSIGNED_BYTE, GL_UNSIGNED_BYTE, GL_UNSIGNED_SHORT_4_4_4_4,
+			GL_UNSIGNED_SHORT_5_5_5_1, GL_UNSIGNED_BYTE, GL_UNSIGNED_BYTE };
+	private static final int[] BYTES_PER_PIXEL = { 4, 3, 2, 2, 1, 1 };
+
+	/**
+	 * @return the format with a name (e.g. "rgba4"), or -1 if there's none
+	 */
+	public static int parse(String name)
+	{
+		for(int format = 0; format < COUNT; format++)
+			if(NAMES[format].equalsIgnoreCase(name))
+				return format;
+		return -1;
+	}
+
+	/**
+	 * Get the format an atlas asks for
+	 *
+	 * @param atlas the atlas JSON, or null
+	 * @return the format, RGBA8 if it doesn't ask for one
+	 */
+	public static int fromAtlas(JsonObject atlas)
+	{
+		JsonElement name = atlas == null ? null : atlas.get("format");
+		if(name == null)
+			return RGBA8;
+
+		int format = parse(name.getAsString());
+		if(format < 0)
+		{
+			System.err.println("Unknown texture format \"" + name.getAsString() + "\", using rgba8");
+			return RGBA8;
+		}
+		return format;
+	}
+
+	/**
+	 * @return the format of textures made with a GL pixel format, e.g. GL_RED
+	 */
+	public static int fromGL(int pixelFormat)
+	{
+		switch(pixelFormat)
+		{
+		case GL_RED:
+		case GL_ALPHA:
+			return R8;
+		case GL_RGB:
+			return RGB8;
+		default:
+			return RGBA8;
+		}
+	}
+
+	public static String getName(int format)
+	{
+		return NAMES[format];
+	}
+
+	public static int getInternalFormat(int format)
+	{
+		return INTERNAL_FORMATS[format];
+	}
+
+	public static int getPixelFormat(int format)
+	{
+		return PIXEL_FORMATS[format];
+	}
+
+	public static int getPixelType(int format)
+	{
+		return PIXEL_TYPES[format];
+	}
+
+	public static int getBytesPerPixel(int format)
+	{
+		return BYTES_PER_PIXEL[format];
+	}
+
+	/**
+	 * @return whether textures in the format can be mipmapped and
+	 * linearly filtered
+	 */
+	public static boolean isFilterable(int format)
+	{
+		return format != INDEXED;
+	}
+
+	public static int getShaderMode(int format)
+	{
+		switch(format)
+		{
+		case R8:
+			return SHADER_ALPHA;
+		case INDEXED:
+			return SHADER_INDEXED;
+		default:
+			return SHADER_RGBA;
+		}
+	}
+
+	/**
+	 * Convert RGBA8 pixels to a format. Indexed images are their indices
+	 * followed by the palette, PALETTE_SIZE RGBA8 colors (see getPalette()).
+	 * 16 bit pixels are in native byte order, as GL reads them
+	 *
+	 * @param rgba the pixels from its position, row by row
+	 * @return a new direct buffer, or null if the image has too many
+	 * colors to be indexed
+	 */
+	public static ByteBuffer convert(ByteBuffer rgba, int width, int height, int format)
+	{
+		return convert(rgba, width, height, format, ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * @param order the byte order of 16 bit pixels
+	 */
+	public static ByteBuffer convert(ByteBuffer rgba, int width, int height, int format, ByteOrder order)
+	{
+		int pixels = width * height;
+		int start = rgba.position();
+
+		if(format == INDEXED)
+			return index(rgba, pixels);
+
+		ByteBuffer out = BufferUtils.createByteBuffer(pixels * BYTES_PER_PIXEL[format]).order(order);
+		for(int i = 0; i < pixels; i++)
+		{
+			int r = rgba.get(start + i * 4) & 0xFF;
+			int g = rgba.get(start + i * 4 + 1) & 0xFF;
+			int b = rgba.get(start + i * 4 + 2) & 0xFF;
+			int a = rgba.get(start + i * 4 + 3) & 0xFF;
+
+			switch(format)
+			{
+			case RGB8:
+				out.put((byte) r).put((byte) g).put((byte) b);
+				break;
+			case RGBA4:
+				out.putShort((short) (to4(r) << 12 | to4(g) << 8 | to4(b) << 4 | to4(a)));
+				break;
+			case RGB5_A1:
+				out.putShort((short) (to5(r) << 11 | to5(g) << 6 | to5(b) << 1 | (a >= 128 ? 1 : 0)));
+				break;
+			case R8:
+				out.put((byte) a);
+				break;
+			default:
+				out.put((byte) r).put((byte) g).put((byte) b).put((byte) a);
+				break;
+			}
+		}
+		out.flip();
+		return out;
+	}
+
+	/**
+	 * Get the palette of indexed pixels from convert()
+	 */
+	public static ByteBuffer getPalette(ByteBuffer indexed, int width, int height)
+	{
+		ByteBuffer palette = indexed.duplicate();
+		palette.position(indexed.position() + width * height);
+		palette.limit(palette.position() + PALETTE_SIZE * 4);
+		return palette.slice();
+	}
+
+	/**
+	 * Pick the smallest format that keeps every pixel of an image as it
+	 * is. Transparent pixels match anything
+	 *
+	 * @param rgba RGBA8 pixels from its position
+	 */
+	public static int pick(ByteBuffer rgba, int width, int height)
+	{
+		int pixels = width * height;
+		int start = rgba.position();
+
+		boolean white = true;
+		boolean fits4 = true;
+		boolean fits5551 = true;
+		HashSet<Integer> colors = new HashSet<>();
+
+		for(int i = 0; i < pixels; i++)
+		{
+			int color = rgba.getInt(start + i * 4);
+			int r = rgba.get(start + i * 4) & 0xFF;
+			int g = rgba.get(start + i * 4 + 1) & 0xFF;
+			int b = rgba.get(start + i * 4 + 2) & 0xFF;
+			int a = rgba.get(start + i * 4 + 3) & 0xFF;
+
+			if(a == 0)
+			{
+				colors.add(0);
+				continue;
+			}
+
+			if(colors.size() <= PALETTE_SIZE)
+				colors.add(color);
+
+			white &= r == 255 && g == 255 && b == 255;
+			fits4 &= r % 17 == 0 && g % 17 == 0 && b % 17 == 0 && a % 17 == 0;
+			fits5551 &= a == 255 && r == from5(to5(r)) && g == from5(to5(g)) && b == from5(to5(b));
+		}
+
+		if(white)
+			return R8;
+		if(colors.size() <= PALETTE_SIZE)
+			return INDEXED;
+		if(fits5551)
+			return RGB5_A1;
+		if(fits4)
+			return RGBA4;
+		return RGBA8;
+	}
+
+	private static ByteBuffer index(ByteBuffer rgba, int pixels)
+	{
+		ByteBuffer out = BufferUtils.createByteBuffer(pixels + PALETTE_SIZE * 4);
+		HashMap<Integer, Integer> indices = new HashMap<>();
+
+		// Copy whole colors as ints, in the same byte order on both sides
+		int start = rgba.position();
+		rgba = rgba.duplicate().order(out.order());
+
+		for(int i = 0; i < pixels; i++)
+		{
+			// Every transparent pixel is the same color
+			int color = (rgba.get(start + i * 4 + 3) & 0xFF) == 0 ? 0 : rgba.getInt(start + i * 4);
+
+			Integer index = indices.get(color);
+			if(index == null)
+			{
+				if(indices.size() == PALETTE_SIZE)
+					return null;
+
+				index = indices.size();
+				indices.put(color, index);
+				out.putInt(pixels + index * 4, color);
+			}
+			out.put(i, (byte) (int) index);
+		}
+		return out;
+	}
+
+	private static int to4(int c)
+	{
+		return (c * 15 + 127) / 255;
+	}
+
+	private static int to5(int c)
+	{
+		return (c * 31 + 127) / 255;
+	}
+
+	private static int from5(int c)
+	{
+		return (c << 3) | (c >> 2);
+	}
+}
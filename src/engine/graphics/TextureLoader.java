@@ -0,0 +1,321 @@
+package engine.graphics;
+
+import static org.lwjgl.opengl.GL11.*;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import com.google.gson.JsonObject;
+
+import de.matthiasmann.twl.utils.PNGDecoder;
+import de.matthiasmann.twl.utils.PNGDecoder.Format;
+
+import engine.assets.AssetPack;
+import engine.graphics.graphicsUtil.VertexArray;
+import engine.util.ResourceManager;
+
+/*
+ * Loads textures without blocking the GL thread. load() hands back the
+ * Texture straight away, showing the placeholder (see
+ * Texture.getPlaceholder()). The image and atlas are decoded on a worker
+ * pool, and upload() moves the pixels to GL a strip of rows at a time
+ * under a time budget, so a big image is spread over several frames
+ * instead of making one of them hitch.
+ *
+ * Call upload() once per frame on the GL thread, before rendering.
+ */
+public class TextureLoader
+{
+	// Time upload() may take per frame by default, in nanoseconds
+	public static final long DEFAULT_BUDGET = 2_000_000;
+
+	// Most bytes sent to glTexSubImage2D at once
+	private static final int STRIP_BYTES = 256 * 1024;
+
+	/*
+	 * A texture on its way from the worker to GL
+	 */
+	private static class Job
+	{
+		final Texture texture;
+		final Consumer<Texture> onLoaded;
+
+		// Loading a streamed out texture again, its atlas is still there
+		boolean reload;
+
+		// Filled in by the worker
+		ByteBuffer pixels;
+		int width;
+		int height;
+		int format;
+		ArrayList<Animation> animations;
+		Exception error;
+
+		// Filled in by upload()
+		int textureID;
+		int row = -1;
+
+		Job(Texture texture, Consumer<Texture> onLoaded)
+		{
+			this.texture = texture;
+			this.onLoaded = onLoaded;
+		}
+	}
+
+	private final ExecutorService workers;
+	private final ConcurrentLinkedQueue<Job> decoded = new ConcurrentLinkedQueue<>();
+
+	// Upload in progress, only touched on the GL thread
+	private Job current;
+	private int pending = 0;
+
+	public TextureLoader()
+	{
+		this(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+	}
+
+	/**
+	 * @param threads the number of workers decoding images
+	 */
+	public TextureLoader(int threads)
+	{
+		workers = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "Texture loader");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Start loading a texture and its atlas. Call on the GL thread
+	 *
+	 * @param path the texture path without the extension
+	 * (e.g. resources/images/narry)
+	 * @return the texture, showing the placeholder until it's uploaded
+	 */
+	public Texture load(String path)
+	{
+		return load(path, null);
+	}
+
+	/**
+	 * @param onLoaded called on the GL thread once the texture is
+	 * uploaded, or null. Not called if loading fails
+	 */
+	public Texture load(String path, Consumer<Texture> onLoaded)
+	{
+		Job job = new Job(Texture.loading(path), onLoaded);
+		pending++;
+		workers.execute(() -> decode(job));
+		return job.texture;
+	}
+
+	/**
+	 * Load the image of a texture streamed out by the TextureStreamer
+	 * again, at full size. The texture keeps showing what it has until
+	 * then. Call on the GL thread
+	 */
+	void reload(Texture texture)
+	{
+		Job job = new Job(texture, null);
+		job.reload = true;
+		pending++;
+		workers.execute(() -> decode(job));
+	}
+
+	/**
+	 * Upload decoded textures to GL until the budget runs out. At least
+	 * one strip is uploaded per call so loading always moves on.
+	 * Call once per frame on the GL thread
+	 *
+	 * @param budget the time to spend in nanoseconds
+	 */
+	public void upload(long budget)
+	{
+		long end = System.nanoTime() + budget;
+
+		do
+		{
+			if(current == null)
+			{
+				current = decoded.poll();
+				if(current == null)
+					return;
+
+				if(current.error != null)
+				{
+					System.err.println("Could not load texture " + current.texture.getPath() + ": " + current.error);
+					current = null;
+					pending--;
+					continue;
+				}
+				begin(current);
+			}
+
+			if(uploadStrip(current))
+			{
+				finish(current);
+				current = null;
+				pending--;
+			}
+		}
+		while(System.nanoTime() < end);
+	}
+
+	/**
+	 * @return the number of textures still loading
+	 */
+	public int getPendingCount()
+	{
+		return pending;
+	}
+
+	/*
+	 * Stop the workers. Textures still loading keep the placeholder
+	 */
+	public void shutdown()
+	{
+		workers.shutdownNow();
+	}
+
+	/*
+	 * Decode the image and parse the atlas. Runs on a worker
+	 */
+	private void decode(Job job)
+	{
+		String path = job.texture.getPath();
+
+		try
+		{
+			AssetPack pack = ResourceManager.getPack();
+			if(pack != null && pack.has(path + ".png"))
+			{
+				AssetPack.Entry image = pack.getEntry(path + ".png");
+				job.width = image.width;
+				job.height = image.height;
+				job.format = image.format;
+				job.pixels = pack.get(path + ".png");
+				if(!job.reload)
+					job.animations = pack.getAnimations(path + ".json");
+			}
+			else
+			{
+				// Read the atlas first, it says what format the image is stored in
+				job.format = job.texture.getFormat();
+				if(!job.reload)
+				{
+					try(InputStream stream = getClass().getClassLoader().getResourceAsStream(path + ".json"))
+					{
+						if(stream != null)
+						{
+							JsonObject atlas = Texture.readAtlas(stream);
+							job.format = TextureFormat.fromAtlas(atlas);
+							job.animations = Texture.parseAtlas(atlas);
+						}
+					}
+				}
+
+				try(InputStream stream = getClass().getClassLoader().getResourceAsStream(path + ".png"))
+				{
+					if(stream == null)
+						throw new FileNotFoundException("Could not find image resource for \"" + path + ".png\"");
+
+					PNGDecoder decoder = new PNGDecoder(stream);
+					job.width = decoder.getWidth();
+					job.height = decoder.getHeight();
+					job.pixels = ByteBuffer.allocateDirect(job.width * job.height * VertexArray.BPF);
+					decoder.decode(job.pixels, job.width * VertexArray.BPF, Format.RGBA);
+					job.pixels.flip();
+				}
+
+				if(job.format != TextureFormat.RGBA8)
+				{
+					ByteBuffer converted = TextureFormat.convert(job.pixels, job.width, job.height, job.format);
+					if(converted == null)
+					{
+						System.err.println("Texture " + path + " has more than " + TextureFormat.PALETTE_SIZE
+								+ " colors to index, keeping it rgba8");
+						job.format = TextureFormat.RGBA8;
+					}
+					else
+						job.pixels = converted;
+				}
+			}
+		}
+		catch(Exception e)
+		{
+			job.error = e;
+		}
+
+		decoded.add(job);
+	}
+
+	/*
+	 * Make the GL texture without any pixels yet
+	 */
+	private static void begin(Job job)
+	{
+		job.textureID = glGenTextures();
+		glBindTexture(GL_TEXTURE_2D, job.textureID);
+		glTexImage2D(GL_TEXTURE_2D, 0, TextureFormat.getInternalFormat(job.format), job.width, job.height, 0,
+				TextureFormat.getPixelFormat(job.format), TextureFormat.getPixelType(job.format), (ByteBuffer) null);
+		job.row = 0;
+	}
+
+	/**
+	 * Upload the next rows of a texture
+	 *
+	 * @return whether every row is uploaded
+	 */
+	private static boolean uploadStrip(Job job)
+	{
+		int stride = job.width * TextureFormat.getBytesPerPixel(job.format);
+		int rows = Math.min(Math.max(1, STRIP_BYTES / stride), job.height - job.row);
+
+		ByteBuffer strip = job.pixels.duplicate();
+		strip.position(job.row * stride);
+		strip.limit((job.row + rows) * stride);
+
+		glBindTexture(GL_TEXTURE_2D, job.textureID);
+		glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+		glTexSubImage2D(GL_TEXTURE_2D, 0, 0, job.row, job.width, rows,
+				TextureFormat.getPixelFormat(job.format), TextureFormat.getPixelType(job.format), strip);
+
+		job.row += rows;
+		return job.row >= job.height;
+	}
+
+	private static void finish(Job job)
+	{
+		Texture texture = job.texture;
+		ByteBuffer pixels = job.pixels;
+		job.pixels = null;
+
+		// Deleted while it was loading
+		if(texture.isDeleted())
+		{
+			glDeleteTextures(job.textureID);
+			return;
+		}
+
+		if(job.reload)
+		{
+			texture.finishReloading(job.textureID);
+			return;
+		}
+
+		texture.finishLoading(job.textureID, job.width, job.height, job.format, job.animations);
+		if(job.format == TextureFormat.INDEXED)
+			texture.setPalette(TextureFormat.getPalette(pixels, job.width, job.height));
+		texture.setUpImage();
+
+		if(job.onLoaded != null)
+			job.onLoaded.accept(texture);
+	}
+}
@@ -0,0 +1,128 @@
+package engine.graphics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+
+/*
+ * Counts the GPU memory of every GL texture, by what it's used for.
+ * Textures report themselves whenever they allocate, shrink or delete
+ * their GL texture, so the totals are always current:
+ *
+ *   width x height x bytes per pixel, x 4/3 with mipmaps
+ *
+ * Textures sharing another's GL texture (atlas sheets, textures still
+ * loading) count nothing, their GL texture is counted once by its owner.
+ *
+ * Call everything on the GL thread.
+ */
+public class TextureMemory
+{
+	// Categories
+	public static final int SPRITE = 0;
+	public static final int FONT = 1;
+	public static final int RENDER_TARGET = 2;
+	public static final int CATEGORY_COUNT = 3;
+
+	private static final String[] NAMES = { "sprites", "fonts", "render targets" };
+
+	private static final long[] bytes = new long[CATEGORY_COUNT];
+	private static final int[] counts = new int[CATEGORY_COUNT];
+
+	// Textures owning a GL texture
+	private static final HashSet<Texture> textures = new HashSet<>();
+
+	// Streamed out textures drawn again, waiting to be reloaded
+	private static final ArrayList<Texture> reloads = new ArrayList<>();
+
+	// Frames finished, counted by the TextureStreamer
+	static int frame = 0;
+
+	/*
+	 * Move a texture's counted memory from one size to another
+	 */
+	static void update(Texture texture, int category, long oldBytes, long newBytes)
+	{
+		bytes[category] += newBytes - oldBytes;
+
+		if(oldBytes == 0 && newBytes > 0)
+		{
+			counts[category]++;
+			textures.add(texture);
+		}
+		else if(oldBytes > 0 && newBytes == 0)
+		{
+			counts[category]--;
+			textures.remove(texture);
+		}
+	}
+
+	static void requestReload(Texture texture)
+	{
+		reloads.add(texture);
+	}
+
+	/*
+	 * Take the textures waiting to be reloaded
+	 */
+	static void takeReloads(Collection<Texture> out)
+	{
+		out.addAll(reloads);
+		reloads.clear();
+	}
+
+	static Collection<Texture> getTextures()
+	{
+		return textures;
+	}
+
+	/**
+	 * @param category SPRITE, FONT or RENDER_TARGET
+	 * @return the estimated GPU memory of the category's textures in bytes
+	 */
+	public static long getUsage(int category)
+	{
+		return bytes[category];
+	}
+
+	/**
+	 * @return the estimated GPU memory of every texture in bytes
+	 */
+	public static long getTotalUsage()
+	{
+		long total = 0;
+		for(long b : bytes)
+			total += b;
+		return total;
+	}
+
+	/**
+	 * @return the number of GL textures in a category
+	 */
+	public static int getCount(int category)
+	{
+		return counts[category];
+	}
+
+	public static String getName(int category)
+	{
+		return NAMES[category];
+	}
+
+	/**
+	 * @return the number of frames the TextureStreamer has seen
+	 */
+	public static int getFrame()
+	{
+		return frame;
+	}
+
+	public static String getStats()
+	{
+		StringBuilder stats = new StringBuilder("Texture memory:");
+		for(int c = 0; c < CATEGORY_COUNT; c++)
+			stats.append(String.format(" %s %.1f MB (%d),", NAMES[c], bytes[c] / (1024.0 * 1024.0), counts[c]));
+		stats.append(String.format(" total %.1f MB", getTotalUsage() / (1024.0 * 1024.0)));
+		return stats.toString();
+	}
+}
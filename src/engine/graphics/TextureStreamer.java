@@ -0,0 +1,155 @@
+package engine.graphics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+
+/*
+ * Keeps texture memory (see TextureMemory) in a budget by streaming out
+ * sprite textures that haven't been drawn for a while. While the total
+ * is over the budget, the least recently drawn textures idle for at
+ * least getIdleFrames() frames are shrunk one mip level at a time, a
+ * quarter of their memory per step. Textures already at MIN_SIZE are
+ * evicted, showing the placeholder instead.
+ *
+ * A streamed out texture that's drawn again is reloaded at full size by
+ * the TextureLoader, so it stays blurry (or the placeholder) for the
+ * few frames that takes.
+ *
+ * Only textures loaded from a path can be streamed. Atlas pages, fonts
+ * and render targets are counted but never touched. This is separate
+ * from the ResourceManager's budget, which deletes textures nobody
+ * references; the streamer shrinks ones still in use.
+ *
+ * Call update() once per frame on the GL thread, after rendering.
+ */
+public class TextureStreamer
+{
+	// Small enough for integrated graphics
+	public static final long DEFAULT_BUDGET = 128L * 1024 * 1024;
+	public static final int DEFAULT_IDLE_FRAMES = 300;
+
+	// Textures aren't shrunk smaller than this, they're evicted instead
+	public static final int MIN_SIZE = 32;
+
+	private final TextureLoader loader;
+
+	private long budget = DEFAULT_BUDGET;
+	private int idleFrames = DEFAULT_IDLE_FRAMES;
+
+	private final ArrayList<Texture> reloads = new ArrayList<>();
+	private final ArrayList<Texture> candidates = new ArrayList<>();
+
+	private long dropped = 0;
+	private long evicted = 0;
+	private long reloaded = 0;
+
+	/**
+	 * @param loader loads streamed out textures back when they're drawn
+	 */
+	public TextureStreamer(TextureLoader loader)
+	{
+		this.loader = loader;
+	}
+
+	/*
+	 * Finish a frame: reload the streamed out textures drawn in it, and
+	 * stream out idle textures if the budget is exceeded
+	 */
+	public void update()
+	{
+		TextureMemory.frame++;
+
+		TextureMemory.takeReloads(reloads);
+		for(Texture texture : reloads)
+		{
+			if(!texture.isDeleted())
+			{
+				loader.reload(texture);
+				reloaded++;
+			}
+		}
+		reloads.clear();
+
+		long usage = TextureMemory.getTotalUsage();
+		if(usage <= budget)
+			return;
+
+		int idleSince = TextureMemory.frame - idleFrames;
+		for(Texture texture : TextureMemory.getTextures())
+			if(texture.isStreamable() && texture.getLastUsedFrame() <= idleSince)
+				candidates.add(texture);
+
+		candidates.sort(Comparator.comparingInt(Texture::getLastUsedFrame));
+
+		for(Texture texture : candidates)
+		{
+			if(usage <= budget)
+				break;
+
+			long before = texture.getMemorySize();
+			if(texture.canDropLevel(MIN_SIZE))
+			{
+				texture.dropLevel();
+				dropped++;
+			}
+			else
+			{
+				texture.evict();
+				evicted++;
+			}
+			usage -= before - texture.getMemorySize();
+		}
+		candidates.clear();
+	}
+
+	/**
+	 * @param bytes the most GPU memory textures should take
+	 */
+	public void setBudget(long bytes)
+	{
+		budget = bytes;
+	}
+
+	public long getBudget()
+	{
+		return budget;
+	}
+
+	/**
+	 * @param frames the number of frames a texture must go undrawn
+	 * before it's streamed out
+	 */
+	public void setIdleFrames(int frames)
+	{
+		idleFrames = frames;
+	}
+
+	public int getIdleFrames()
+	{
+		return idleFrames;
+	}
+
+	/**
+	 * @return the number of mip levels dropped from textures
+	 */
+	public long getDroppedCount()
+	{
+		return dropped;
+	}
+
+	/**
+	 * @return the number of textures evicted
+	 */
+	public long getEvictedCount()
+	{
+		return evicted;
+	}
+
+	/**
+	 * @return the number of streamed out textures reloaded
+	 */
+	public long getReloadedCount()
+	{
+		return reloaded;
+	}
+}
@@ -9,6 +9,7 @@ import org.lwjgl.opengl.GL;
 
 import engine.graphics.Shader;
 import engine.graphics.Texture;
+import engine.graphics.TextureMemory;
 import engine.graphics.Window;
 
 /*
@@ -47,6 +48,7 @@ public class Framebuffer
 
 		// Create the texture to draw on
 		fboTexture = new Texture(width, height);
+		fboTexture.setCategory(TextureMemory.RENDER_TARGET);
 		
 		// Attach the texture to this frame buffer
 		glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0,
@@ -56,7 +58,7 @@ public class Framebuffer
 		if(glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE)
 		{
 			glBindFramebuffer(GL_FRAMEBUFFER, 0);
-			glDeleteTextures(fboTexture.getID());
+			fboTexture.delete();
 			glDeleteFramebuffers(id);
 			throw new IllegalStateException("Incomplete frambuffer!");
 		} 	
@@ -0,0 +1,184 @@
+package engine.graphics.graphicsUtil;
+
+import java.nio.FloatBuffer;
+
+import org.joml.Matrix4f;
+
+/*
+ * Transforms many sprite quads at once and writes the finished
+ * vertices straight into a vertex buffer. Sprites are given as
+ * packed float arrays instead of Vertex objects so the whole batch
+ * is transformed in one tight loop with no per-vertex allocation.
+ */
+public class QuadKernel
+{
+	// Floats per sprite in each of the packed input arrays
+	public static final int SIZE_STRIDE = 2;   // w, h
+	public static final int AFFINE_STRIDE = 6; // m00, m01, m10, m11, m30, m31
+	public static final int ST_STRIDE = 4;     // s0, t0, s1, t1
+	public static final int COLOR_STRIDE = 4;  // r, g, b, a
+
+	// Floats written per sprite
+	public static final int QUAD_FLOATS = 4 * VertexArray.ELEMENT_COUNT;
+
+	// Number of sprites staged before they're copied into the buffer
+	private static final int CHUNK = 64;
+
+	private final float[] staging = new float[CHUNK * QUAD_FLOATS];
+
+	/**
+	 * Pack the 2D part of a transformation matrix into an affine array.
+	 * Only the xy rotation/scale and the xy translation are kept since
+	 * sprites always sit on the z = 0 plane.
+	 *
+	 * @param m the transformation matrix
+	 * @param dest the packed affine array
+	 * @param sprite the index of the sprite in the affine array
+	 */
+	public static void packAffine(Matrix4f m, float[] dest, int sprite)
+	{
+		int a = sprite * AFFINE_STRIDE;
+		dest[a]     = m.m00();
+		dest[a + 1] = m.m01();
+		dest[a + 2] = m.m10();
+		dest[a + 3] = m.m11();
+		dest[a + 4] = m.m30();
+		dest[a + 5] = m.m31();
+	}
+
+	/**
+	 * Transform sprites [first, first + count) and write them to the
+	 * buffer in the same layout as the array version. The sprites are
+	 * staged in small chunks so the buffer gets bulk puts.
+	 *
+	 * @param sizes the width and height of every sprite
+	 * @param affines the packed transform of every sprite (see packAffine)
+	 * @param st the texture coordinates of every sprite
+	 * @param colors the color of every sprite, or null for white
+	 * @param rotated the sprites stored rotated in the texture (see rotateST), or null if none are
+	 * @param out the vertex buffer to write to, starting at its position
+	 */
+	public void transform(int first, int count, float[] sizes, float[] affines, float[] st,
+			float[] colors, boolean[] rotated, FloatBuffer out)
+	{
+		if(out.remaining() < count * QUAD_FLOATS)
+			throw new IllegalArgumentException("Vertex buffer is too small for " + count + " quads!");
+
+		for(int done = 0; done < count; done += CHUNK)
+		{
+			int n = Math.min(CHUNK, count - done);
+			transform(first + done, n, sizes, affines, st, colors, staging, 0);
+
+			if(rotated != null)
+				for(int i = 0; i < n; i++)
+					if(rotated[first + done + i])
+						rotateST(staging, i * QUAD_FLOATS);
+
+			out.put(staging, 0, n * QUAD_FLOATS);
+		}
+	}
+
+	/**
+	 * Transform the corners of sprites [first, first + n) and write them
+	 * using the VertexArray layout (position, color, st). The corners are
+	 * written in the order (0, 0), (0, h), (w, h), (w, 0)
+	 *
+	 * @param sizes the width and height of every sprite
+	 * @param affines the packed transform of every sprite (see packAffine)
+	 * @param st the texture coordinates of every sprite
+	 * @param colors the color of every sprite, or null for white
+	 * @param out the array to write to
+	 * @param offset the index of out to start writing at
+	 */
+	public static void transform(int first, int n, float[] sizes, float[] affines,
+			float[] st, float[] colors, float[] out, int offset)
+	{
+		final float[] v = out;
+
+		for(int i = 0; i < n; i++)
+		{
+			int sprite = first + i;
+			int sz = sprite * SIZE_STRIDE;
+			int a = sprite * AFFINE_STRIDE;
+			int t = sprite * ST_STRIDE;
+			int o = offset + i * QUAD_FLOATS;
+
+			float w = sizes[sz];
+			float h = sizes[sz + 1];
+
+			float m00 = affines[a],     m01 = affines[a + 1];
+			float m10 = affines[a + 2], m11 = affines[a + 3];
+			float tx  = affines[a + 4], ty  = affines[a + 5];
+
+			// The corners only differ by the w and h columns of the matrix
+			float wx = m00 * w, wy = m01 * w;
+			float hx = m10 * h, hy = m11 * h;
+
+			float s0 = st[t], t0 = st[t + 1], s1 = st[t + 2], t1 = st[t + 3];
+
+			float r = 1.0f, g = 1.0f, b = 1.0f, al = 1.0f;
+			if(colors != null)
+			{
+				int c = sprite * COLOR_STRIDE;
+				r = colors[c]; g = colors[c + 1]; b = colors[c + 2]; al = colors[c + 3];
+			}
+
+			// (0, 0)
+			put(v, o, tx, ty, r, g, b, al, s0, t0);
+			// (0, h)
+			put(v, o + VertexArray.ELEMENT_COUNT, tx + hx, ty + hy, r, g, b, al, s0, t1);
+			// (w, h)
+			put(v, o + 2 * VertexArray.ELEMENT_COUNT, tx + wx + hx, ty + wy + hy, r, g, b, al, s1, t1);
+			// (w, 0)
+			put(v, o + 3 * VertexArray.ELEMENT_COUNT, tx + wx, ty + wy, r, g, b, al, s1, t0);
+		}
+	}
+
+	/**
+	 * Offset a packed transform by a local translation, e.g. to move a
+	 * trimmed sprite to where it sits in its untrimmed frame
+	 */
+	public static void translateAffine(float[] affines, int sprite, float x, float y)
+	{
+		int a = sprite * AFFINE_STRIDE;
+		affines[a + 4] += affines[a] * x + affines[a + 2] * y;
+		affines[a + 5] += affines[a + 1] * x + affines[a + 3] * y;
+	}
+	
+	/**
+	 * Remap the texture coordinates of a quad written by transform() for
+	 * a sprite stored rotated 90 degrees clockwise in the texture
+	 * 
+	 * @param v the array the quad was written to
+	 * @param offset the index of the quad's first vertex
+	 */
+	public static void rotateST(float[] v, int offset)
+	{
+		int s = offset + 7;
+		int e = VertexArray.ELEMENT_COUNT;
+		
+		// Corner st before: (s0, t0), (s0, t1), (s1, t1), (s1, t0)
+		float s0 = v[s], t0 = v[s + 1];
+		float s1 = v[s + 2 * e], t1 = v[s + 2 * e + 1];
+		
+		// The sprite's top-left is the region's top-right and so on
+		v[s]             = s1; v[s + 1]         = t0;
+		v[s + e]         = s0; v[s + e + 1]     = t0;
+		v[s + 2 * e]     = s0; v[s + 2 * e + 1] = t1;
+		v[s + 3 * e]     = s1; v[s + 3 * e + 1] = t1;
+	}
+	
+	private static void put(float[] v, int o, float x, float y,
+			float r, float g, float b, float a, float s, float t)
+	{
+		v[o]     = x;
+		v[o + 1] = y;
+		v[o + 2] = 0.0f;
+		v[o + 3] = r;
+		v[o + 4] = g;
+		v[o + 5] = b;
+		v[o + 6] = a;
+		v[o + 7] = s;
+		v[o + 8] = t;
+	}
+}
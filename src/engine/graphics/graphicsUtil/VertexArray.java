@@ -2,6 +2,7 @@ package engine.graphics.graphicsUtil;
 
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 
 import org.lwjgl.BufferUtils;
 
@@ -14,16 +15,23 @@ public class VertexArray
 {
     private FloatBuffer verticesBuffer;
     private ByteBuffer indicesBuffer;
+    
+    // Indices of every quad the vertex buffer can hold, uploaded once
+    private ShortBuffer quadIndicesBuffer;
 
     private int vaoID;
     private int vboID;
     private int vboiID;
+    private int quadVboiID;
     
     // Bytes per float
     public static final int BPF = 4;
 
     // Indices per quad
     private static final int INDICES = 6;
+    
+    // Short indices can't address more vertices than this
+    public static final int MAX_VERTICES = 65536;
 
     // Elements per parameter
     public static final int POSITION_ELEMENT_COUNT 	= 3;
@@ -67,8 +75,30 @@ public class VertexArray
      */
     public VertexArray(int size)
     {
-    	verticesBuffer = BufferUtils.createFloatBuffer(size * INDICES);
+    	if(size > MAX_VERTICES)
+    		throw new IllegalArgumentException("A vertex array can't hold more than " + MAX_VERTICES + " vertices!");
+    	
+    	verticesBuffer = BufferUtils.createFloatBuffer(size * ELEMENT_COUNT);
     	indicesBuffer = BufferUtils.createByteBuffer(size * INDICES);
+    	
+    	// Two triangles per quad, in the same order as Renderer.Batch.addQuad()
+    	int quads = size / 4;
+    	quadIndicesBuffer = BufferUtils.createShortBuffer(quads * INDICES);
+    	for(int q = 0; q < quads; q++)
+    	{
+    		short start = (short) (q * 4);
+    		quadIndicesBuffer.put(start).put((short) (start + 1)).put((short) (start + 2));
+    		quadIndicesBuffer.put((short) (start + 2)).put((short) (start + 3)).put(start);
+    	}
+    	quadIndicesBuffer.flip();
+    }
+    
+    /**
+     * @return the number of quads drawQuads() can draw at once
+     */
+    public int getMaxQuads()
+    {
+    	return quadIndicesBuffer.limit() / INDICES;
     }
     
     /**
@@ -125,6 +155,11 @@ public class VertexArray
     	vboiID = glGenBuffers();
         glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vboiID);
         glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_STATIC_DRAW);
+        
+        // The quad indices never change so they're only uploaded here
+        quadVboiID = glGenBuffers();
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, quadVboiID);
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, quadIndicesBuffer, GL_STATIC_DRAW);
 
         // Unbind everything since they're bound
     	glBindVertexArray(0);
@@ -168,6 +203,34 @@ public class VertexArray
     	glDrawElements(GL_TRIANGLES, indexCount, GL_UNSIGNED_BYTE, 0);
     }
     
+    /*
+     * Bind the vertex array object and vertex buffer like bind(), but
+     * use the prebuilt quad indices instead of the element buffer
+     */
+    public void bindQuads()
+    {
+    	glBindVertexArray(vaoID);
+    	
+    	glBindBuffer(GL_ARRAY_BUFFER, vboID);
+    	glBufferData(GL_ARRAY_BUFFER, verticesBuffer, GL_STATIC_DRAW);
+    	
+    	glEnableVertexAttribArray(POSITION_ATTRB);
+    	glEnableVertexAttribArray(COLOR_ATTRB);
+    	glEnableVertexAttribArray(ST_ATTRB);
+    	
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, quadVboiID);
+    }
+    
+    /**
+     * Draw quads written to the vertex buffer, after bindQuads()
+     * 
+     * @param quads the number of quads, at most getMaxQuads()
+     */
+    public void drawQuads(int quads)
+    {
+    	glDrawElements(GL_TRIANGLES, quads * INDICES, GL_UNSIGNED_SHORT, 0);
+    }
+    
     /*
      * Puts everything back to default and clears the buffers
      * for the next frame 
@@ -200,9 +263,10 @@ public class VertexArray
     	glBindBuffer(GL_ARRAY_BUFFER, 0);
     	glDeleteBuffers(vboID);
     	
-    	// Delete index VBO
+    	// Delete index VBOs
     	glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
     	glDeleteBuffers(vboiID);
+    	glDeleteBuffers(quadVboiID);
     	
     	// Fnally, delete the VAO
     	glBindVertexArray(0);
@@ -0,0 +1,93 @@
+package engine.spatial;
+
+import java.util.Arrays;
+
+/*
+ * Bounding boxes stored by id in flat arrays. Shared by the
+ * broad phase implementations so box data stays packed together
+ * instead of living in one object per entity.
+ */
+class Boxes
+{
+	float[] minX = new float[0];
+	float[] minY = new float[0];
+	float[] maxX = new float[0];
+	float[] maxY = new float[0];
+	boolean[] present = new boolean[0];
+	
+	int count;
+	
+	/*
+	 * Make room for an id. Arrays grow by doubling so this is 
+	 * only expensive the first time a large id is seen
+	 */
+	void ensure(int id)
+	{
+		if(id < 0)
+			throw new IllegalArgumentException("Box ids must not be negative!");
+		
+		if(id < present.length)
+			return;
+		
+		int capacity = Math.max(64, present.length);
+		while(capacity <= id)
+			capacity *= 2;
+		
+		minX = Arrays.copyOf(minX, capacity);
+		minY = Arrays.copyOf(minY, capacity);
+		maxX = Arrays.copyOf(maxX, capacity);
+		maxY = Arrays.copyOf(maxY, capacity);
+		present = Arrays.copyOf(present, capacity);
+	}
+	
+	void set(int id, float x, float y, float w, float h)
+	{
+		minX[id] = x;
+		minY[id] = y;
+		maxX[id] = x + w;
+		maxY[id] = y + h;
+		
+		if(!present[id])
+		{
+			present[id] = true;
+			count++;
+		}
+	}
+	
+	void remove(int id)
+	{
+		if(present[id])
+		{
+			present[id] = false;
+			count--;
+		}
+	}
+	
+	boolean contains(int id)
+	{
+		return id >= 0 && id < present.length && present[id];
+	}
+	
+	/*
+	 * Check if the box overlaps a region given by its corners
+	 */
+	boolean overlaps(int id, float x0, float y0, float x1, float y1)
+	{
+		return minX[id] <= x1 && maxX[id] >= x0 
+				&& minY[id] <= y1 && maxY[id] >= y0;
+	}
+	
+	/*
+	 * Check if two boxes overlap each other
+	 */
+	boolean overlaps(int a, int b)
+	{
+		return overlaps(a, minX[b], minY[b], maxX[b], maxY[b]);
+	}
+	
+	void clear()
+	{
+		Arrays.fill(present, false);
+		count = 0;
+	}
+}
@@ -0,0 +1,86 @@
+package engine.spatial;
+
+import engine.util.FloatRect;
+
+/*
+ * A spatial index over axis-aligned bounding boxes. Every box is keyed
+ * by an integer id (usually the entity id) so culling, collision and AI
+ * can all share one index instead of testing every pair of entities.
+ * 
+ * Boxes are only moved when update() is called for them, so callers
+ * should only update the entities whose transforms actually changed.
+ * Neither kind of query allocates memory. Don't change the index
+ * from inside a query callback.
+ */
+public interface BroadPhase
+{
+	/**
+	 * Insert a box or move it if it's already in the index
+	 * 
+	 * @param id the non-negative id of the box
+	 * @param x x-coordinate (top-left corner)
+	 * @param y y-coordinate (top-left corner)
+	 * @param w width
+	 * @param h height
+	 */
+	public void update(int id, float x, float y, float w, float h);
+	
+	/**
+	 * Remove a box from the index. Does nothing if it isn't in it.
+	 */
+	public void remove(int id);
+	
+	/**
+	 * @return whether a box with this id is in the index
+	 */
+	public boolean contains(int id);
+	
+	/**
+	 * Find every box that overlaps a region
+	 * 
+	 * @param x x-coordinate of the region (top-left corner)
+	 * @param y y-coordinate of the region (top-left corner)
+	 * @param w width of the region
+	 * @param h height of the region
+	 * @param callback called once for every overlapping box
+	 * @return the number of overlapping boxes
+	 */
+	public int query(float x, float y, float w, float h, QueryCallback callback);
+	
+	/**
+	 * Find every pair of overlapping boxes. Each pair is reported once.
+	 * 
+	 * @param callback called once for every overlapping pair
+	 * @return the number of overlapping pairs
+	 */
+	public int queryPairs(PairCallback callback);
+	
+	/**
+	 * Remove every box from the index
+	 */
+	public void clear();
+	
+	/**
+	 * Find every box that overlaps a rect
+	 */
+	public default int query(FloatRect region, QueryCallback callback)
+	{
+		return query(region.x, region.y, region.w, region.h, callback);
+	}
+	
+	/*
+	 * Called for every box found by a region query
+	 */
+	public interface QueryCallback
+	{
+		public void onHit(int id);
+	}
+	
+	/*
+	 * Called for every overlapping pair found by a pair query
+	 */
+	public interface PairCallback
+	{
+		public void onPair(int idA, int idB);
+	}
+}
@@ -0,0 +1,316 @@
+package engine.spatial;
+
+import java.util.Arrays;
+
+/*
+ * A loose quadtree broad phase. Every node's bounds are doubled so
+ * a box only has to fit by its center, which means a box is stored in
+ * exactly one node picked straight from its size and position without
+ * walking down the tree.
+ * 
+ * The nodes form a complete tree stored level by level in flat arrays,
+ * so nothing is allocated after construction unless new ids are seen.
+ * Works best when box sizes vary a lot (e.g. tiny projectiles and
+ * huge bosses in the same room).
+ */
+public class LooseQuadtree implements BroadPhase
+{
+	private static final int NONE = -1;
+	
+	// Square world bounds. Boxes centered outside of them live in the root
+	private final float originX, originY;
+	private final float size;
+	private final int maxDepth;
+	
+	// Index of the first node of each depth
+	private final int[] levelOffset;
+	
+	// Per node: first box in the node and number of boxes in the subtree
+	private final int[] head;
+	private final int[] subtreeCount;
+	
+	// Traversal stack of (depth, x, y) node coordinates
+	private final int[] stackDepth, stackX, stackY;
+	
+	private final Boxes boxes = new Boxes();
+	
+	// Per box: the node it's in and its neighbors in that node's list
+	private int[] node = new int[0];
+	private int[] next = new int[0];
+	private int[] prev = new int[0];
+	
+	/**
+	 * @param x x-coordinate of the world bounds (top-left corner)
+	 * @param y y-coordinate of the world bounds (top-left corner)
+	 * @param size the width and height of the world bounds
+	 * @param maxDepth the depth of the smallest nodes. The root is depth 0
+	 */
+	public LooseQuadtree(float x, float y, float size, int maxDepth)
+	{
+		if(size <= 0)
+			throw new IllegalArgumentException("World size must be positive!");
+		
+		if(maxDepth < 0 || maxDepth > 10)
+			throw new IllegalArgumentException("Quadtree depth must be between 0 and 10!");
+		
+		this.originX = x;
+		this.originY = y;
+		this.size = size;
+		this.maxDepth = maxDepth;
+		
+		levelOffset = new int[maxDepth + 2];
+		for(int d = 1; d <= maxDepth + 1; d++)
+			levelOffset[d] = levelOffset[d - 1] + (1 << (2 * (d - 1)));
+		
+		int nodeCount = levelOffset[maxDepth + 1];
+		head = new int[nodeCount];
+		subtreeCount = new int[nodeCount];
+		Arrays.fill(head, NONE);
+		
+		int stackSize = 3 * maxDepth + 1;
+		stackDepth = new int[stackSize];
+		stackX = new int[stackSize];
+		stackY = new int[stackSize];
+	}
+
+	@Override
+	public void update(int id, float x, float y, float w, float h)
+	{
+		ensure(id);
+		
+		int target = pickNode(x, y, w, h);
+		boolean present = boxes.present[id];
+		
+		boxes.set(id, x, y, w, h);
+		
+		if(present)
+		{
+			// Moved without leaving its node
+			if(node[id] == target)
+				return;
+			
+			unlink(id);
+		}
+		
+		link(id, target);
+	}
+
+	@Override
+	public void remove(int id)
+	{
+		if(!boxes.contains(id))
+			return;
+		
+		unlink(id);
+		boxes.remove(id);
+	}
+	
+	@Override
+	public boolean contains(int id)
+	{
+		return boxes.contains(id);
+	}
+
+	@Override
+	public int query(float x, float y, float w, float h, QueryCallback callback)
+	{
+		return visit(x, y, x + w, y + h, NONE, callback, null);
+	}
+
+	@Override
+	public int queryPairs(PairCallback callback)
+	{
+		int pairs = 0;
+		
+		for(int id = 0; id < node.length; id++)
+		{
+			if(!boxes.present[id])
+				continue;
+			
+			pairs += visit(boxes.minX[id], boxes.minY[id], 
+					boxes.maxX[id], boxes.maxY[id], id, null, callback);
+		}
+		
+		return pairs;
+	}
+
+	@Override
+	public void clear()
+	{
+		boxes.clear();
+		Arrays.fill(head, NONE);
+		Arrays.fill(subtreeCount, 0);
+		Arrays.fill(node, NONE);
+	}
+	
+	/**
+	 * @return the number of boxes in the index
+	 */
+	public int size()
+	{
+		return boxes.count;
+	}
+	
+	/*
+	 * Walk every node whose loose bounds overlap the region.
+	 * If self is a box id, pairs between self and higher ids are
+	 * reported instead of single hits
+	 */
+	private int visit(float x0, float y0, float x1, float y1, int self,
+			QueryCallback callback, PairCallback pairCallback)
+	{
+		int hits = 0;
+		
+		stackDepth[0] = 0;
+		stackX[0] = 0;
+		stackY[0] = 0;
+		int top = 1;
+		
+		while(top > 0)
+		{
+			top--;
+			int d = stackDepth[top];
+			int ix = stackX[top];
+			int iy = stackY[top];
+			int n = nodeIndex(d, ix, iy);
+			
+			if(subtreeCount[n] == 0)
+				continue;
+			
+			// The root also holds every box outside of the world bounds
+			if(d > 0)
+			{
+				float ns = size / (1 << d);
+				float nx = originX + ix * ns - ns * 0.5f;
+				float ny = originY + iy * ns - ns * 0.5f;
+				if(nx > x1 || nx + 2 * ns < x0 || ny > y1 || ny + 2 * ns < y0)
+					continue;
+			}
+			
+			for(int id = head[n]; id != NONE; id = next[id])
+			{
+				if(self != NONE)
+				{
+					if(id > self && boxes.overlaps(id, x0, y0, x1, y1))
+					{
+						hits++;
+						if(pairCallback != null)
+							pairCallback.onPair(self, id);
+					}
+				}
+				else if(boxes.overlaps(id, x0, y0, x1, y1))
+				{
+					hits++;
+					if(callback != null)
+						callback.onHit(id);
+				}
+			}
+			
+			if(d < maxDepth)
+			{
+				for(int c = 0; c < 4; c++)
+				{
+					stackDepth[top] = d + 1;
+					stackX[top] = ix * 2 + (c & 1);
+					stackY[top] = iy * 2 + (c >> 1);
+					top++;
+				}
+			}
+		}
+		
+		return hits;
+	}
+	
+	/*
+	 * Pick the deepest node that fits the box by its center
+	 */
+	private int pickNode(float x, float y, float w, float h)
+	{
+		float cx = x + w * 0.5f;
+		float cy = y + h * 0.5f;
+		
+		if(cx < originX || cy < originY || cx >= originX + size || cy >= originY + size)
+			return 0;
+		
+		float extent = Math.max(w, h);
+		int d = 0;
+		float ns = size;
+		
+		while(d < maxDepth && extent <= ns * 0.5f)
+		{
+			d++;
+			ns *= 0.5f;
+		}
+		
+		int side = 1 << d;
+		int ix = Math.min((int) ((cx - originX) / ns), side - 1);
+		int iy = Math.min((int) ((cy - originY) / ns), side - 1);
+		
+		return nodeIndex(d, ix, iy);
+	}
+	
+	private int nodeIndex(int d, int ix, int iy)
+	{
+		return levelOffset[d] + (iy << d) + ix;
+	}
+	
+	private void link(int id, int n)
+	{
+		node[id] = n;
+		prev[id] = NONE;
+		next[id] = head[n];
+		if(head[n] != NONE)
+			prev[head[n]] = id;
+		head[n] = id;
+		
+		addToSubtree(n, 1);
+	}
+	
+	private void unlink(int id)
+	{
+		int n = node[id];
+		
+		if(prev[id] != NONE)
+			next[prev[id]] = next[id];
+		else
+			head[n] = next[id];
+		
+		if(next[id] != NONE)
+			prev[next[id]] = prev[id];
+		
+		node[id] = NONE;
+		addToSubtree(n, -1);
+	}
+	
+	/*
+	 * Update the box count of a node and all of its ancestors
+	 */
+	private void addToSubtree(int n, int amount)
+	{
+		int d = 0;
+		while(d < maxDepth && levelOffset[d + 1] <= n)
+			d++;
+		
+		int local = n - levelOffset[d];
+		int ix = local & ((1 << d) - 1);
+		int iy = local >> d;
+		
+		for(; d >= 0; d--, ix >>= 1, iy >>= 1)
+			subtreeCount[nodeIndex(d, ix, iy)] += amount;
+	}
+	
+	private void ensure(int id)
+	{
+		boxes.ensure(id);
+		
+		int capacity = boxes.present.length;
+		if(node.length < capacity)
+		{
+			int old = node.length;
+			node = Arrays.copyOf(node, capacity);
+			next = Arrays.copyOf(next, capacity);
+			prev = Arrays.copyOf(prev, capacity);
+			Arrays.fill(node, old, capacity, NONE);
+		}
+	}
+}
@@ -0,0 +1,359 @@
+package engine.spatial;
+
+import java.util.Arrays;
+
+/*
+ * A uniform grid broad phase. The world is divided into square
+ * cells of the same size and every box is stored in each cell it
+ * touches. Only cells that have ever held a box take up memory, so
+ * the grid has no bounds.
+ * 
+ * Works best when most boxes are about the size of a cell or smaller
+ * (e.g. one or two tiles).
+ */
+public class SpatialHash implements BroadPhase
+{
+	private static final int EMPTY = -1;
+	
+	private final float cellSize;
+	private final float invCellSize;
+	
+	private final Boxes boxes = new Boxes();
+	
+	// Cell range of every box: x0, y0, x1, y1
+	private int[] ranges = new int[0];
+	
+	// Query stamps so boxes in several cells are only reported once
+	private int[] stamps = new int[0];
+	private int stamp = 0;
+	
+	// Open addressing table from cell coordinates to cell index
+	private long[] keys;
+	private int[] slots;
+	private int mask;
+	
+	// Cell storage
+	private int[] cellX = new int[16];
+	private int[] cellY = new int[16];
+	private int[][] items = new int[16][];
+	private int[] itemCount = new int[16];
+	private int cellCount = 0;
+	
+	/**
+	 * @param cellSize the width and height of one cell in world units
+	 */
+	public SpatialHash(float cellSize)
+	{
+		if(cellSize <= 0)
+			throw new IllegalArgumentException("Cell size must be positive!");
+		
+		this.cellSize = cellSize;
+		this.invCellSize = 1.0f / cellSize;
+		
+		keys = new long[64];
+		slots = new int[64];
+		mask = 63;
+		Arrays.fill(slots, EMPTY);
+	}
+	
+	public float getCellSize()
+	{
+		return cellSize;
+	}
+	
+	@Override
+	public void update(int id, float x, float y, float w, float h)
+	{
+		ensure(id);
+		
+		int x0 = toCell(x);
+		int y0 = toCell(y);
+		int x1 = toCell(x + w);
+		int y1 = toCell(y + h);
+		
+		int r = id * 4;
+		if(boxes.present[id])
+		{
+			// Still touching the same cells, only the box moves
+			if(ranges[r] == x0 && ranges[r + 1] == y0 
+					&& ranges[r + 2] == x1 && ranges[r + 3] == y1)
+			{
+				boxes.set(id, x, y, w, h);
+				return;
+			}
+			
+			removeFromCells(id);
+		}
+		
+		boxes.set(id, x, y, w, h);
+		ranges[r] = x0;
+		ranges[r + 1] = y0;
+		ranges[r + 2] = x1;
+		ranges[r + 3] = y1;
+		
+		for(int cy = y0; cy <= y1; cy++)
+			for(int cx = x0; cx <= x1; cx++)
+				addToCell(findCell(cx, cy, true), id);
+	}
+
+	@Override
+	public void remove(int id)
+	{
+		if(!boxes.contains(id))
+			return;
+		
+		removeFromCells(id);
+		boxes.remove(id);
+	}
+	
+	@Override
+	public boolean contains(int id)
+	{
+		return boxes.contains(id);
+	}
+
+	@Override
+	public int query(float x, float y, float w, float h, QueryCallback callback)
+	{
+		int x0 = toCell(x);
+		int y0 = toCell(y);
+		int x1 = toCell(x + w);
+		int y1 = toCell(y + h);
+		
+		int current = nextStamp();
+		int hits = 0;
+		
+		long area = (long) (x1 - x0 + 1) * (y1 - y0 + 1);
+		if(area > cellCount)
+		{
+			// Huge region, walk the cells that exist instead
+			for(int c = 0; c < cellCount; c++)
+				if(cellX[c] >= x0 && cellX[c] <= x1 && cellY[c] >= y0 && cellY[c] <= y1)
+					hits += queryCell(c, x, y, x + w, y + h, current, callback);
+			return hits;
+		}
+		
+		for(int cy = y0; cy <= y1; cy++)
+		{
+			for(int cx = x0; cx <= x1; cx++)
+			{
+				int c = findCell(cx, cy, false);
+				if(c != EMPTY)
+					hits += queryCell(c, x, y, x + w, y + h, current, callback);
+			}
+		}
+		
+		return hits;
+	}
+
+	@Override
+	public int queryPairs(PairCallback callback)
+	{
+		int pairs = 0;
+		
+		for(int c = 0; c < cellCount; c++)
+		{
+			int[] cell = items[c];
+			int n = itemCount[c];
+			
+			for(int i = 0; i < n; i++)
+			{
+				int a = cell[i];
+				for(int j = i + 1; j < n; j++)
+				{
+					int b = cell[j];
+					if(!boxes.overlaps(a, b))
+						continue;
+					
+					// Boxes sharing several cells are only reported by the
+					// cell holding the top-left corner of their overlap
+					float ox = Math.max(boxes.minX[a], boxes.minX[b]);
+					float oy = Math.max(boxes.minY[a], boxes.minY[b]);
+					if(toCell(ox) != cellX[c] || toCell(oy) != cellY[c])
+						continue;
+					
+					pairs++;
+					if(callback != null)
+						callback.onPair(a, b);
+				}
+			}
+		}
+		
+		return pairs;
+	}
+
+	@Override
+	public void clear()
+	{
+		boxes.clear();
+		Arrays.fill(slots, EMPTY);
+		for(int c = 0; c < cellCount; c++)
+			itemCount[c] = 0;
+		cellCount = 0;
+	}
+	
+	/**
+	 * @return the number of boxes in the index
+	 */
+	public int size()
+	{
+		return boxes.count;
+	}
+	
+	private int queryCell(int c, float x0, float y0, float x1, float y1, 
+			int current, QueryCallback callback)
+	{
+		int hits = 0;
+		int[] cell = items[c];
+		
+		for(int i = 0, n = itemCount[c]; i < n; i++)
+		{
+			int id = cell[i];
+			if(stamps[id] == current)
+				continue;
+			stamps[id] = current;
+			
+			if(boxes.overlaps(id, x0, y0, x1, y1))
+			{
+				hits++;
+				if(callback != null)
+					callback.onHit(id);
+			}
+		}
+		
+		return hits;
+	}
+	
+	private int toCell(float v)
+	{
+		return (int) Math.floor(v * invCellSize);
+	}
+	
+	private int nextStamp()
+	{
+		if(++stamp == Integer.MAX_VALUE)
+		{
+			Arrays.fill(stamps, 0);
+			stamp = 1;
+		}
+		return stamp;
+	}
+	
+	private void ensure(int id)
+	{
+		boxes.ensure(id);
+		
+		if(ranges.length < boxes.present.length * 4)
+		{
+			ranges = Arrays.copyOf(ranges, boxes.present.length * 4);
+			stamps = Arrays.copyOf(stamps, boxes.present.length);
+		}
+	}
+	
+	private void removeFromCells(int id)
+	{
+		int r = id * 4;
+		for(int cy = ranges[r + 1]; cy <= ranges[r + 3]; cy++)
+		{
+			for(int cx = ranges[r]; cx <= ranges[r + 2]; cx++)
+			{
+				int c = findCell(cx, cy, false);
+				if(c == EMPTY)
+					continue;
+				
+				// Swap remove, order inside a cell doesn't matter
+				int[] cell = items[c];
+				int n = itemCount[c];
+				for(int i = 0; i < n; i++)
+				{
+					if(cell[i] == id)
+					{
+						cell[i] = cell[n - 1];
+						itemCount[c] = n - 1;
+						break;
+					}
+				}
+			}
+		}
+	}
+	
+	private void addToCell(int c, int id)
+	{
+		int n = itemCount[c];
+		if(items[c] == null)
+			items[c] = new int[4];
+		else if(n == items[c].length)
+			items[c] = Arrays.copyOf(items[c], n * 2);
+		
+		items[c][n] = id;
+		itemCount[c] = n + 1;
+	}
+	
+	/*
+	 * Find the index of a cell from its coordinates
+	 * and optionally create it if it doesn't exist
+	 */
+	private int findCell(int cx, int cy, boolean create)
+	{
+		long key = ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+		int slot = hash(cx, cy) & mask;
+		
+		while(slots[slot] != EMPTY)
+		{
+			if(keys[slot] == key)
+				return slots[slot];
+			slot = (slot + 1) & mask;
+		}
+		
+		if(!create)
+			return EMPTY;
+		
+		if(cellCount == cellX.length)
+		{
+			int capacity = cellCount * 2;
+			cellX = Arrays.copyOf(cellX, capacity);
+			cellY = Arrays.copyOf(cellY, capacity);
+			items = Arrays.copyOf(items, capacity);
+			itemCount = Arrays.copyOf(itemCount, capacity);
+		}
+		
+		int c = cellCount++;
+		cellX[c] = cx;
+		cellY[c] = cy;
+		itemCount[c] = 0;
+		
+		keys[slot] = key;
+		slots[slot] = c;
+		
+		// Keep the table at most half full
+		if(cellCount * 2 > slots.length)
+			rehash();
+		
+		return c;
+	}
+	
+	private void rehash()
+	{
+		int capacity = slots.length * 2;
+		keys = new long[capacity];
+		slots = new int[capacity];
+		mask = capacity - 1;
+		Arrays.fill(slots, EMPTY);
+		
+		for(int c = 0; c < cellCount; c++)
+		{
+			int slot = hash(cellX[c], cellY[c]) & mask;
+			while(slots[slot] != EMPTY)
+				slot = (slot + 1) & mask;
+			
+			keys[slot] = ((long) cellX[c] << 32) | (cellY[c] & 0xFFFFFFFFL);
+			slots[slot] = c;
+		}
+	}
+	
+	private static int hash(int cx, int cy)
+	{
+		int h = cx * 73856093 ^ cy * 19349663;
+		return h ^ (h >>> 16);
+	}
+}
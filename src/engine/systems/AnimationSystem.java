@@ -0,0 +1,36 @@
+package engine.systems;
+
+import engine.components.World;
+import engine.graphics.AnimationClock;
+
+/*
+ * Advances the animation clock by one tick. Animations pick their
+ * frame from the clock when they're drawn, so nothing else has to
+ * run per entity.
+ */
+public class AnimationSystem extends EntitySystem
+{
+	private final AnimationClock clock;
+
+	public AnimationSystem()
+	{
+		this(AnimationClock.DEFAULT);
+	}
+
+	public AnimationSystem(AnimationClock clock)
+	{
+		this.clock = clock;
+		writes(AnimationClock.class);
+	}
+
+	@Override
+	public void update(World world, float dt)
+	{
+		clock.advance(dt);
+	}
+
+	public AnimationClock getClock()
+	{
+		return clock;
+	}
+}
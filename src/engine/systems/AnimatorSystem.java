@@ -0,0 +1,69 @@
+package engine.systems;
+
+import engine.components.AnimatorComponent;
+import engine.components.Archetype;
+import engine.components.Component;
+import engine.components.ComponentType;
+import engine.components.GraphicsComponent;
+import engine.components.Query;
+import engine.components.World;
+import engine.graphics.AnimationClock;
+import engine.graphics.AnimationEvents;
+
+/*
+ * Updates the animation controller of every entity that has an
+ * AnimatorComponent and a GraphicsComponent, and collects their frame
+ * events. Add it after the AnimationSystem so it sees this tick's time.
+ */
+public class AnimatorSystem extends EntitySystem
+{
+	private final int animatorType = ComponentType.of(AnimatorComponent.class);
+	private final int graphicsType = ComponentType.of(GraphicsComponent.class);
+
+	private final AnimationEvents events;
+
+	private World world;
+	private Query animated;
+
+	public AnimatorSystem()
+	{
+		this(new AnimationEvents());
+	}
+
+	public AnimatorSystem(AnimationEvents events)
+	{
+		this.events = events;
+
+		reads(AnimationClock.class);
+		writes(AnimatorComponent.class, GraphicsComponent.class, AnimationEvents.class);
+	}
+
+	@Override
+	public void update(World world, float dt)
+	{
+		if(this.world != world)
+		{
+			this.world = world;
+			animated = world.query(AnimatorComponent.class, GraphicsComponent.class);
+		}
+
+		for(int a = 0; a < animated.getArchetypeCount(); a++)
+		{
+			Archetype archetype = animated.getArchetype(a);
+			Component[] animators = archetype.getColumn(animatorType);
+			Component[] graphics = archetype.getColumn(graphicsType);
+
+			for(int i = 0; i < archetype.size(); i++)
+				((AnimatorComponent) animators[i]).update((GraphicsComponent) graphics[i],
+						events, archetype.getEntity(i).getId());
+		}
+	}
+
+	/**
+	 * @return the frame events fired so far
+	 */
+	public AnimationEvents getEvents()
+	{
+		return events;
+	}
+}
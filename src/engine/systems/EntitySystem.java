@@ -0,0 +1,78 @@
+package engine.systems;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import engine.components.World;
+
+/*
+ * Logic that runs once per tick over the world's entities.
+ * 
+ * Every system declares the types it reads and writes (usually
+ * Component classes, but any shared object like the Renderer works too).
+ * The SystemScheduler uses these to run systems that don't touch the
+ * same data at the same time on different threads, so a system must
+ * never touch anything it didn't declare.
+ */
+public abstract class EntitySystem
+{
+	private final Set<Class<?>> reads = new HashSet<>();
+	private final Set<Class<?>> writes = new HashSet<>();
+	
+	/**
+	 * Run this system for one tick
+	 * 
+	 * @param world the world to update
+	 * @param dt the length of the tick in seconds
+	 */
+	public abstract void update(World world, float dt);
+	
+	/*
+	 * Declare types this system only reads. Call from the constructor
+	 */
+	protected void reads(Class<?>... types)
+	{
+		Collections.addAll(reads, types);
+	}
+	
+	/*
+	 * Declare types this system writes. Call from the constructor
+	 */
+	protected void writes(Class<?>... types)
+	{
+		Collections.addAll(writes, types);
+	}
+	
+	public Set<Class<?>> getReads()
+	{
+		return Collections.unmodifiableSet(reads);
+	}
+	
+	public Set<Class<?>> getWrites()
+	{
+		return Collections.unmodifiableSet(writes);
+	}
+	
+	/**
+	 * Two systems conflict if either one writes something the other
+	 * reads or writes. Conflicting systems never run at the same time
+	 */
+	public boolean conflictsWith(EntitySystem other)
+	{
+		for(Class<?> type : writes)
+			if(other.reads.contains(type) || other.writes.contains(type))
+				return true;
+		
+		for(Class<?> type : other.writes)
+			if(reads.contains(type))
+				return true;
+		
+		return false;
+	}
+	
+	public String getName()
+	{
+		return getClass().getSimpleName();
+	}
+}
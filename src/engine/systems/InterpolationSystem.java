@@ -0,0 +1,68 @@
+package engine.systems;
+
+import engine.components.Archetype;
+import engine.components.Component;
+import engine.components.ComponentType;
+import engine.components.Query;
+import engine.components.TransformComponent;
+import engine.components.World;
+
+/*
+ * Saves every transform's state at the start of a tick so rendering
+ * can interpolate between the previous and the current tick.
+ * Add it before any system that moves things.
+ */
+public class InterpolationSystem extends EntitySystem
+{
+	private final int transformType = ComponentType.of(TransformComponent.class);
+	
+	private World world;
+	private Query transformQuery;
+	
+	public InterpolationSystem()
+	{
+		writes(TransformComponent.class);
+	}
+	
+	@Override
+	public void update(World world, float dt)
+	{
+		Query query = getQuery(world);
+		for(int a = 0; a < query.getArchetypeCount(); a++)
+		{
+			Archetype archetype = query.getArchetype(a);
+			Component[] transforms = archetype.getColumn(transformType);
+			
+			for(int i = 0; i < archetype.size(); i++)
+				((TransformComponent) transforms[i]).savePrevious();
+		}
+	}
+	
+	/**
+	 * Build the local matrix of every transform for rendering
+	 * 
+	 * @param alpha how far the frame is between the previous and current tick
+	 */
+	public void interpolate(World world, float alpha)
+	{
+		Query query = getQuery(world);
+		for(int a = 0; a < query.getArchetypeCount(); a++)
+		{
+			Archetype archetype = query.getArchetype(a);
+			Component[] transforms = archetype.getColumn(transformType);
+			
+			for(int i = 0; i < archetype.size(); i++)
+				((TransformComponent) transforms[i]).interpolate(alpha);
+		}
+	}
+	
+	private Query getQuery(World world)
+	{
+		if(this.world != world)
+		{
+			this.world = world;
+			transformQuery = world.query(TransformComponent.class);
+		}
+		return transformQuery;
+	}
+}
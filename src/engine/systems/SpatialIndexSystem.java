@@ -0,0 +1,94 @@
+package engine.systems;
+
+import org.joml.Vector2f;
+
+import engine.components.ChangeTracker;
+import engine.components.Entity;
+import engine.components.GraphicsComponent;
+import engine.components.TransformComponent;
+import engine.components.World;
+import engine.graphics.Animation;
+import engine.spatial.BroadPhase;
+
+/*
+ * Keeps a broad phase up to date with the bounding boxes of entities.
+ * Only entities whose TransformComponent or GraphicsComponent changed 
+ * last tick are moved, so a mostly static room costs next to nothing.
+ * 
+ * Boxes come from the local position and scale of the transform and
+ * the size of the current animation frame (a point if there's none).
+ * Boxes are keyed by entity index.
+ */
+public class SpatialIndexSystem extends EntitySystem
+{
+	private final BroadPhase broadPhase;
+	
+	public SpatialIndexSystem(BroadPhase broadPhase)
+	{
+		this.broadPhase = broadPhase;
+		
+		reads(TransformComponent.class, GraphicsComponent.class);
+		writes(BroadPhase.class);
+	}
+	
+	public BroadPhase getBroadPhase()
+	{
+		return broadPhase;
+	}
+	
+	@Override
+	public void update(World world, float dt)
+	{
+		ChangeTracker transforms = world.getChanges(TransformComponent.class);
+		ChangeTracker graphics = world.getChanges(GraphicsComponent.class);
+		
+		// Removals first so an entity that lost and got back a component stays in
+		removeAll(world, transforms);
+		removeAll(world, graphics);
+		
+		updateAll(world, transforms);
+		updateAll(world, graphics);
+	}
+	
+	private void removeAll(World world, ChangeTracker changes)
+	{
+		for(int i = 0; i < changes.getRemovedCount(); i++)
+		{
+			Entity entity = changes.getRemoved(i);
+			if(!world.isAlive(entity) || !world.has(entity, TransformComponent.class))
+				broadPhase.remove(entity.getIndex());
+		}
+	}
+	
+	private void updateAll(World world, ChangeTracker changes)
+	{
+		for(int i = 0; i < changes.getChangedCount(); i++)
+		{
+			Entity entity = changes.getChanged(i);
+			if(!world.isAlive(entity))
+				continue;
+			
+			TransformComponent transform = world.get(entity, TransformComponent.class);
+			if(transform == null)
+				continue;
+			
+			Vector2f position = transform.getPosition();
+			Vector2f scale = transform.getScale();
+			
+			float w = 0, h = 0;
+			GraphicsComponent graphic = world.get(entity, GraphicsComponent.class);
+			if(graphic != null && graphic.getAnimation() != null)
+			{
+				Animation animation = graphic.getAnimation();
+				w = animation.getWidth() * scale.x;
+				h = animation.getHeight() * scale.y;
+			}
+			
+			// Flipped sprites extend the other way
+			float x = Math.min(position.x, position.x + w);
+			float y = Math.min(position.y, position.y + h);
+			
+			broadPhase.update(entity.getIndex(), x, y, Math.abs(w), Math.abs(h));
+		}
+	}
+}
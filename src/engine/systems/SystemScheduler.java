@@ -0,0 +1,250 @@
+package engine.systems;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import engine.components.World;
+
+/*
+ * Runs every system once per tick. Systems that conflict (see
+ * EntitySystem.conflictsWith) run in the order they were added, and
+ * everything else runs at the same time on a work-stealing pool.
+ * The world's change trackers are swapped at the start of every tick
+ * and its command buffer is played back once every system is done.
+ * 
+ * Keeps the time every system took so slow ones are easy to find.
+ */
+public class SystemScheduler
+{
+	// Weight of the newest sample in the average timings
+	private static final double AVERAGE_WEIGHT = 0.05;
+	
+	private final ForkJoinPool pool;
+	private final ArrayList<Node> nodes = new ArrayList<>();
+	private boolean graphDirty = false;
+	
+	private final AtomicReference<Throwable> error = new AtomicReference<>();
+	private CountDownLatch done;
+	private World world;
+	private float dt;
+	
+	/*
+	 * A system and the systems waiting on it
+	 */
+	private class Node implements Runnable
+	{
+		final EntitySystem system;
+		final ArrayList<Node> dependents = new ArrayList<>();
+		int dependencyCount;
+		final AtomicInteger pending = new AtomicInteger();
+		
+		long lastNanos;
+		double averageNanos;
+		
+		Node(EntitySystem system)
+		{
+			this.system = system;
+		}
+		
+		@Override
+		public void run()
+		{
+			long start = System.nanoTime();
+			try
+			{
+				system.update(world, dt);
+			}
+			catch(Throwable t)
+			{
+				error.compareAndSet(null, t);
+			}
+			record(System.nanoTime() - start);
+			
+			// Start every dependent this was the last dependency of
+			for(Node dependent : dependents)
+				if(dependent.pending.decrementAndGet() == 0)
+					pool.execute(dependent);
+			
+			done.countDown();
+		}
+		
+		void record(long nanos)
+		{
+			lastNanos = nanos;
+			averageNanos = averageNanos == 0 ? nanos 
+					: averageNanos + (nanos - averageNanos) * AVERAGE_WEIGHT;
+		}
+	}
+	
+	/*
+	 * Schedule systems on the common fork join pool
+	 */
+	public SystemScheduler()
+	{
+		this(ForkJoinPool.commonPool());
+	}
+	
+	public SystemScheduler(ForkJoinPool pool)
+	{
+		this.pool = pool;
+	}
+	
+	/**
+	 * Add a system. It runs after every already added 
+	 * system it conflicts with
+	 */
+	public void add(EntitySystem system)
+	{
+		nodes.add(new Node(system));
+		graphDirty = true;
+	}
+	
+	public void remove(EntitySystem system)
+	{
+		Node node = find(system);
+		if(node != null)
+		{
+			nodes.remove(node);
+			graphDirty = true;
+		}
+	}
+	
+	/**
+	 * Run every system for one tick and wait for all of them to finish
+	 * 
+	 * @param world the world to update
+	 * @param dt the length of the tick in seconds
+	 */
+	public void update(World world, float dt)
+	{
+		if(graphDirty)
+			buildGraph();
+		
+		// Systems see everything that changed since the last tick
+		world.swapChanges();
+		
+		if(nodes.isEmpty())
+		{
+			world.getCommands().playback();
+			return;
+		}
+		
+		this.world = world;
+		this.dt = dt;
+		
+		if(pool.getParallelism() == 1 || nodes.size() == 1)
+		{
+			// Nothing to gain from threads, just run them in order
+			for(Node node : nodes)
+			{
+				long start = System.nanoTime();
+				node.system.update(world, dt);
+				node.record(System.nanoTime() - start);
+			}
+			world.getCommands().playback();
+			return;
+		}
+		
+		done = new CountDownLatch(nodes.size());
+		for(Node node : nodes)
+			node.pending.set(node.dependencyCount);
+		
+		for(Node node : nodes)
+			if(node.dependencyCount == 0)
+				pool.execute(node);
+		
+		try
+		{
+			done.await();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for systems!", e);
+		}
+		
+		Throwable t = error.getAndSet(null);
+		if(t != null)
+			throw new RuntimeException("A system failed during the tick", t);
+		
+		// Sync point: structural changes recorded by systems happen now
+		world.getCommands().playback();
+	}
+	
+	/**
+	 * @return the time the system took last tick in nanoseconds
+	 */
+	public long getLastNanos(EntitySystem system)
+	{
+		Node node = find(system);
+		return node == null ? 0 : node.lastNanos;
+	}
+	
+	/**
+	 * @return the average time the system takes per tick in nanoseconds
+	 */
+	public double getAverageNanos(EntitySystem system)
+	{
+		Node node = find(system);
+		return node == null ? 0 : node.averageNanos;
+	}
+	
+	/**
+	 * @return one line per system with its last and average times
+	 */
+	public String getTimings()
+	{
+		StringBuilder result = new StringBuilder();
+		for(Node node : nodes)
+		{
+			result.append(String.format("%-24s %8.3f ms (avg %8.3f ms)%n", node.system.getName(),
+					node.lastNanos * 1e-6, node.averageNanos * 1e-6));
+		}
+		return result.toString();
+	}
+	
+	public void printTimings()
+	{
+		System.out.print(getTimings());
+	}
+	
+	/*
+	 * Every system depends on each system added before it
+	 * that it conflicts with
+	 */
+	private void buildGraph()
+	{
+		for(Node node : nodes)
+		{
+			node.dependents.clear();
+			node.dependencyCount = 0;
+		}
+		
+		for(int j = 0; j < nodes.size(); j++)
+		{
+			Node later = nodes.get(j);
+			for(int i = 0; i < j; i++)
+			{
+				Node earlier = nodes.get(i);
+				if(earlier.system.conflictsWith(later.system))
+				{
+					earlier.dependents.add(later);
+					later.dependencyCount++;
+				}
+			}
+		}
+		
+		graphDirty = false;
+	}
+	
+	private Node find(EntitySystem system)
+	{
+		for(Node node : nodes)
+			if(node.system == system)
+				return node;
+		return null;
+	}
+}
@@ -0,0 +1,82 @@
+package engine.tween;
+
+/*
+ * Easing curves for tweens. Curves are plain int ids so tweens can
+ * store them in an int array.
+ */
+public final class Easing
+{
+	public static final int LINEAR = 0;
+	public static final int QUAD_IN = 1;
+	public static final int QUAD_OUT = 2;
+	public static final int QUAD_IN_OUT = 3;
+	public static final int CUBIC_IN = 4;
+	public static final int CUBIC_OUT = 5;
+	public static final int CUBIC_IN_OUT = 6;
+	public static final int SINE_IN = 7;
+	public static final int SINE_OUT = 8;
+	public static final int SINE_IN_OUT = 9;
+	public static final int BACK_IN = 10;
+	public static final int BACK_OUT = 11;
+	public static final int ELASTIC_OUT = 12;
+	public static final int BOUNCE_OUT = 13;
+
+	public static final int COUNT = 14;
+
+	private static final float BACK = 1.70158f;
+
+	private Easing() {}
+
+	/**
+	 * @param easing the curve
+	 * @param t the progress from 0.0f to 1.0f
+	 * @return the eased progress. 0.0f at the start and 1.0f at the end,
+	 * but may overshoot in between (back, elastic)
+	 */
+	public static float apply(int easing, float t)
+	{
+		switch(easing)
+		{
+		case QUAD_IN:      return t * t;
+		case QUAD_OUT:     return t * (2.0f - t);
+		case QUAD_IN_OUT:  return t < 0.5f ? 2.0f * t * t : -1.0f + (4.0f - 2.0f * t) * t;
+		case CUBIC_IN:     return t * t * t;
+		case CUBIC_OUT:    { float u = t - 1.0f; return u * u * u + 1.0f; }
+		case CUBIC_IN_OUT: return t < 0.5f ? 4.0f * t * t * t : (t - 1.0f) * (2.0f * t - 2.0f) * (2.0f * t - 2.0f) + 1.0f;
+		case SINE_IN:      return 1.0f - (float) Math.cos(t * Math.PI * 0.5);
+		case SINE_OUT:     return (float) Math.sin(t * Math.PI * 0.5);
+		case SINE_IN_OUT:  return 0.5f * (1.0f - (float) Math.cos(t * Math.PI));
+		case BACK_IN:      return t * t * ((BACK + 1.0f) * t - BACK);
+		case BACK_OUT:     { float u = t - 1.0f; return u * u * ((BACK + 1.0f) * u + BACK) + 1.0f; }
+		case ELASTIC_OUT:  return elasticOut(t);
+		case BOUNCE_OUT:   return bounceOut(t);
+		default:           return t;
+		}
+	}
+
+	private static float elasticOut(float t)
+	{
+		if(t <= 0.0f || t >= 1.0f)
+			return t <= 0.0f ? 0.0f : 1.0f;
+
+		return (float) (Math.pow(2.0, -10.0 * t) * Math.sin((t - 0.075) * (2.0 * Math.PI) / 0.3) + 1.0);
+	}
+
+	private static float bounceOut(float t)
+	{
+		if(t < 1.0f / 2.75f)
+			return 7.5625f * t * t;
+		if(t < 2.0f / 2.75f)
+		{
+			t -= 1.5f / 2.75f;
+			return 7.5625f * t * t + 0.75f;
+		}
+		if(t < 2.5f / 2.75f)
+		{
+			t -= 2.25f / 2.75f;
+			return 7.5625f * t * t + 0.9375f;
+		}
+		t -= 2.625f / 2.75f;
+		return 7.5625f * t * t + 0.984375f;
+	}
+}
@@ -0,0 +1,604 @@
+package engine.tween;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import engine.components.Component;
+import engine.components.Entity;
+import engine.components.GraphicsComponent;
+import engine.components.TransformComponent;
+import engine.components.World;
+import engine.graphics.graphicsUtil.Color;
+import engine.systems.EntitySystem;
+
+/*
+ * Animates the position, rotation and scale of TransformComponents and
+ * the color of GraphicsComponents towards a target value with an
+ * easing curve.
+ *
+ * Tweens aren't objects: every tween is a slot in a set of primitive
+ * arrays, and update() steps all of them in one pass. A tween is only
+ * an int id, so starting, chaining and finishing tweens doesn't make
+ * any garbage once the arrays are big enough:
+ *
+ *     int id = tweens.scale(entity, 1.5f, 1.5f, 0.2f, Easing.BACK_OUT);
+ *     tweens.setRepeat(id, 1, true);
+ *
+ * Finished tweens are collected into one batch per tick. Read it after
+ * the tick with getCompletedCount() and friends, or add a
+ * CompletionListener to be told once per tick.
+ *
+ * When a tween starts (after its delay), it replaces the running tween
+ * of the same property of the same entity, so a delayed tween can
+ * follow another one. Tweens of destroyed entities are cancelled on
+ * the next update.
+ */
+public class TweenSystem extends EntitySystem
+{
+	public static final int POSITION = 0;
+	public static final int ROTATION = 1;
+	public static final int SCALE = 2;
+	public static final int COLOR = 3;
+
+	/*
+	 * The id of no tween. Never returned by the start methods
+	 */
+	public static final int NONE = -1;
+
+	/*
+	 * Repeat count of tweens that repeat until cancelled
+	 */
+	public static final int FOREVER = -1;
+
+	public static final int DEFAULT_CAPACITY = 256;
+
+	/*
+	 * Told once per tick when tweens finish. The finished tweens are
+	 * read from the TweenSystem with getCompletedId(i) etc.
+	 */
+	public interface CompletionListener
+	{
+		public void completed(TweenSystem tweens, int count);
+	}
+
+	// Ids are a slot index and the generation of the slot, so ids of
+	// finished tweens never cancel the tween reusing their slot
+	private static final int SLOT_BITS = 20;
+	private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+	private static final int GENERATION_MASK = (1 << (31 - SLOT_BITS)) - 1;
+
+	private static final int VALUES = 4;
+
+	private static final int STARTED = 1;
+	private static final int YOYO = 2;
+	private static final int REVERSED = 4;
+	private static final int REPLACED = 8;
+
+	// Slots, one entry per tween
+	private Entity[] entities;
+	private int[] handles;
+	private Component[] targets;
+	private int[] properties;
+	private int[] easings;
+	private float[] from;
+	private float[] to;
+	private float[] durations;
+	private float[] elapsed;
+	private float[] delays;
+	private int[] repeats;
+	private int[] flags;
+	private int[] tags;
+	private int[] generations;
+
+	// Slot of every running tween, and where each slot is in that list
+	private int[] active;
+	private int[] positions;
+	private int activeCount = 0;
+
+	private int[] freeSlots;
+	private int freeCount = 0;
+	private int slotCount = 0;
+
+	// Tweens finished during the last update
+	private int[] completedIds;
+	private Entity[] completedEntities;
+	private int[] completedTags;
+	private int completedCount = 0;
+
+	private final ArrayList<CompletionListener> listeners = new ArrayList<>();
+
+	public TweenSystem()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity the number of tweens that can run at once before
+	 * the arrays have to grow
+	 */
+	public TweenSystem(int capacity)
+	{
+		allocate(Math.max(capacity, 1));
+
+		writes(TransformComponent.class, GraphicsComponent.class);
+	}
+
+	/**
+	 * Move an entity's transform to a position
+	 *
+	 * @param duration how long the tween takes in seconds
+	 * @param easing the curve, one of the Easing constants
+	 * @return the id of the tween
+	 */
+	public int position(Entity entity, float x, float y, float duration, int easing)
+	{
+		return start(entity, POSITION, x, y, 0, 0, duration, easing);
+	}
+
+	/**
+	 * Turn an entity's transform to a rotation in radians
+	 *
+	 * @return the id of the tween
+	 */
+	public int rotation(Entity entity, float rotation, float duration, int easing)
+	{
+		return start(entity, ROTATION, rotation, 0, 0, 0, duration, easing);
+	}
+
+	/**
+	 * Scale an entity's transform
+	 *
+	 * @return the id of the tween
+	 */
+	public int scale(Entity entity, float x, float y, float duration, int easing)
+	{
+		return start(entity, SCALE, x, y, 0, 0, duration, easing);
+	}
+
+	/**
+	 * Fade an entity's graphics to a color, with RGBA values
+	 * ranging from 0.0f--1.0f
+	 *
+	 * @return the id of the tween
+	 */
+	public int color(Entity entity, float r, float g, float b, float a, float duration, int easing)
+	{
+		return start(entity, COLOR, r, g, b, a, duration, easing);
+	}
+
+	public int color(Entity entity, Color color, float duration, int easing)
+	{
+		return start(entity, COLOR, color.r, color.g, color.b, color.a, duration, easing);
+	}
+
+	/**
+	 * Start a tween of any property
+	 *
+	 * @param property POSITION, ROTATION, SCALE or COLOR
+	 * @return the id of the tween
+	 */
+	public int start(Entity entity, int property, float v0, float v1, float v2, float v3,
+			float duration, int easing)
+	{
+		if(property < POSITION || property > COLOR)
+			throw new IllegalArgumentException("Unknown tween property " + property);
+
+		int slot = freeCount > 0 ? freeSlots[--freeCount] : slotCount++;
+		if(slot >= entities.length)
+			allocate(entities.length * 2);
+
+		entities[slot] = entity;
+		handles[slot] = entity.getId();
+		targets[slot] = null;
+		properties[slot] = property;
+		easings[slot] = easing;
+		durations[slot] = Math.max(duration, 0);
+		elapsed[slot] = 0;
+		delays[slot] = 0;
+		repeats[slot] = 0;
+		flags[slot] = 0;
+		tags[slot] = 0;
+
+		int v = slot * VALUES;
+		to[v] = v0;
+		to[v + 1] = v1;
+		to[v + 2] = v2;
+		to[v + 3] = v3;
+
+		positions[slot] = activeCount;
+		active[activeCount++] = slot;
+
+		return (generations[slot] << SLOT_BITS) | slot;
+	}
+
+	/**
+	 * Wait before starting a tween. The start value is read when
+	 * the delay is over
+	 *
+	 * @param delay the wait in seconds
+	 */
+	public void setDelay(int id, float delay)
+	{
+		if(isActive(id))
+			delays[id & SLOT_MASK] = delay;
+	}
+
+	/**
+	 * Play a tween more than once
+	 *
+	 * @param count how many more times to play it, or FOREVER
+	 * @param yoyo whether every other repeat plays backwards
+	 */
+	public void setRepeat(int id, int count, boolean yoyo)
+	{
+		if(!isActive(id))
+			return;
+
+		int slot = id & SLOT_MASK;
+		repeats[slot] = count;
+		flags[slot] = yoyo ? flags[slot] | YOYO : flags[slot] & ~YOYO;
+	}
+
+	/*
+	 * Tag a tween with any int, given back when the tween finishes
+	 */
+	public void setTag(int id, int tag)
+	{
+		if(isActive(id))
+			tags[id & SLOT_MASK] = tag;
+	}
+
+	/**
+	 * @return whether the tween is still running
+	 */
+	public boolean isActive(int id)
+	{
+		if(id < 0)
+			return false;
+
+		int slot = id & SLOT_MASK;
+		return slot < slotCount && positions[slot] >= 0 && (flags[slot] & REPLACED) == 0
+				&& generations[slot] == id >>> SLOT_BITS;
+	}
+
+	/**
+	 * Stop a tween where it is. Cancelled tweens don't complete
+	 *
+	 * @return false if the tween wasn't running
+	 */
+	public boolean cancel(int id)
+	{
+		if(!isActive(id))
+			return false;
+
+		free(id & SLOT_MASK);
+		return true;
+	}
+
+	/*
+	 * Stop the tweens of one property of an entity
+	 */
+	public void cancel(Entity entity, int property)
+	{
+		int handle = entity.getId();
+		for(int i = activeCount - 1; i >= 0; i--)
+			if(handles[active[i]] == handle && properties[active[i]] == property)
+				free(active[i]);
+	}
+
+	/*
+	 * Stop every tween of an entity
+	 */
+	public void cancelAll(Entity entity)
+	{
+		int handle = entity.getId();
+		for(int i = activeCount - 1; i >= 0; i--)
+			if(handles[active[i]] == handle)
+				free(active[i]);
+	}
+
+	/*
+	 * Stop every tween
+	 */
+	public void clear()
+	{
+		for(int i = activeCount - 1; i >= 0; i--)
+			free(active[i]);
+		completedCount = 0;
+	}
+
+	@Override
+	public void update(World world, float dt)
+	{
+		completedCount = 0;
+
+		// Backwards so finished tweens can be swapped out of the list
+		for(int i = activeCount - 1; i >= 0; i--)
+		{
+			int slot = active[i];
+
+			if((flags[slot] & REPLACED) != 0 || !world.isAlive(entities[slot]))
+			{
+				free(slot);
+				continue;
+			}
+
+			float step = dt;
+			if(delays[slot] > 0)
+			{
+				delays[slot] -= step;
+				if(delays[slot] > 0)
+					continue;
+				step = -delays[slot];
+				delays[slot] = 0;
+			}
+
+			if((flags[slot] & STARTED) == 0 && !begin(world, slot))
+			{
+				free(slot);
+				continue;
+			}
+
+			if(step(slot, step))
+				complete(slot);
+		}
+
+		if(completedCount > 0)
+			for(int l = 0; l < listeners.size(); l++)
+				listeners.get(l).completed(this, completedCount);
+	}
+
+	public void addListener(CompletionListener listener)
+	{
+		listeners.add(listener);
+	}
+
+	public void removeListener(CompletionListener listener)
+	{
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @return the number of tweens that finished during the last update
+	 */
+	public int getCompletedCount()
+	{
+		return completedCount;
+	}
+
+	/**
+	 * @param i from 0 to getCompletedCount() - 1
+	 * @return the id of a tween that finished during the last update
+	 */
+	public int getCompletedId(int i)
+	{
+		return completedIds[i];
+	}
+
+	public Entity getCompletedEntity(int i)
+	{
+		return completedEntities[i];
+	}
+
+	public int getCompletedTag(int i)
+	{
+		return completedTags[i];
+	}
+
+	/**
+	 * @return the number of running tweens
+	 */
+	public int getActiveCount()
+	{
+		return activeCount;
+	}
+
+	/**
+	 * @return the number of tweens that can run before the arrays grow
+	 */
+	public int getCapacity()
+	{
+		return entities.length;
+	}
+
+	/*
+	 * Find the component a tween animates and read its start value
+	 */
+	private boolean begin(World world, int slot)
+	{
+		Component target = properties[slot] == COLOR
+				? world.get(entities[slot], GraphicsComponent.class)
+				: world.get(entities[slot], TransformComponent.class);
+
+		if(target == null)
+			return false;
+
+		targets[slot] = target;
+		flags[slot] |= STARTED;
+
+		// Tweens already stepped this tick are freed next tick, but this
+		// one writes after them so its value wins
+		for(int i = 0; i < activeCount; i++)
+		{
+			int other = active[i];
+			if(other != slot && handles[other] == handles[slot] && properties[other] == properties[slot]
+					&& (flags[other] & STARTED) != 0)
+				flags[other] |= REPLACED;
+		}
+
+		int v = slot * VALUES;
+		switch(properties[slot])
+		{
+		case POSITION:
+			from[v] = ((TransformComponent) target).getPosition().x;
+			from[v + 1] = ((TransformComponent) target).getPosition().y;
+			break;
+		case ROTATION:
+			from[v] = ((TransformComponent) target).getRotation();
+			break;
+		case SCALE:
+			from[v] = ((TransformComponent) target).getScale().x;
+			from[v + 1] = ((TransformComponent) target).getScale().y;
+			break;
+		case COLOR:
+			Color color = ((GraphicsComponent) target).getColor();
+			from[v] = color.r;
+			from[v + 1] = color.g;
+			from[v + 2] = color.b;
+			from[v + 3] = color.a;
+			break;
+		}
+		return true;
+	}
+
+	/**
+	 * Advance a tween and write its value to its component
+	 *
+	 * @return whether the tween is finished
+	 */
+	private boolean step(int slot, float dt)
+	{
+		float duration = durations[slot];
+		float time = elapsed[slot] + dt;
+		boolean finished = false;
+
+		while(time >= duration)
+		{
+			if(repeats[slot] == 0)
+			{
+				time = duration;
+				finished = true;
+				break;
+			}
+
+			if(repeats[slot] > 0)
+				repeats[slot]--;
+			if((flags[slot] & YOYO) != 0)
+				flags[slot] ^= REVERSED;
+
+			// A zero length tween that repeats forever would never stop
+			if(duration <= 0)
+			{
+				time = 0;
+				break;
+			}
+			time -= duration;
+		}
+		elapsed[slot] = time;
+
+		float t = duration > 0 ? time / duration : 1.0f;
+		if((flags[slot] & REVERSED) != 0)
+			t = 1.0f - t;
+		float e = Easing.apply(easings[slot], t);
+
+		int v = slot * VALUES;
+		float v0 = from[v] + (to[v] - from[v]) * e;
+		float v1 = from[v + 1] + (to[v + 1] - from[v + 1]) * e;
+
+		switch(properties[slot])
+		{
+		case POSITION:
+			((TransformComponent) targets[slot]).setPosition(v0, v1);
+			break;
+		case ROTATION:
+			((TransformComponent) targets[slot]).setRotation(v0);
+			break;
+		case SCALE:
+			((TransformComponent) targets[slot]).setScale(v0, v1);
+			break;
+		case COLOR:
+			((GraphicsComponent) targets[slot]).setColor(v0, v1,
+					from[v + 2] + (to[v + 2] - from[v + 2]) * e,
+					from[v + 3] + (to[v + 3] - from[v + 3]) * e);
+			break;
+		}
+		return finished;
+	}
+
+	private void complete(int slot)
+	{
+		if(completedCount == completedIds.length)
+		{
+			completedIds = Arrays.copyOf(completedIds, completedCount * 2);
+			completedEntities = Arrays.copyOf(completedEntities, completedCount * 2);
+			completedTags = Arrays.copyOf(completedTags, completedCount * 2);
+		}
+
+		completedIds[completedCount] = (generations[slot] << SLOT_BITS) | slot;
+		completedEntities[completedCount] = entities[slot];
+		completedTags[completedCount] = tags[slot];
+		completedCount++;
+
+		free(slot);
+	}
+
+	/*
+	 * Take a tween out of the active list and make its slot reusable
+	 */
+	private void free(int slot)
+	{
+		int position = positions[slot];
+		int last = active[--activeCount];
+		active[position] = last;
+		positions[last] = position;
+		positions[slot] = -1;
+
+		generations[slot] = (generations[slot] + 1) & GENERATION_MASK;
+		entities[slot] = null;
+		targets[slot] = null;
+		handles[slot] = 0;
+		freeSlots[freeCount++] = slot;
+	}
+
+	private void allocate(int capacity)
+	{
+		int old = entities == null ? 0 : entities.length;
+		if(capacity > SLOT_MASK + 1)
+			throw new IllegalStateException("Too many tweens: " + capacity);
+
+		if(old == 0)
+		{
+			entities = new Entity[capacity];
+			handles = new int[capacity];
+			targets = new Component[capacity];
+			properties = new int[capacity];
+			easings = new int[capacity];
+			from = new float[capacity * VALUES];
+			to = new float[capacity * VALUES];
+			durations = new float[capacity];
+			elapsed = new float[capacity];
+			delays = new float[capacity];
+			repeats = new int[capacity];
+			flags = new int[capacity];
+			tags = new int[capacity];
+			generations = new int[capacity];
+			active = new int[capacity];
+			positions = new int[capacity];
+			freeSlots = new int[capacity];
+			completedIds = new int[capacity];
+			completedEntities = new Entity[capacity];
+			completedTags = new int[capacity];
+		}
+		else
+		{
+			entities = Arrays.copyOf(entities, capacity);
+			handles = Arrays.copyOf(handles, capacity);
+			targets = Arrays.copyOf(targets, capacity);
+			properties = Arrays.copyOf(properties, capacity);
+			easings = Arrays.copyOf(easings, capacity);
+			from = Arrays.copyOf(from, capacity * VALUES);
+			to = Arrays.copyOf(to, capacity * VALUES);
+			durations = Arrays.copyOf(durations, capacity);
+			elapsed = Arrays.copyOf(elapsed, capacity);
+			delays = Arrays.copyOf(delays, capacity);
+			repeats = Arrays.copyOf(repeats, capacity);
+			flags = Arrays.copyOf(flags, capacity);
+			tags = Arrays.copyOf(tags, capacity);
+			generations = Arrays.copyOf(generations, capacity);
+			active = Arrays.copyOf(active, capacity);
+			positions = Arrays.copyOf(positions, capacity);
+			freeSlots = Arrays.copyOf(freeSlots, capacity);
+		}
+		Arrays.fill(positions, old, capacity, -1);
+	}
+}
@@ -4,23 +4,447 @@ import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL20.*;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 
+import engine.assets.AssetPack;
+import engine.graphics.AnimationController;
+import engine.graphics.Font;
+import engine.graphics.Texture;
+import engine.graphics.TextureLoader;
 import engine.graphics.graphicsUtil.VertexArray;
 
+/*
+ * Loads textures, fonts and shaders once per path and shares them.
+ * 
+ * Every load takes a reference and every release gives one back.
+ * Resources nobody references stay cached in least recently used
+ * order, so loading them again is free, until the GPU memory of the
+ * cache goes over the budget. Then the least recently used unreferenced
+ * resources are deleted until it fits again. Referenced resources are
+ * never deleted, even over the budget.
+ * 
+ * Call everything on the GL thread.
+ */
 public class ResourceManager
 {
-	public static void loadTexture(String path)
+	public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+	
+	/*
+	 * A cached resource and the number of references to it
+	 */
+	private static class Entry
+	{
+		final String key;
+		final Object resource;
+		int references = 0;
+		
+		Entry(String key, Object resource)
+		{
+			this.key = key;
+			this.resource = resource;
+		}
+		
+		long getMemorySize()
+		{
+			if(resource instanceof Texture)
+				return ((Texture) resource).getMemorySize();
+			if(resource instanceof Font)
+				return ((Font) resource).getMemorySize();
+			return 0;
+		}
+		
+		void delete()
+		{
+			if(resource instanceof Texture)
+				((Texture) resource).delete();
+			else if(resource instanceof Font)
+				((Font) resource).delete();
+			else if(resource instanceof Integer)
+				glDeleteProgram((Integer) resource);
+		}
+	}
+	
+	private static final HashMap<String, Entry> cache = new HashMap<>();
+	
+	// Entries replaced by addTexture() while still referenced, by resource.
+	// Deleted once their last reference is given back
+	private static final IdentityHashMap<Object, Entry> replaced = new IdentityHashMap<>();
+	
+	// Unreferenced entries, least recently used first
+	private static final LinkedHashMap<String, Entry> unused = new LinkedHashMap<>(16, 0.75f, true);
+	
+	private static final HashMap<String, AnimationController> controllers = new HashMap<>();
+	
+	private static long memoryBudget = DEFAULT_MEMORY_BUDGET;
+	
+	private static long hits = 0;
+	private static long misses = 0;
+	private static long evictions = 0;
+	
+	private static TextureLoader textureLoader;
+	
+	// Baked assets to load from before the resources folder, or null
+	private static AssetPack pack;
+	
+	/**
+	 * Load textures, fonts and shaders from a baked asset pack (see
+	 * AssetBaker) when it has them. Call before loading anything
+	 * 
+	 * @param path the pack file
+	 * @return false if there's no usable pack at the path
+	 */
+	public static boolean openPack(Path path)
+	{
+		if(!Files.exists(path))
+			return false;
+		
+		try
+		{
+			pack = AssetPack.open(path);
+			System.out.println("Opened asset pack " + path);
+			return true;
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * @return the asset pack, or null if none is open
+	 */
+	public static AssetPack getPack()
+	{
+		return pack;
+	}
+	
+	/**
+	 * Load a texture and its atlas, or get it if it was already loaded.
+	 * Takes a reference, give it back with release()
+	 * 
+	 * @param path the texture path without the extension
+	 * (e.g. resources/images/narry)
+	 */
+	public static Texture loadTexture(String path)
+	{
+		Entry entry = acquire("texture:" + path);
+		if(entry == null)
+			entry = add("texture:" + path, new Texture(path));
+		return (Texture) entry.resource;
+	}
+	
+	/**
+	 * Load a texture and its atlas without blocking, or get it if it was
+	 * already loaded. The texture shows a placeholder until it's uploaded
+	 * (see TextureLoader). Takes a reference, give it back with release()
+	 */
+	public static Texture loadTextureAsync(String path)
+	{
+		Entry entry = acquire("texture:" + path);
+		if(entry == null)
+			entry = add("texture:" + path, getTextureLoader().load(path));
+		return (Texture) entry.resource;
+	}
+	
+	/**
+	 * @return the loader behind loadTextureAsync(). Call its upload()
+	 * once per frame
+	 */
+	public static TextureLoader getTextureLoader()
+	{
+		if(textureLoader == null)
+			textureLoader = new TextureLoader();
+		return textureLoader;
+	}
+	
+	/**
+	 * Use a texture for a path from now on, e.g. a sheet packed into an
+	 * atlas page. The caller holds the first reference. Textures already
+	 * handed out for the path aren't changed, and are deleted once
+	 * their references are given back
+	 */
+	public static void addTexture(String path, Texture texture)
+	{
+		Entry old = cache.get("texture:" + path);
+		if(old != null)
+		{
+			if(old.references == 0)
+				remove(old);
+			else
+			{
+				cache.remove(old.key);
+				replaced.put(old.resource, old);
+			}
+		}
+		
+		add("texture:" + path, texture);
+	}
+	
+	/**
+	 * Take another reference to a texture from loadTexture(), e.g. to
+	 * keep it loaded after whoever loaded it gives theirs back. Does
+	 * nothing for textures the ResourceManager doesn't share
+	 */
+	public static void retain(Texture texture)
+	{
+		Entry entry = find("texture:" + texture.getPath(), texture);
+		if(entry != null && entry.references++ == 0)
+			unused.remove(entry.key);
+	}
+	
+	/**
+	 * Give back a reference to a texture from loadTexture()
+	 */
+	public static void release(Texture texture)
+	{
+		release("texture:" + texture.getPath(), texture);
+	}
+	
+	/**
+	 * Load a font, or get it if it was already loaded. Takes a
+	 * reference, give it back with release()
+	 * 
+	 * @param path the .ttf file (e.g. Font.ALEGREYA_SANS)
+	 */
+	public static Font loadFont(String path)
+	{
+		Entry entry = acquire("font:" + path);
+		if(entry == null)
+			entry = add("font:" + path, new Font(path));
+		return (Font) entry.resource;
+	}
+	
+	public static void release(Font font)
+	{
+		release("font:" + font.getPath(), font);
+	}
+	
+	/**
+	 * Load an animation controller for a texture, or get it if it was
+	 * already loaded. Controllers stay loaded and keep a reference to
+	 * their texture
+	 * 
+	 * @param path the controller path without the extension
+	 * (e.g. resources/images/narry.controller)
+	 */
+	public static AnimationController loadAnimationController(String path, Texture texture)
 	{
-		// TODO: fill in this stubby stub
+		AnimationController controller = controllers.get(path);
+		if(controller == null)
+		{
+			controller = new AnimationController(path, texture);
+			controllers.put(path, controller);
+			retain(texture);
+		}
+		return controller;
 	}
 	
 	/**
-	 * Load a shader from a file
+	 * Load a shader program, or get it if the same files were already
+	 * loaded. Takes a reference, give it back with releaseShader()
 	 * 
 	 * @param vert the vertex shader file path
 	 * @param frag the fragment shader file path
+	 * @return the shader program
 	 */
 	public static int loadShader(String vertPath, String fragPath)
+	{
+		String key = "shader:" + vertPath + "|" + fragPath;
+		Entry entry = acquire(key);
+		if(entry == null)
+			entry = add(key, compileProgram(vertPath, fragPath));
+		return (Integer) entry.resource;
+	}
+	
+	public static void releaseShader(String vertPath, String fragPath)
+	{
+		Entry entry = cache.get("shader:" + vertPath + "|" + fragPath);
+		if(entry != null)
+			release(entry.key, entry.resource);
+	}
+	
+	/**
+	 * Set the most GPU memory unreferenced resources may keep cached.
+	 * Least recently used ones are deleted right away if it's over
+	 * 
+	 * @param bytes the budget for the whole cache, referenced or not
+	 */
+	public static void setMemoryBudget(long bytes)
+	{
+		memoryBudget = bytes;
+		evict();
+	}
+	
+	public static long getMemoryBudget()
+	{
+		return memoryBudget;
+	}
+	
+	/**
+	 * @return the estimated GPU memory of every cached resource in bytes
+	 */
+	public static long getMemoryUsage()
+	{
+		long bytes = 0;
+		for(Entry entry : cache.values())
+			bytes += entry.getMemorySize();
+		for(Entry entry : replaced.values())
+			bytes += entry.getMemorySize();
+		return bytes;
+	}
+	
+	/*
+	 * Delete every resource nobody references
+	 */
+	public static void evictUnused()
+	{
+		while(!unused.isEmpty())
+			evict(unused.values().iterator().next());
+	}
+	
+	/**
+	 * @return the number of loads that found the resource cached
+	 */
+	public static long getHitCount()
+	{
+		return hits;
+	}
+	
+	/**
+	 * @return the number of loads that had to load the resource
+	 */
+	public static long getMissCount()
+	{
+		return misses;
+	}
+	
+	/**
+	 * @return the number of resources deleted to stay in the budget
+	 * (or by evictUnused())
+	 */
+	public static long getEvictionCount()
+	{
+		return evictions;
+	}
+	
+	/**
+	 * @return the fraction of loads that found the resource cached
+	 */
+	public static float getHitRate()
+	{
+		return hits + misses == 0 ? 0.0f : (float) hits / (hits + misses);
+	}
+	
+	public static String getStats()
+	{
+		return String.format("ResourceManager: %d cached (%d unused), %.1f/%.1f MB, hits %d, misses %d (%.1f%%), evictions %d",
+				cache.size(), unused.size(), getMemoryUsage() / (1024.0 * 1024.0), memoryBudget / (1024.0 * 1024.0),
+				hits, misses, getHitRate() * 100.0f, evictions);
+	}
+	
+	/*
+	 * Take a reference to a cached entry
+	 * 
+	 * @return the entry, or null if it isn't cached
+	 */
+	private static Entry acquire(String key)
+	{
+		Entry entry = cache.get(key);
+		if(entry == null)
+		{
+			misses++;
+			return null;
+		}
+		
+		hits++;
+		if(entry.references++ == 0)
+			unused.remove(key);
+		return entry;
+	}
+	
+	/*
+	 * Cache a new resource with one reference
+	 */
+	private static Entry add(String key, Object resource)
+	{
+		Entry entry = new Entry(key, resource);
+		entry.references = 1;
+		cache.put(key, entry);
+		evict();
+		return entry;
+	}
+	
+	private static void release(String key, Object resource)
+	{
+		Entry entry = find(key, resource);
+		if(entry == null || entry.references == 0)
+			return;
+		
+		if(--entry.references > 0)
+			return;
+		
+		if(replaced.remove(resource) != null)
+			entry.delete();
+		else
+		{
+			unused.put(key, entry);
+			evict();
+		}
+	}
+	
+	/*
+	 * Get the entry of a resource, cached under its key or replaced
+	 * 
+	 * @return the entry, or null if the ResourceManager doesn't have it
+	 */
+	private static Entry find(String key, Object resource)
+	{
+		Entry entry = cache.get(key);
+		if(entry != null && entry.resource == resource)
+			return entry;
+		return replaced.get(resource);
+	}
+	
+	/*
+	 * Delete least recently used unreferenced entries until the cache
+	 * fits in the budget
+	 */
+	private static void evict()
+	{
+		if(unused.isEmpty())
+			return;
+		
+		long memory = getMemoryUsage();
+		while(memory > memoryBudget && !unused.isEmpty())
+		{
+			Entry entry = unused.values().iterator().next();
+			memory -= entry.getMemorySize();
+			evict(entry);
+		}
+	}
+	
+	private static void evict(Entry entry)
+	{
+		remove(entry);
+		evictions++;
+	}
+	
+	private static void remove(Entry entry)
+	{
+		cache.remove(entry.key);
+		unused.remove(entry.key);
+		entry.delete();
+	}
+	
+	/*
+	 * Compile and link a vertex and fragment shader file
+	 */
+	private static int compileProgram(String vertPath, String fragPath)
 	{
 		// Convert the GLSL files into strings
 		String vert = loadFileAsString(vertPath);
@@ -44,9 +468,11 @@ public class ResourceManager
 		glLinkProgram(shaderProgram);
 		glValidateProgram(shaderProgram);
 	
-		// Detatch the shaders now that they're linked
+		// Detatch the shaders now that they're linked, they aren't needed anymore
 		glDetachShader(shaderProgram, vertexShader);
 		glDetachShader(shaderProgram, fragmentShader);
+		glDeleteShader(vertexShader);
+		glDeleteShader(fragmentShader);
 
 		return shaderProgram;
 	}
@@ -81,6 +507,9 @@ public class ResourceManager
 	 */
 	public static String loadFileAsString(String path)
 	{
+		if(pack != null && pack.has(path))
+			return pack.getString(path);
+		
 		StringBuilder result = new StringBuilder();
 		
 		try
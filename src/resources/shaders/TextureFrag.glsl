@@ -2,6 +2,11 @@
 
 uniform sampler2D texture_diffuse;
 
+// How texture_diffuse is stored (see TextureFormat.getShaderMode()):
+// 0 RGBA, 1 alpha in the red channel, 2 palette indices in the red channel
+uniform int texture_format;
+uniform sampler2D palette;
+
 in vec4 pass_Color;
 in vec2 pass_TextureCoord;
 
@@ -9,7 +14,13 @@ out vec4 out_Color;
 
 void main(void) 
 {
-	out_Color = pass_Color;
-	// Override out_Color with our texture pixel
-	out_Color = texture(texture_diffuse, pass_TextureCoord);
+	// The texture pixel, multiplied by the sprite color
+	vec4 texel = texture(texture_diffuse, pass_TextureCoord);
+	
+	if(texture_format == 1)
+		out_Color = vec4(pass_Color.rgb, pass_Color.a * texel.r);
+	else if(texture_format == 2)
+		out_Color = pass_Color * texelFetch(palette, ivec2(int(texel.r * 255.0 + 0.5), 0), 0);
+	else
+		out_Color = pass_Color * texel;
 }
\ No newline at end of file